@@ -30,6 +30,8 @@ public class TestItemObservList extends DataList<TestItemDTO,Integer> {
     public TestItemObservList() throws IOException, IntrospectionException {
         super(new TestItemDAO());
         log.trace(">>> constructor");
+        //соседние страницы выбираются по ключу, а не через offset/rownum
+        setKeyset("id", (row, col) -> "name".equalsIgnoreCase(col) ? row.getName() : row.getId());
     }
     
 }
@@ -29,6 +29,7 @@ import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 import javafx.scene.chart.BarChart;
 import fxapp01.dao.TestItemDAO;
+import fxapp01.dao.cache.RowCountCache;
 import fxapp01.dto.INestedRange;
 import fxapp01.dto.TestItemDTO;
 import fxapp01.dto.NestedIntRange;
@@ -49,6 +50,7 @@ public class TestItemTblMdl extends AbstractTableModel {
     private static ObservableList<BarChart.Series> bcData;
     
     private final TestItemDAO dao;
+    private final RowCountCache<Integer> rowCount;
     private final ObservableList<TestItemDTO> data = FXCollections.observableArrayList();
     //TODO modified data cache
     
@@ -63,6 +65,7 @@ public class TestItemTblMdl extends AbstractTableModel {
 
     public TestItemTblMdl() throws IOException, IntrospectionException {
         dao = new TestItemDAO();
+        rowCount = new RowCountCache<>(dao::getRowTotalRange);
         dataCacheFactor = 3.0; //defaul cache factor
         outerLimits = new NestedIntRange(1, Integer.MAX_VALUE, null); 
         cacheRowsRange = new NestedIntRange(1, 100, outerLimits); //default data window start and size
@@ -208,7 +211,7 @@ public class TestItemTblMdl extends AbstractTableModel {
     public int getRowCount() {
         int rc;
         try {
-            rc = dao.getRowTotalRange().getLength().intValue();
+            rc = rowCount.get().getLength().intValue();
         } catch (IOException ex) {
             log.error(null, ex);
             rc = 0;
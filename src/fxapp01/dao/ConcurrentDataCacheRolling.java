@@ -0,0 +1,598 @@
+/*
+ * Copyright 2015 serg.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fxapp01.dao;
+
+import fxapp01.dao.cache.AdaptiveSizing;
+import fxapp01.dao.cache.IRowStore;
+import fxapp01.dao.cache.VersionScope;
+import fxapp01.dto.INestedRange;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Потокобезопасный вариант плавающего кеша данных.
+ * После каждого изменения окна публикуется его неизменяемый снимок (volatile ссылка).
+ * Чтение строки, попадающей в снимок, выполняется без блокировок, поэтому читатели
+ * не блокируют друг друга. Промах, загрузка данных, добавление загруженных в фоне
+ * страниц и любые изменения выполняются под одной блокировкой, а новый снимок
+ * публикуется одним присваиванием после завершения операции, т.е. атомарно.
+ * Снимок пересоздается, только если операция изменила окно: чтение под блокировкой
+ * (size, contains, indexOf и т.п.) окно не копирует.
+ * @author serg
+ * @param <T> класс строки данных
+ * @param <RangeKeyClass>
+ */
+public class ConcurrentDataCacheRolling<T,RangeKeyClass extends Number> extends DataCacheRolling<T,RangeKeyClass> {
+
+    private final ReentrantLock lock;
+    private volatile Snapshot snapshot;
+    // окно изменено операцией, выполняемой под блокировкой
+    private boolean dirty;
+
+    public ConcurrentDataCacheRolling(IDataRangeFetcher<T,RangeKeyClass> dataFetcher) throws IOException {
+        super(dataFetcher);
+        this.lock = new ReentrantLock();
+        this.snapshot = Snapshot.empty;
+    }
+
+    public ConcurrentDataCacheRolling(IDataRangeFetcher<T,RangeKeyClass> dataFetcher, int defSize, int maxSize) throws IOException {
+        super(dataFetcher, defSize, maxSize);
+        this.lock = new ReentrantLock();
+        this.snapshot = Snapshot.empty;
+    }
+
+    /* захват блокировки. в конструкторе базового класса блокировки еще нет */
+    private void lock() {
+        if (lock != null) {
+            lock.lock();
+        }
+    }
+
+    /* захват блокировки для операции, изменяющей окно */
+    private void lockForUpdate() {
+        lock();
+        dirty = true;
+    }
+
+    /* 
+     * освобождение блокировки с публикацией снимка при выходе из внешней операции,
+     * если окно изменено или сдвинуто (промах при чтении строки)
+     */
+    private void unlock() {
+        if (lock == null) {
+            return;
+        }
+        try {
+            if ((lock.getHoldCount() == 1) && (dirty || isWindowMoved())) {
+                dirty = false;
+                publish();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /* границы окна не совпадают с опубликованным снимком */
+    private boolean isWindowMoved() {
+        INestedRange<RangeKeyClass> range = getRange();
+        Snapshot s = snapshot;
+        return (range.getFirst().longValue() != s.first) 
+                || (range.getLength().longValue() != s.rows.length);
+    }
+
+    /**
+     * Публикует снимок текущего окна. Вызывается под блокировкой.
+     * В снимке запоминается часть окна, чтение из которой не требует упреждающей
+     * загрузки, чтобы такие чтения не захватывали блокировку.
+     */
+    private void publish() {
+        INestedRange<RangeKeyClass> range = getRange();
+        INestedRange<RangeKeyClass> outer = range.getParentRange();
+        Object[] rows = windowRows();
+        long first = range.getFirst().longValue();
+        long last = first + rows.length - 1;
+        long fastFirst = first;
+        long fastLast = last;
+        int ra = getReadAhead();
+        if (ra > 0) {
+            if ((outer == null) || (first > outer.getFirst().longValue())) {
+                fastFirst = first + ra;
+            }
+            if ((outer == null) || (last < outer.getLast().longValue())) {
+                fastLast = last - ra;
+            }
+        }
+        snapshot = new Snapshot(first, rows, fastFirst, fastLast);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public T getRow(long rowNo) {
+        Snapshot s = snapshot;
+        if ((rowNo >= s.fastFirst) && (rowNo <= s.fastLast) && !hasPrefetchedPages()) {
+            AdaptiveSizing sz = getSizingPolicy();
+            if (sz != null) {
+                sz.onAccess(rowNo, System.nanoTime());
+            }
+            getStatistics().recordHit();
+            return (T)s.rows[(int)(rowNo - s.first)];
+        }
+        lock();
+        try {
+            return super.getRow(rowNo);
+        } finally {
+            unlock();
+        }
+    }
+
+    @Override
+    public boolean containsIndex(long rowNo) {
+        lock();
+        try {
+            return super.containsIndex(rowNo);
+        } finally {
+            unlock();
+        }
+    }
+
+    @Override
+    public void installPrefetched() {
+        lockForUpdate();
+        try {
+            super.installPrefetched();
+        } finally {
+            unlock();
+        }
+    }
+
+    @Override
+    public void putRows(long first, List<T> rows) {
+        lockForUpdate();
+        try {
+            super.putRows(first, rows);
+        } finally {
+            unlock();
+        }
+    }
+
+    @Override
+    public VersionScope getVersionScope() {
+        lock();
+        try {
+            return super.getVersionScope();
+        } finally {
+            unlock();
+        }
+    }
+
+    @Override
+    public List<Long> patchRows(VersionScope scope, List<T> rows) {
+        lockForUpdate();
+        try {
+            return super.patchRows(scope, rows);
+        } finally {
+            unlock();
+        }
+    }
+
+    /**
+     * Измененные строки запрашиваются без блокировки, чтобы не задерживать чтение.
+     */
+    @Override
+    public List<Long> refreshChanged() {
+        VersionScope scope = getVersionScope();
+        List<T> rows = (scope == null) ? null : fetchChanged(scope);
+        if (rows == null) {
+            refresh();
+            return null;
+        }
+        return patchRows(scope, rows);
+    }
+
+    @Override
+    public void invalidate() {
+        lockForUpdate();
+        try {
+            super.invalidate();
+        } finally {
+            unlock();
+        }
+    }
+
+    @Override
+    public void refresh() {
+        lockForUpdate();
+        try {
+            super.refresh();
+        } finally {
+            unlock();
+        }
+    }
+
+    @Override
+    public boolean hasDataChanges() {
+        lock();
+        try {
+            return super.hasDataChanges();
+        } finally {
+            unlock();
+        }
+    }
+
+    @Override
+    public void applyDataChanges() throws IOException {
+        lockForUpdate();
+        try {
+            super.applyDataChanges();
+        } finally {
+            unlock();
+        }
+    }
+
+    @Override
+    public void cancelDataChanges() {
+        lockForUpdate();
+        try {
+            super.cancelDataChanges();
+        } finally {
+            unlock();
+        }
+    }
+
+    @Override
+    public boolean loadToCache(Collection<? extends T> c) {
+        lockForUpdate();
+        try {
+            return super.loadToCache(c);
+        } finally {
+            unlock();
+        }
+    }
+
+    @Override
+    public boolean loadToCache(RangeKeyClass index, Collection<? extends T> c) {
+        lockForUpdate();
+        try {
+            return super.loadToCache(index, c);
+        } finally {
+            unlock();
+        }
+    }
+
+    @Override
+    public void setDefSize(int defSize) {
+        lockForUpdate();
+        try {
+            super.setDefSize(defSize);
+        } finally {
+            unlock();
+        }
+    }
+
+    @Override
+    public void setMaxSize(int maxSize) {
+        lockForUpdate();
+        try {
+            super.setMaxSize(maxSize);
+        } finally {
+            unlock();
+        }
+    }
+
+    @Override
+    public void setReadAhead(int distance) {
+        lockForUpdate();
+        try {
+            super.setReadAhead(distance);
+        } finally {
+            unlock();
+        }
+    }
+
+    @Override
+    public void setSizingPolicy(AdaptiveSizing sizing) {
+        lockForUpdate();
+        try {
+            super.setSizingPolicy(sizing);
+        } finally {
+            unlock();
+        }
+    }
+
+    @Override
+    public void setRowTotalLength(long length) {
+        lockForUpdate();
+        try {
+            super.setRowTotalLength(length);
+        } finally {
+            unlock();
+        }
+    }
+
+    @Override
+    public void setRowStore(IRowStore<T> store) {
+        lockForUpdate();
+        try {
+            super.setRowStore(store);
+        } finally {
+            unlock();
+        }
+    }
+
+    @Override
+    public void setPageTable(int pageSize, int maxPages) {
+        lockForUpdate();
+        try {
+            super.setPageTable(pageSize, maxPages);
+        } finally {
+            unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock();
+        try {
+            return super.size();
+        } finally {
+            unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        lockForUpdate();
+        try {
+            super.clear();
+        } finally {
+            unlock();
+        }
+    }
+
+    @Override
+    public boolean isEmpty() {
+        lock();
+        try {
+            return super.isEmpty();
+        } finally {
+            unlock();
+        }
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        lock();
+        try {
+            return super.contains(o);
+        } finally {
+            unlock();
+        }
+    }
+
+    /**
+     * @return итератор по копии данных кеша, снятой под блокировкой
+     */
+    @Override
+    public Iterator<T> iterator() {
+        List<T> copy = new ArrayList<>();
+        lock();
+        try {
+            Iterator<T> itr = super.iterator();
+            while (itr.hasNext()) {
+                copy.add(itr.next());
+            }
+        } finally {
+            unlock();
+        }
+        return Collections.unmodifiableList(copy).iterator();
+    }
+
+    @Override
+    public Object[] toArray() {
+        lock();
+        try {
+            return super.toArray();
+        } finally {
+            unlock();
+        }
+    }
+
+    @Override
+    public <E>E[] toArray(E[] a) {
+        lock();
+        try {
+            return super.toArray(a);
+        } finally {
+            unlock();
+        }
+    }
+
+    @Override
+    public boolean add(T e) {
+        lockForUpdate();
+        try {
+            return super.add(e);
+        } finally {
+            unlock();
+        }
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        lockForUpdate();
+        try {
+            return super.remove(o);
+        } finally {
+            unlock();
+        }
+    }
+
+    @Override
+    public boolean containsAll(Collection<?> c) {
+        lock();
+        try {
+            return super.containsAll(c);
+        } finally {
+            unlock();
+        }
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends T> c) {
+        lockForUpdate();
+        try {
+            return super.addAll(c);
+        } finally {
+            unlock();
+        }
+    }
+
+    @Override
+    public boolean addAll(int index, Collection<? extends T> c) {
+        lockForUpdate();
+        try {
+            return super.addAll(index, c);
+        } finally {
+            unlock();
+        }
+    }
+
+    @Override
+    public boolean removeAll(Collection<?> c) {
+        lockForUpdate();
+        try {
+            return super.removeAll(c);
+        } finally {
+            unlock();
+        }
+    }
+
+    @Override
+    public boolean retainAll(Collection<?> c) {
+        lockForUpdate();
+        try {
+            return super.retainAll(c);
+        } finally {
+            unlock();
+        }
+    }
+
+    @Override
+    public T set(int index, T element) {
+        lockForUpdate();
+        try {
+            return super.set(index, element);
+        } finally {
+            unlock();
+        }
+    }
+
+    @Override
+    public void add(int index, T element) {
+        lockForUpdate();
+        try {
+            super.add(index, element);
+        } finally {
+            unlock();
+        }
+    }
+
+    @Override
+    public T remove(int index) {
+        lockForUpdate();
+        try {
+            return super.remove(index);
+        } finally {
+            unlock();
+        }
+    }
+
+    @Override
+    public int indexOf(Object o) {
+        lock();
+        try {
+            return super.indexOf(o);
+        } finally {
+            unlock();
+        }
+    }
+
+    @Override
+    public int lastIndexOf(Object o) {
+        lock();
+        try {
+            return super.lastIndexOf(o);
+        } finally {
+            unlock();
+        }
+    }
+
+    /**
+     * @return итератор по неизменяемому снимку окна
+     */
+    @Override
+    public ListIterator<T> listIterator() {
+        return snapshotList().listIterator();
+    }
+
+    /**
+     * @return итератор по неизменяемому снимку окна
+     */
+    @Override
+    public ListIterator<T> listIterator(int index) {
+        return snapshotList().listIterator(index);
+    }
+
+    /**
+     * @return часть неизменяемого снимка окна
+     */
+    @Override
+    public List<T> subList(int fromIndex, int toIndex) {
+        return snapshotList().subList(fromIndex, toIndex);
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<T> snapshotList() {
+        return Collections.unmodifiableList((List<T>)Arrays.asList(snapshot.rows));
+    }
+
+    /**
+     * Неизменяемый снимок окна кеша.
+     */
+    private static final class Snapshot {
+        private static final Snapshot empty = new Snapshot(0, new Object[0], 0, -1);
+        private final long first;
+        private final Object[] rows;
+        // границы части окна, чтение из которой выполняется без блокировки
+        private final long fastFirst;
+        private final long fastLast;
+
+        private Snapshot(long first, Object[] rows, long fastFirst, long fastLast) {
+            this.first = first;
+            this.rows = rows;
+            this.fastFirst = fastFirst;
+            this.fastLast = fastLast;
+        }
+    }
+
+}
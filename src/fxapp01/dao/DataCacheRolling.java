@@ -15,22 +15,39 @@
  */
 package fxapp01.dao;
 
+import fxapp01.dao.cache.AdaptiveSizing;
+import fxapp01.dao.cache.CacheStatistics;
+import fxapp01.dao.cache.CoalescingRangeFetcher;
+import fxapp01.dao.cache.CompactRowStore;
+import fxapp01.dao.cache.IRowCodec;
+import fxapp01.dao.cache.IRowStore;
+import fxapp01.dao.cache.LongHashMap;
+import fxapp01.dao.cache.PageTable;
+import fxapp01.dao.cache.RingBuffer;
+import fxapp01.dao.cache.VersionScope;
 import fxapp01.dto.INestedRange;
 import fxapp01.excpt.EArgumentBreaksRule;
+import fxapp01.excpt.ENegativeArgument;
 import fxapp01.excpt.ENullArgument;
 import fxapp01.excpt.EUnsupported;
 import fxapp01.log.ILogger;
 import fxapp01.log.LogMgr;
 import java.io.IOException;
+import java.math.BigInteger;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.ListIterator;
-import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Set;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
 
 /**
  * Скользящий (плавающий) кеш данных. В данной версии только read-only. Хранит "окно" данных 
@@ -49,16 +66,39 @@ public class DataCacheRolling<T,RangeKeyClass extends Number> implements List<T>
     private static final String exiting = "<<< ";
     // фактическое начало (порядковый номер первой строки) и фактический размер 
     // окна данных в рамках источника данных. 
-    private final IDataRangeFetcher<T,RangeKeyClass> dataFetcher;
+    private final CoalescingRangeFetcher<T,RangeKeyClass> dataFetcher;
     private final boolean hasWriteSupport;
     private final IDataWriter<T> dataWriter;
     private INestedRange<RangeKeyClass> outerLimits;
     private INestedRange<RangeKeyClass> range;
     private int defSize;
     private int maxSize;
-    private final List<T> dataReadOnly;
-    private final HashMap<Object, T> dataOldValues;
-    private final HashMap<Object, T> dataNewValues;
+    private IRowStore<T> dataReadOnly;
+    // изменения существующих строк с первичным ключом (IHasID). ключ - первичный ключ строки
+    private final LongHashMap<T> dataOldValues;
+    private final LongHashMap<T> dataNewValues;
+    // изменения новых (еще не сохраненных) строк и строк без первичного ключа. 
+    // ключ - порядковый номер, выданный кешем, строка находит его через localKeys
+    private final LongHashMap<T> localOldValues;
+    private final LongHashMap<T> localNewValues;
+    // ключ изменения по текущему объекту строки (сравнение по ссылке)
+    private final IdentityHashMap<T,Long> localKeys;
+    // последний выданный порядковый номер
+    private long localKeySeq;
+    private static final long noKey = Long.MIN_VALUE;
+    // упреждающее чтение (read-ahead). 0 - отключено
+    private int readAheadDistance;
+    private ExecutorService prefetchExecutor;
+    private Executor spliceExecutor;
+    private final AtomicBoolean prefetchInFlight;
+    private final ConcurrentLinkedQueue<PrefetchedPage<T>> prefetchedPages;
+    // поколение окна. меняется при полной перезагрузке, чтобы отбросить устаревшие страницы
+    private volatile int generation;
+    // таблица страниц (режим многосегментного кеша). null - отключено
+    private PageTable<T> pageTable;
+    // политика адаптивного размера страницы и окна. null - размеры фиксированы
+    private volatile AdaptiveSizing sizing;
+    private final CacheStatistics statistics;
     
     public DataCacheRolling(IDataRangeFetcher<T,RangeKeyClass> dataFetcher) throws IOException {
         String methodName = "constructor(dataFetcher)";
@@ -66,7 +106,8 @@ public class DataCacheRolling<T,RangeKeyClass extends Number> implements List<T>
         if (dataFetcher == null) {
             throw new ENullArgument(methodName);
         } 
-        this.dataFetcher = dataFetcher;
+        //одновременные запросы пересекающихся диапазонов объединяются
+        this.dataFetcher = new CoalescingRangeFetcher<>(dataFetcher);
         this.hasWriteSupport = (dataFetcher instanceof IDataWriter);
         if (hasWriteSupport) {
             this.dataWriter = (IDataWriter<T>)dataFetcher;
@@ -75,15 +116,29 @@ public class DataCacheRolling<T,RangeKeyClass extends Number> implements List<T>
         }
         this.defSize = 100; //defaults
         this.maxSize = 300;
-        this.dataReadOnly = new ArrayList<>();
-        // If a thread-safe highly-concurrent implementation is desired, then it is recommended to use ConcurrentHashMap
-        this.dataOldValues = new HashMap<>(16, 0.75f); //defaults
-        this.dataNewValues = new HashMap<>(16, 0.75f); //defaults
+        this.dataReadOnly = new RingBuffer<>(this.maxSize);
+        this.dataOldValues = new LongHashMap<>();
+        this.dataNewValues = new LongHashMap<>();
+        this.localOldValues = new LongHashMap<>();
+        this.localNewValues = new LongHashMap<>();
+        this.localKeys = new IdentityHashMap<>();
+        this.localKeySeq = 0;
+        this.readAheadDistance = 0;
+        this.prefetchExecutor = null;
+        this.spliceExecutor = null;
+        this.prefetchInFlight = new AtomicBoolean(false);
+        this.prefetchedPages = new ConcurrentLinkedQueue<>();
+        this.generation = 0;
+        this.pageTable = null;
+        this.sizing = null;
+        this.statistics = new CacheStatistics();
         log.debug("before dataFetcher.getRowTotalRange");
-        this.outerLimits = dataFetcher.getRowTotalRange();
-        if (this.outerLimits == null) {
+        INestedRange<RangeKeyClass> total = dataFetcher.getRowTotalRange();
+        if (total == null) {
             throw new ENullArgument(methodName, "outerLimits");
         }
+        //собственная копия, т.к. границы меняются в setRowTotalLength
+        this.outerLimits = total.clone();
         this.range = this.outerLimits.clone();
         this.range.setFirst(outerLimits.getFirst());
         this.range.setLength(range.valueOf(0));
@@ -112,11 +167,18 @@ public class DataCacheRolling<T,RangeKeyClass extends Number> implements List<T>
     }
 
     private int toCacheIndex(Number dataRowNo){
-        return range.NumberSub(dataRowNo, range.getFirst()).intValue();
+        return (int)(dataRowNo.longValue() - range.getFirst().longValue());
     }
     
-    private RangeKeyClass toDataRowNo(RangeKeyClass cacheIndex){
-        return range.NumberAdd(cacheIndex,range.getFirst());
+    /* диапазон строк в пределах outerLimits */
+    private INestedRange<RangeKeyClass> newRange(RangeKeyClass first, int length) {
+        INestedRange<RangeKeyClass> r = outerLimits.clone();
+        r.setParentRange(null);
+        r.setLength(r.valueOf(0));
+        r.setFirst(first);
+        r.setLength(r.valueOf(length));
+        r.setParentRange(outerLimits);
+        return r;
     }
     
     public INestedRange<RangeKeyClass> getRange() {
@@ -143,12 +205,504 @@ public class DataCacheRolling<T,RangeKeyClass extends Number> implements List<T>
         this.maxSize = maxSize;
     }
     
+    public int getReadAhead() {
+        return readAheadDistance;
+    }
+
+    /**
+     * Включает упреждающее чтение. Если запрошенная строка находится ближе 
+     * distance строк от края окна, следующая страница (defSize строк) за этим краем 
+     * загружается в фоновом потоке и добавляется в окно после получения.
+     * @param distance расстояние до края окна в строках. 0 - отключить упреждающее 
+     * чтение и остановить фоновый поток
+     */
+    public void setReadAhead(int distance) {
+        if (distance < 0) {
+            throw new ENegativeArgument("setReadAhead", "distance");
+        }
+        this.readAheadDistance = distance;
+        if (distance == 0) {
+            shutdownPrefetch();
+        }
+    }
+
+    /* выполняющаяся загрузка завершается, ее страница в окно не добавляется */
+    private synchronized void shutdownPrefetch() {
+        if (prefetchExecutor != null) {
+            prefetchExecutor.shutdown();
+            prefetchExecutor = null;
+            generation++;
+        }
+    }
+
+    /**
+     * @return кол-во строк источника данных (длина диапазона outerLimits)
+     */
+    public long getRowTotalLength() {
+        return outerLimits.getLength().longValue();
+    }
+
+    /**
+     * Изменяет кол-во строк источника данных, н-р после добавления или удаления
+     * строк или нового подсчета строк. Строки окна за новой границей сбрасываются.
+     * @param length новое кол-во строк
+     */
+    public void setRowTotalLength(long length) {
+        log.trace("setRowTotalLength(length="+length+")");
+        if (length < 0) {
+            throw new ENegativeArgument("setRowTotalLength", "length");
+        }
+        if (length == outerLimits.getLength().longValue()) {
+            return;
+        }
+        long newLast = outerLimits.getFirst().longValue() + length - 1;
+        long first = range.getFirst().longValue();
+        int len = range.getLength().intValue();
+        if (first > newLast) {
+            //окно целиком за новой границей
+            statistics.recordEvicted(dataReadOnly.size());
+            clear();
+            range.setFirst(outerLimits.getFirst());
+        } else {
+            if (first + len - 1 > newLast) {
+                purgeRight((int)(first + len - 1 - newLast));
+            }
+        }
+        generation++;
+        prefetchedPages.clear();
+        invalidatePages();
+        outerLimits.setLength(outerLimits.valueOf(length));
+    }
+
+    public Executor getSpliceExecutor() {
+        return spliceExecutor;
+    }
+
+    /**
+     * @param spliceExecutor исполнитель, в котором загруженные в фоне страницы 
+     * добавляются в окно (например, Platform::runLater для javafx). Если не задан, 
+     * страницы добавляются в окно при следующем вызове get() в потоке вызывающего.
+     */
+    public void setSpliceExecutor(Executor spliceExecutor) {
+        this.spliceExecutor = spliceExecutor;
+    }
+
+    /**
+     * Заменяет хранилище строк окна. Строки текущего окна переносятся в новое хранилище.
+     * @param store пустое хранилище строк
+     */
+    public void setRowStore(IRowStore<T> store) {
+        log.trace("setRowStore("+store+")");
+        if (store == null) {
+            throw new ENullArgument("setRowStore", "store");
+        }
+        store.addAllLast(dataReadOnly);
+        dataReadOnly = store;
+    }
+
+    /**
+     * Включает компактное хранение строк окна в двоичном виде (CompactRowStore).
+     * Объекты строк создаются только при обращении к ним, что позволяет держать 
+     * в окне миллионы строк. Изменения объекта строки нужно сохранять через set().
+     * ConcurrentDataCacheRolling публикует снимок окна из объектов строк, поэтому
+     * для него компактное хранение выигрыша в памяти не дает.
+     * @param codec преобразователь строк в двоичный вид
+     * @param direct true - хранить строки вне кучи
+     */
+    public void setCompactStorage(IRowCodec<T> codec, boolean direct) {
+        setRowStore(new CompactRowStore<>(codec, direct, CompactRowStore.defSlabSize, CompactRowStore.defMaterializedRows));
+    }
+
+    /**
+     * @return статистика работы кеша. для публикации через JMX - getStatistics().register(name)
+     */
+    public CacheStatistics getStatistics() {
+        return statistics;
+    }
+
+    public AdaptiveSizing getSizingPolicy() {
+        return sizing;
+    }
+
+    /**
+     * Задает политику адаптивного размера страницы (defSize) и окна (maxSize) кеша.
+     * Размеры пересчитываются при каждом обращении к строке с учетом характера 
+     * прокрутки и времени загрузки данных.
+     * @param sizing политика. null - размеры фиксированы (setDefSize, setMaxSize)
+     */
+    public void setSizingPolicy(AdaptiveSizing sizing) {
+        log.trace("setSizingPolicy("+sizing+")");
+        this.sizing = sizing;
+        if (sizing != null) {
+            this.defSize = sizing.getPageSize();
+            this.maxSize = sizing.getWindowSize();
+        }
+    }
+
+    /**
+     * Включает режим многосегментного кеша. Все загруженные из источника данных 
+     * строки дополнительно сохраняются в таблице страниц размером pageSize строк. 
+     * Количество страниц ограничено maxPages, вытесняются давно неиспользуемые (LRU). 
+     * При переходе к далеко отстоящей строке окно собирается из таблицы страниц 
+     * без обращения к источнику данных, если все нужные страницы в ней есть.
+     * @param pageSize размер страницы в строках
+     * @param maxPages максимальное кол-во страниц в таблице. 0 - отключить режим
+     */
+    public void setPageTable(int pageSize, int maxPages) {
+        log.trace("setPageTable(pageSize="+pageSize+", maxPages="+maxPages+")");
+        if (maxPages > 0) {
+            this.pageTable = new PageTable<>(pageSize, maxPages);
+        } else {
+            this.pageTable = null;
+        }
+    }
+
+    public PageTable<T> getPageTable() {
+        return pageTable;
+    }
+
+    /* сбрасывает таблицу страниц после изменения данных */
+    private void invalidatePages() {
+        if (pageTable != null) {
+            pageTable.clear();
+        }
+    }
+
+    /* загрузка из источника данных с замером времени для статистики и политики размеров */
+    private List<T> fetchFromSource(INestedRange<RangeKeyClass> aRange) {
+        return fetchFromSource(aRange, null, true);
+    }
+
+    /* boundaryRow != null - диапазон примыкает к этой строке окна (см. IDataRangeFetcher.fetchAdjacent) */
+    private List<T> fetchFromSource(INestedRange<RangeKeyClass> aRange, T boundaryRow, boolean forward) {
+        return fetchTimed(() -> (boundaryRow == null) ? dataFetcher.fetch(aRange) : dataFetcher.fetchAdjacent(aRange, boundaryRow, forward));
+    }
+
+    /* статистика и политика размеров допускают вызов из фонового потока */
+    private List<T> fetchTimed(Supplier<List<T>> query) {
+        long start = System.nanoTime();
+        List<T> rows = query.get();
+        long nanos = System.nanoTime() - start;
+        int count = (rows == null) ? 0 : rows.size();
+        statistics.recordFetch(count, nanos);
+        AdaptiveSizing sz = sizing;
+        if (sz != null) {
+            sz.onFetch(count, nanos);
+        }
+        return rows;
+    }
+
+    /**
+     * Единая точка загрузки данных из источника. В режиме многосегментного кеша 
+     * диапазон собирается из таблицы страниц, а при отсутствии хотя бы одной 
+     * страницы загружаются целые страницы, покрывающие диапазон.
+     * @param aRange диапазон строк
+     * @return строки диапазона
+     */
+    private List<T> fetchRange(INestedRange<RangeKeyClass> aRange) {
+        PageTable<T> pt = pageTable;
+        if (pt == null) {
+            return fetchFromSource(aRange);
+        }
+        long first = aRange.getFirst().longValue();
+        int len = aRange.getLength().intValue();
+        if (len <= 0) {
+            return new ArrayList<>();
+        }
+        List<T> res = fromPages(pt, first, len);
+        if (res != null) {
+            log.debug("fetchRange. served from page table. first="+first+", length="+len);
+            return res;
+        }
+        INestedRange<RangeKeyClass> pagesRange = pagesRange(pt, first, len);
+        List<T> rows = fetchFromSource(pagesRange);
+        if (rows == null) {
+            return null;
+        }
+        long loadFirst = pagesRange.getFirst().longValue();
+        storePages(pt, loadFirst, rows);
+        return cut(rows, first - loadFirst, len);
+    }
+
+    /* строки first..first+len-1 из таблицы страниц или null, если хотя бы одной страницы нет */
+    private List<T> fromPages(PageTable<T> pt, long first, int len) {
+        long base = outerLimits.getFirst().longValue();
+        int ps = pt.getPageSize();
+        long firstPage = pt.pageOf(first - base);
+        long lastPage = pt.pageOf(first + len - 1 - base);
+        List<T> res = new ArrayList<>(len);
+        boolean hit = true;
+        for (long p = firstPage; (p <= lastPage) && hit; p++) {
+            List<T> page = pt.get(p);
+            if (page == null) {
+                hit = false;
+            } else {
+                long pageStart = base + p * ps;
+                int from = (int)Math.max(0, first - pageStart);
+                int to = (int)Math.min(page.size(), first + len - pageStart);
+                if (from < to) {
+                    res.addAll(page.subList(from, to));
+                }
+                //неполная страница допустима только в конце диапазона данных
+                hit = (page.size() == ps) || (p == lastPage);
+            }
+        }
+        return hit ? res : null;
+    }
+
+    /* целые страницы, покрывающие диапазон first..first+len-1 */
+    private INestedRange<RangeKeyClass> pagesRange(PageTable<T> pt, long first, int len) {
+        long base = outerLimits.getFirst().longValue();
+        int ps = pt.getPageSize();
+        long loadFirst = base + pt.pageOf(first - base) * ps;
+        long loadLast = Math.min(outerLimits.getLast().longValue(), base + (pt.pageOf(first + len - 1 - base) + 1) * ps - 1);
+        return newRange(range.valueOf(loadFirst), (int)(loadLast - loadFirst + 1));
+    }
+
+    /* сохраняет в таблице страниц строки, загруженные по pagesRange, начиная с loadFirst */
+    private void storePages(PageTable<T> pt, long loadFirst, List<T> rows) {
+        long base = outerLimits.getFirst().longValue();
+        int ps = pt.getPageSize();
+        long firstPage = pt.pageOf(loadFirst - base);
+        for (long p = firstPage; ; p++) {
+            int from = (int)((p - firstPage) * ps);
+            int to = Math.min(rows.size(), from + ps);
+            if (from >= to) {
+                break;
+            }
+            //неполную страницу сохраняем, только если она последняя в диапазоне данных
+            if ((to - from == ps) || (base + p * ps + (to - from) - 1 == outerLimits.getLast().longValue())) {
+                pt.put(p, rows.subList(from, to));
+            }
+        }
+    }
+
+    /* копия len строк, начиная с from */
+    private List<T> cut(List<T> rows, long from, int len) {
+        int to = (int)Math.min(rows.size(), from + len);
+        return (from < to) ? new ArrayList<>(rows.subList((int)from, to)) : new ArrayList<>();
+    }
+
+    /**
+     * Загрузка диапазона, примыкающего к окну слева или справа. Источнику передается 
+     * крайняя строка окна, чтобы он мог выбрать строки по ключу, не пропуская 
+     * предшествующие. В режиме многосегментного кеша загружаются целые страницы.
+     */
+    private List<T> fetchAdjacent(INestedRange<RangeKeyClass> aRange) {
+        int len = dataReadOnly.size();
+        if ((pageTable != null) || (len == 0)) {
+            return fetchRange(aRange);
+        }
+        long first = range.getFirst().longValue();
+        long aFirst = aRange.getFirst().longValue();
+        if (aFirst == first + len) {
+            return fetchFromSource(aRange, dataReadOnly.get(len - 1), true);
+        }
+        if (aFirst + aRange.getLength().longValue() == first) {
+            return fetchFromSource(aRange, dataReadOnly.get(0), false);
+        }
+        return fetchRange(aRange);
+    }
+
+    /**
+     * @return значение целочисленного первичного ключа строки (IHasID) или noKey
+     */
+    private static long idKey(Object row) {
+        if (row instanceof IHasID) {
+            Object id = ((IHasID)row).getId();
+            if ((id instanceof BigInteger) && (((BigInteger)id).bitLength() < 64)) {
+                return ((BigInteger)id).longValue();
+            }
+            if ((id instanceof Long) || (id instanceof Integer) 
+                    || (id instanceof Short) || (id instanceof Byte)) {
+                return ((Number)id).longValue();
+            }
+        }
+        return noKey;
+    }
+
+    /**
+     * Запоминает новую строку в буфере изменений под порядковым номером.
+     * Первичный ключ новой строки не используется: он может быть еще не назначен.
+     */
+    private void recordInsert(T row) {
+        long key = ++localKeySeq;
+        localKeys.put(row, key);
+        localOldValues.put(key, null);
+        localNewValues.put(key, row);
+    }
+
+    /**
+     * Запоминает изменение (replacement != null) или удаление (replacement == null) 
+     * строки current. Новая строка меняется в своей же записи буфера (остается 
+     * добавлением), а удаленная до сохранения - убирается из буфера. Существующая 
+     * строка с первичным ключом (IHasID) ищется по значению ключа, поэтому повторные 
+     * изменения попадают в одну запись независимо от положения строки в окне.
+     * При повторном изменении сохраняется исходное значение строки.
+     */
+    private void recordChange(T current, T replacement) {
+        Long local = localKeys.remove(current);
+        if (local != null) {
+            if ((replacement == null) && (localOldValues.get(local) == null)) {
+                localOldValues.remove(local);
+                localNewValues.remove(local);
+            } else {
+                localNewValues.put(local, replacement);
+                if (replacement != null) {
+                    localKeys.put(replacement, local);
+                }
+            }
+            return;
+        }
+        long key = idKey(current);
+        if (key != noKey) {
+            dataOldValues.putIfAbsent(key, current);
+            dataNewValues.put(key, replacement);
+            return;
+        }
+        //строка без первичного ключа - по ссылке на текущее значение
+        key = ++localKeySeq;
+        localOldValues.put(key, current);
+        localNewValues.put(key, replacement);
+        if (replacement != null) {
+            localKeys.put(replacement, key);
+        }
+    }
+
+    /**
+     * Сбрасывает окно и таблицу страниц без загрузки данных. Данные будут 
+     * загружены при следующем обращении или переданы через putRows.
+     */
+    public void invalidate() {
+        log.trace("invalidate");
+        clear();
+        invalidatePages();
+        dataFetcher.forget();
+    }
+
     public void refresh() {
         log.trace("refresh");
         INestedRange<RangeKeyClass> r = range.clone();
         clear();
+        invalidatePages();
+        //строки выполняющихся запросов могли быть выбраны до изменения данных
+        dataFetcher.forget();
         log.debug("after clear(). size="+size());
-        loadToCache(r.getFirst(), dataFetcher.fetch(r));
+        loadToCache(r.getFirst(), fetchRange(r));
+    }
+
+    /**
+     * Диапазон первичных ключей строк окна и наибольшая версия среди них.
+     * @return параметры выборки измененных строк или null, если окно пусто, или 
+     * строки не имеют целочисленного первичного ключа (IHasID) или версии (IHasVersion)
+     */
+    public VersionScope getVersionScope() {
+        long minKey = Long.MAX_VALUE;
+        long maxKey = Long.MIN_VALUE;
+        Object mark = null;
+        for (T row : dataReadOnly) {
+            long key = idKey(row);
+            if ((key == noKey) || !(row instanceof IHasVersion)) {
+                return null;
+            }
+            IHasVersion<?> v = (IHasVersion<?>)row;
+            if (v.getVersion() == null) {
+                return null;
+            }
+            minKey = Math.min(minKey, key);
+            maxKey = Math.max(maxKey, key);
+            if ((mark == null) || (compareVersion(v, mark) > 0)) {
+                mark = v.getVersion();
+            }
+        }
+        if (mark == null) {
+            return null;
+        }
+        return new VersionScope(minKey, maxKey, mark, generation);
+    }
+
+    /**
+     * Запрашивает у источника данных строки окна, измененные после расчета scope.
+     * Состояние кеша не меняется, поэтому может выполняться в фоновом потоке.
+     * @param scope результат getVersionScope
+     * @return измененные строки или null, если источник не поддерживает выборку по версии
+     */
+    public List<T> fetchChanged(VersionScope scope) {
+        if (scope == null) {
+            throw new ENullArgument("fetchChanged");
+        }
+        log.trace("fetchChanged. scope="+scope);
+        return dataFetcher.fetchChanged(scope);
+    }
+
+    /**
+     * Заменяет строки окна измененными строками с тем же первичным ключом. 
+     * Строки, которых нет в окне, и строки с версией не новее текущей пропускаются.
+     * Если после расчета scope окно было перезагружено, изменения не применяются.
+     * @param scope результат getVersionScope
+     * @param rows результат fetchChanged
+     * @return номера замененных строк
+     */
+    public List<Long> patchRows(VersionScope scope, List<T> rows) {
+        List<Long> res = new ArrayList<>();
+        if ((scope == null) || (rows == null) || rows.isEmpty() || (scope.getGeneration() != generation)) {
+            return res;
+        }
+        LongHashMap<T> changed = new LongHashMap<>(rows.size());
+        for (T row : rows) {
+            long key = idKey(row);
+            if (key != noKey) {
+                changed.put(key, row);
+            }
+        }
+        long first = range.getFirst().longValue();
+        for (int i = 0; i < dataReadOnly.size(); i++) {
+            T old = dataReadOnly.get(i);
+            T row = changed.get(idKey(old));
+            if ((row != null) && isNewer(row, old)) {
+                dataReadOnly.set(i, row);
+                res.add(first + i);
+            }
+        }
+        if (!res.isEmpty()) {
+            //страницы за пределами окна могли устареть так же
+            invalidatePages();
+        }
+        log.debug("patchRows. changed="+rows.size()+", patched="+res.size());
+        return res;
+    }
+
+    private static boolean isNewer(Object row, Object old) {
+        IHasVersion<?> v = (row instanceof IHasVersion) ? (IHasVersion<?>)row : null;
+        Object ov = (old instanceof IHasVersion) ? ((IHasVersion<?>)old).getVersion() : null;
+        if ((v != null) && (v.getVersion() != null) && (ov != null)) {
+            return compareVersion(v, ov) > 0;
+        }
+        return true;
+    }
+
+    /* сравнение версии строки с версией другой строки того же класса (тот же V) */
+    @SuppressWarnings("unchecked")
+    private static <V extends Comparable<? super V>> int compareVersion(IHasVersion<V> row, Object version) {
+        return row.getVersion().compareTo((V)version);
+    }
+
+    /**
+     * Обновление окна без полной перезагрузки: у источника запрашиваются только 
+     * строки из диапазона ключей окна, версия которых новее наибольшей версии окна,
+     * и заменяются на месте. Добавленные и удаленные строки таким способом 
+     * не обнаруживаются. Если выборка по версии невозможна, окно перезагружается.
+     * @return номера замененных строк или null, если окно перезагружено полностью
+     */
+    public List<Long> refreshChanged() {
+        log.trace("refreshChanged");
+        VersionScope scope = getVersionScope();
+        List<T> rows = (scope == null) ? null : fetchChanged(scope);
+        if (rows == null) {
+            refresh();
+            return null;
+        }
+        return patchRows(scope, rows);
     }
     
     private DataChanges compareValues(T oldValue, T newValue) {
@@ -166,7 +720,7 @@ public class DataCacheRolling<T,RangeKeyClass extends Number> implements List<T>
         
     @Override
     public boolean hasDataChanges() {
-        return (! dataNewValues.isEmpty());
+        return (! dataNewValues.isEmpty()) || (! localNewValues.isEmpty());
     }
     
     @Override
@@ -176,33 +730,28 @@ public class DataCacheRolling<T,RangeKeyClass extends Number> implements List<T>
         if (hasWriteSupport) {
             //если буфер изменений данных не пуст
             if (hasDataChanges()) {
-                //в цикле по всем измененным данным
-                Set<Entry<Object,T>> s = dataNewValues.entrySet();
-                Iterator<Entry<Object,T>> i = s.iterator();
-                //TODO подержка общей транзакции для операций в цикле. 
-                //сейчас каждая операция открывает свою транзакцию. 
-                //Это может привести к частичному сохранению данных.
-                //нужно или сразу после сохранения удалять строку из буфера или 
-                //откатывать изменения, если сохранение некоторых строк завершилось неудачно
+                //TODO общая транзакция для всех пакетов. сейчас каждый пакет 
+                //фиксируется отдельно, что может привести к частичному сохранению данных
                 //TODO поддержка списка проблем/конфликтов, возникших при сохранении данных
-                while (i.hasNext()) {
-                    Entry<Object,T> e = i.next();
-                    Object key = e.getKey();
-                    //ключ (индекс) в буфере новых и старых значений данных совпадают
-                    T oldValue = dataOldValues.get(key);
-                    T newValue = e.getValue();
-                    //выясняем, какой вид изменений был выполнен над данными
-                    DataChanges ch = compareValues(oldValue, newValue);
-                    //вносим соответсвующие изменения в источник данных
-                    switch (ch) {
-                        case INSERT: { dataWriter.insertRow(newValue); break; }
-                        case UPDATE: { dataWriter.updateRow(newValue); break; }
-                        case DELETE: { dataWriter.deleteRow(oldValue); break; }
-                        case NONE: { break; }
-                    }
+                List<T> inserted = new ArrayList<>();
+                List<T> updated = new ArrayList<>();
+                List<T> deleted = new ArrayList<>();
+                collectChanges(dataOldValues, dataNewValues, inserted, updated, deleted);
+                collectChanges(localOldValues, localNewValues, inserted, updated, deleted);
+                //вносим изменения в источник данных пакетами, по одной операции 
+                //на вид изменений. удаление - первым, чтобы освободить уникальные значения
+                log.debug("applyDataChanges. inserted="+inserted.size()+", updated="+updated.size()+", deleted="+deleted.size());
+                if (!deleted.isEmpty()) {
+                    dataWriter.deleteRows(deleted);
                 }
-                dataOldValues.clear();
-                dataNewValues.clear();
+                if (!updated.isEmpty()) {
+                    dataWriter.updateRows(updated);
+                }
+                if (!inserted.isEmpty()) {
+                    dataWriter.insertRows(inserted);
+                }
+                clearChanges();
+                invalidatePages();
             }
         } else {
             throw new EUnsupported("DAO is read-only");
@@ -212,9 +761,39 @@ public class DataCacheRolling<T,RangeKeyClass extends Number> implements List<T>
     
     public void cancelDataChanges() {
         log.trace(entering+"cancelDataChanges");
+        clearChanges();
+        log.trace(exiting+"cancelDataChanges");
+    }
+
+    private void clearChanges() {
         dataOldValues.clear();
         dataNewValues.clear();
-        log.trace(exiting+"cancelDataChanges");
+        localOldValues.clear();
+        localNewValues.clear();
+        localKeys.clear();
+        localKeySeq = 0;
+    }
+
+    /* раскладывает изменения из буфера по видам */
+    private void collectChanges(LongHashMap<T> oldValues, LongHashMap<T> newValues, 
+            List<T> inserted, List<T> updated, List<T> deleted) {
+        //в цикле по всем измененным данным
+        for (int i = 0; i < newValues.capacity(); i++) {
+            if (! newValues.isUsed(i)) {
+                continue;
+            }
+            //ключ в буфере новых и старых значений данных совпадают
+            T oldValue = oldValues.get(newValues.keyAt(i));
+            T newValue = newValues.valueAt(i);
+            //выясняем, какой вид изменений был выполнен над данными
+            DataChanges ch = compareValues(oldValue, newValue);
+            switch (ch) {
+                case INSERT: { inserted.add(newValue); break; }
+                case UPDATE: { updated.add(newValue); break; }
+                case DELETE: { deleted.add(oldValue); break; }
+                case NONE: { break; }
+            }
+        }
     }
     
     /**
@@ -224,7 +803,16 @@ public class DataCacheRolling<T,RangeKeyClass extends Number> implements List<T>
      * @return возвращает true, если этот номер строки данных найден в кеше
      */
     public boolean containsIndex(Integer index) {
-        return range.IsInbound(range.valueOf(index));
+        return containsIndex(index.longValue());
+    }
+
+    /**
+     * @param rowNo номер строки в исходных данных
+     * @return возвращает true, если строка с этим номером находится в окне кеша
+     */
+    public boolean containsIndex(long rowNo) {
+        long first = range.getFirst().longValue();
+        return (first <= rowNo) && (rowNo < first + range.getLength().longValue());
     }
     
     public boolean loadToCache(Collection<? extends T> c) {
@@ -238,7 +826,20 @@ public class DataCacheRolling<T,RangeKeyClass extends Number> implements List<T>
         log.trace(entering+"loadToCache(index="+index+", c)");
         if (c != null) {
             log.debug("before dataReadOnly.addAll()");
-            boolean res = dataReadOnly.addAll(toCacheIndex(index), c);
+            int cacheIdx = toCacheIndex(index);
+            boolean res;
+            if (cacheIdx < 0) {
+                //данные левее текущего окна. добавляем их в начало буфера 
+                //и сдвигаем начало диапазона на фактически загруженное кол-во строк
+                res = dataReadOnly.addAllFirst(c);
+                range.setFirst(range.valueOf(range.getFirst().longValue() - c.size()));
+            } else {
+                if (cacheIdx == 0) {
+                    res = dataReadOnly.addAllFirst(c);
+                } else {
+                    res = dataReadOnly.addAll(cacheIdx, c);
+                }
+            }
             log.debug("size="+size());
             range.incLength(range.valueOf(c.size()));
             return res;
@@ -247,34 +848,39 @@ public class DataCacheRolling<T,RangeKeyClass extends Number> implements List<T>
         }
     }
 
-    private boolean purge(int from, int to) {
-        log.trace(entering+"remove(from="+from+", to="+to+")");
-        if (from > to) {
-            throw new EArgumentBreaksRule("remove", "(from <= to)");
-        }
-        if (! ((from == 0) || (to == dataReadOnly.size()-1)) ) {
-            log.debug("data.size="+dataReadOnly.size());
-            throw new EArgumentBreaksRule("remove", "(from == 0) || (to == data.size()-1)");
-        }
-        for (int i = from; i <= to; i++) {
-            //TODO 
-            dataReadOnly.remove(from);
+    /**
+     * Сбрасывает n строк с левого края окна. Начало окна сдвигается вправо.
+     */
+    private void purgeLeft(int n) {
+        log.trace(entering+"purgeLeft(n="+n+")");
+        if ((n < 0) || (n > dataReadOnly.size())) {
+            throw new EArgumentBreaksRule("purgeLeft", "0 <= n <= data.size()");
         }
+        //удаление с края кольцевого буфера не сдвигает остальные строки
+        dataReadOnly.removeFirst(n);
+        statistics.recordEvicted(n);
         log.debug("after data.remove. data.size="+dataReadOnly.size());
-        int delta = to - from + 1;
-        range.incLength(range.valueOf(-delta));
-        //TODO
-        if (from == 0) {
-            range.setFirst(range.NumberAdd(range.getFirst(),delta));
-        } else {
-            range.setFirst(range.NumberSub(range.getFirst(),delta));
+        range.incLength(range.valueOf(-n));
+        range.setFirst(range.valueOf(range.getFirst().longValue() + n));
+    }
+
+    /**
+     * Сбрасывает n строк с правого края окна. Начало окна не меняется.
+     */
+    private void purgeRight(int n) {
+        log.trace(entering+"purgeRight(n="+n+")");
+        if ((n < 0) || (n > dataReadOnly.size())) {
+            throw new EArgumentBreaksRule("purgeRight", "0 <= n <= data.size()");
         }
-        return (from <= to);
+        dataReadOnly.removeLast(n);
+        statistics.recordEvicted(n);
+        log.debug("after data.remove. data.size="+dataReadOnly.size());
+        range.incLength(range.valueOf(-n));
     }
 
     @Override
     public int size() {
-        int sz = dataReadOnly.size()+dataNewValues.size();
+        int sz = dataReadOnly.size()+dataNewValues.size()+localNewValues.size();
         log.trace(entering+"size()="+sz+", range.length="+range.getLength());
         return sz;
     }
@@ -282,6 +888,8 @@ public class DataCacheRolling<T,RangeKeyClass extends Number> implements List<T>
     @Override
     public void clear() {
         log.trace(entering+"clear");
+        generation++;
+        prefetchedPages.clear();
         dataReadOnly.clear();
         range.setLength(range.valueOf(0));
         log.trace(exiting+"clear. size="+size());
@@ -289,25 +897,31 @@ public class DataCacheRolling<T,RangeKeyClass extends Number> implements List<T>
     
     @Override
     public boolean isEmpty() {
-        return (dataReadOnly.isEmpty() && dataNewValues.isEmpty());
+        return (dataReadOnly.isEmpty() && dataNewValues.isEmpty() && localNewValues.isEmpty());
     }
 
-    @SuppressWarnings("unchecked")
     @Override
     public boolean contains(Object o) {
-        return dataNewValues.containsValue((T)o) || dataReadOnly.contains(o);
+        return dataNewValues.containsValue(o) || localNewValues.containsValue(o) || dataReadOnly.contains(o);
     }
 
     @Override
     public Iterator<T> iterator() {
-        return new TwinIterator(dataReadOnly, dataNewValues);
+        return new TwinIterator(dataReadOnly, Arrays.asList(dataNewValues, localNewValues));
     }
 
     @Override
     public Object[] toArray() {
-        Object[] res = new Object[dataReadOnly.size() + dataNewValues.size()];
+        Object[] res = new Object[dataReadOnly.size() + dataNewValues.size() + localNewValues.size()];
         System.arraycopy(dataReadOnly.toArray(), 0, res, 0, dataReadOnly.size());
-        System.arraycopy(dataNewValues.entrySet().toArray(), 0, res, dataReadOnly.size(), dataNewValues.size());
+        int j = dataReadOnly.size();
+        for (LongHashMap<T> values : Arrays.asList(dataNewValues, localNewValues)) {
+            for (int i = 0; i < values.capacity(); i++) {
+                if (values.isUsed(i)) {
+                    res[j++] = values.valueAt(i);
+                }
+            }
+        }
         return res;
     }
 
@@ -319,20 +933,9 @@ public class DataCacheRolling<T,RangeKeyClass extends Number> implements List<T>
     @Override
     public boolean add(T e) {
         log.trace(entering+"add(T)");
-        CacheKeyIndex key = new CacheKeyIndex();
-        int attempts = 0;
-        while (dataNewValues.containsKey(key) && (attempts < 3)) {
-            attempts++;
-            log.debug("attempts="+attempts);
-            //Thread.sleep(5);
-            key = new CacheKeyIndex();
-        }
-        if (attempts == 3) {
-            throw new EUnsupported("Wrong (non-unique) new CacheKeyIndex.");
-        }
         dataReadOnly.add(e);
-        dataNewValues.put(key, e);
-        dataOldValues.put(key, null);
+        invalidatePages();
+        recordInsert(e);
         log.trace(exiting+"add(T)");
         return true;
     }
@@ -347,7 +950,7 @@ public class DataCacheRolling<T,RangeKeyClass extends Number> implements List<T>
     }
 
     @Override
-    public boolean containsAll(Collection c) {
+    public boolean containsAll(Collection<?> c) {
         return dataReadOnly.containsAll(c);
     }
 
@@ -372,7 +975,7 @@ public class DataCacheRolling<T,RangeKeyClass extends Number> implements List<T>
 
     @SuppressWarnings("unchecked")
     @Override
-    public boolean removeAll(Collection c) {
+    public boolean removeAll(Collection<?> c) {
         log.trace(entering+"removeAll(Collection)");
         boolean res = false;
         if (c != null) {
@@ -388,7 +991,7 @@ public class DataCacheRolling<T,RangeKeyClass extends Number> implements List<T>
     }
 
     @Override
-    public boolean retainAll(Collection c) {
+    public boolean retainAll(Collection<?> c) {
         log.trace(entering+"retainAll(Collection)");
         return dataReadOnly.retainAll(c);
     }
@@ -398,23 +1001,27 @@ public class DataCacheRolling<T,RangeKeyClass extends Number> implements List<T>
      * @param point номер строки в исходных данных. 
      * @return возвращает номер, выровненный по границе страницы кеша
      */
-    private int AlignToCacheDefSize(int point) {
+    private long AlignToCacheDefSize(long point) {
         /* округляем до ближайшего большего целого размера страницы кеша */
         log.debug("AlignToCacheDefSize(point="+point+")");
-        int pagePart = range.NumberSub(point, outerLimits.getFirst()).intValue() % defSize;
+        long outerFirst = outerLimits.getFirst().longValue();
+        long outerLast = outerLimits.getLast().longValue();
+        long first = range.getFirst().longValue();
+        long last = first + range.getLength().longValue() - 1;
+        int pagePart = (int)((point - outerFirst) % defSize);
         log.debug("pagePart="+pagePart);
-        if (range.compareXandY(point, range.getFirst()) < 0) {
+        if (point < first) {
             point = point - pagePart;
         } else {
-            if (range.compareXandY(point, range.getLast()) > 0) {
+            if (point > last) {
                 point = point + defSize - pagePart - 1;
             }
         }
-        if (outerLimits.compareXandY(point, outerLimits.getFirst()) < 0) {
-            point = outerLimits.getFirst().intValue();
+        if (point < outerFirst) {
+            point = outerFirst;
         }
-        if (outerLimits.compareXandY(point, outerLimits.getLast()) > 0) {
-            point = outerLimits.getLast().intValue();
+        if (point > outerLast) {
+            point = outerLast;
         }
         log.debug("point="+point);
         return point;
@@ -429,6 +1036,28 @@ public class DataCacheRolling<T,RangeKeyClass extends Number> implements List<T>
      */
     @Override
     public T get(int index) {
+        return getRow(index);
+    }
+
+    /**
+     * То же, что get(int), для источников данных с номерами строк за пределами int.
+     * @param rowNo номер строки в исходных данных
+     * @return объект данных по указанному номеру строки
+     */
+    public T getRow(long rowNo) {
+        installPrefetched();
+        AdaptiveSizing sz = sizing;
+        if (sz != null) {
+            sz.onAccess(rowNo, System.nanoTime());
+            defSize = sz.getPageSize();
+            maxSize = sz.getWindowSize();
+        }
+        T row = getCached(rowNo);
+        readAhead(rowNo);
+        return row;
+    }
+
+    private T getCached(long index) {
     /***************************************************************************
         мета-описание логики работы:
     1. проверяем, есть ли в кеше данные (первоначальная загрузка)
@@ -461,6 +1090,7 @@ public class DataCacheRolling<T,RangeKeyClass extends Number> implements List<T>
         //проверяем, находится ли строка в пределах текущего диапазона
         if (containsIndex(index)) {
             //внутренний адрес строки в кеше
+            statistics.recordHit();
             int intIdx = toCacheIndex(index);
             log.debug("intIdx="+intIdx);
             //если да, то возвращаем значение из этой строки
@@ -468,86 +1098,299 @@ public class DataCacheRolling<T,RangeKeyClass extends Number> implements List<T>
             return dataReadOnly.get(intIdx);
         } else {
             log.debug("Out of cache. Try find new range");
+            statistics.recordMiss();
             //если строка за пределами текущего диапазона
             //выравниваем строку по границе страниц кеша
-            Integer target = AlignToCacheDefSize(index);
+            long target = AlignToCacheDefSize(index);
             log.debug("after AlignToCacheDefSize. index="+index+", target="+target);
+            int len = range.getLength().intValue();
+            long first = range.getFirst().longValue();
+            long last = first + len - 1;
             //рассчитываем расстояние до указаной строки в целых страницах кеша
-            int dist;
-            dist = Math.abs(range.getMaxDistance(range.valueOf(target)).intValue());
+            //пустое окно всегда загружается заново
+            long dist;
+            if (len == 0) {
+                dist = maxSize * 2L;
+            } else {
+                dist = Math.max(Math.abs(target - first), Math.abs(target - last));
+            }
             log.debug("dist="+dist);
             INestedRange<RangeKeyClass> aRange;
+            List<T> rows;
             //если расчетная длина диапазона меньше максимально допустимого размера кеша
             if (dist <= maxSize) {
                 log.debug("dist <= maxSize");
+                statistics.recordExtend();
                 //вычисляем диапазон строк, который требуется дозагрузить
                 //загружаем только новую порцию данных.  
                 //ту часть диапазона, что уже есть в кеше, исключаем из загрузки
-                
-                aRange = range.Complement(range.valueOf(target));
-                log.debug("before assert(target < 0); target="+target);
-                assert(target >= 0);
-                log.debug("after assert(target < 0);");
-                if (target < 0) //TODO нелепое условие. убрать
-                {
-                    loadToCache(range.getFirst(), dataFetcher.fetch(aRange));
-                } else {
-                    loadToCache(range.NumberAdd(range.getLast(),1), dataFetcher.fetch(aRange));
-                }
+                aRange = complement(target, first, last);
+                loadToCache(aRange.getFirst(), fetchAdjacent(aRange));
             } else {
                 //если расстояние меньше удвоенного макс. размера кеша,
                 //сдвинем начало диапазона так, чтобы он включал в себя указанную точку
                 //сбросим часть кеша и дозагрузим новую часть 
-                if (dist < maxSize * 2) {
+                if (dist < maxSize * 2L) {
                     log.debug("dist < maxSize * 2");
-                    aRange = range.Complement(range.valueOf(target));
-                    if (range.compareXandY(target, range.getFirst()) < 0) {
-                        log.debug("target < range.first. before purge(x, len)");
+                    statistics.recordSlide();
+                    aRange = complement(target, first, last);
+                    //сначала загружаем данные, чтобы при ошибке загрузки не потерять окно
+                    rows = fetchAdjacent(aRange);
+                    //кол-во строк, которые нужно сбросить, чтобы не превысить maxSize
+                    int evict = Math.min(len, Math.max(0, len + aRange.getLength().intValue() - maxSize));
+                    log.debug("data.size="+dataReadOnly.size()+", aRange.length="+aRange.getLength()+", evict="+evict);
+                    if (target < first) {
                         //сбрасываем часть строк с правого края кеша
-                        log.debug("data.size="+dataReadOnly.size()+", aRange.length="+aRange.getLength());
-                        purge(range.NumberSub(dataReadOnly.size(), aRange.getLength()).intValue(), dataReadOnly.size()-1);
-                        log.debug("before dataFetcher.fetch(aRange, 0);");
-                        //дозагружаем данные слева
-                        loadToCache(range.getFirst(), dataFetcher.fetch(aRange));
+                        if (evict > 0) {
+                            purgeRight(evict);
+                        }
                     } else {
-                        log.debug("target >= 0. before purge(0, x). dist="+dist+", aRange.length="+aRange.getLength());
                         //сбрасываем часть строк с левого края кеша
-                        purge(0, range.NumberSub(aRange.getLength(), 1).intValue());
-                        log.debug("before dataFetcher.fetch(aRange, size()+1);");
-                        //дозагружаем данные справа
-                        loadToCache(range.NumberAdd(range.getLast(), 1), dataFetcher.fetch(aRange));
+                        if (evict > 0) {
+                            purgeLeft(evict);
+                        }
                     }
+                    //дозагружаем данные слева или справа
+                    loadToCache(aRange.getFirst(), rows);
                 } else {
                     //расстояние равно или больше удвоенного макс. размера кеша,
                     log.debug("dist >= maxSize * 2");
-                    aRange = outerLimits.clone();
-                    aRange.setFirst(aRange.valueOf(index));
-                    aRange.setLength(aRange.valueOf(defSize));
-                    aRange.setParentRange(outerLimits);
+                    statistics.recordReload();
+                    //загружаем страницу кеша, в которую попадает указанная строка
+                    long outerFirst = outerLimits.getFirst().longValue();
+                    long outerLast = outerLimits.getLast().longValue();
+                    long pageStart = index - ((index - outerFirst) % defSize);
+                    int pageLen = (int)Math.min(defSize, outerLast - pageStart + 1);
+                    aRange = newRange(range.valueOf(pageStart), pageLen);
+                    rows = fetchRange(aRange);
                     //сбрасываем кеш полностью
+                    statistics.recordEvicted(dataReadOnly.size());
                     clear(); 
+                    range.setFirst(aRange.getFirst());
                     //загружаем данные 
-                    loadToCache(range.getFirst(), dataFetcher.fetch(aRange));
-                    range.setFirst(aRange.valueOf(index));
+                    loadToCache(range.getFirst(), rows);
                 }
             }
         }
         log.debug("Cache ranging finshed. Check asserts about range.");
         log.debug("index="+index+", range=("+range+")");
-        int intIdx = range.NumberSub(index, range.getFirst()).intValue();
+        int intIdx = toCacheIndex(index);
         log.debug("intIdx="+intIdx);
         //если да, то возвращаем значение из этой строки
         assert((0 <= intIdx) && (intIdx < dataReadOnly.size()));
         return dataReadOnly.get(intIdx);
     }
 
+    /* недостающая часть между краем окна first..last и строкой target */
+    private INestedRange<RangeKeyClass> complement(long target, long first, long last) {
+        if (target < first) {
+            return newRange(range.valueOf(target), (int)(first - target));
+        } else {
+            return newRange(range.valueOf(last + 1), (int)(target - last));
+        }
+    }
+
+    /**
+     * Проверяет, не пора ли загрузить в фоне следующую страницу за краем окна.
+     * Одновременно выполняется не более одной фоновой загрузки.
+     */
+    private void readAhead(long index) {
+        int len = range.getLength().intValue();
+        if ((readAheadDistance <= 0) || (len == 0)) {
+            return;
+        }
+        long first = range.getFirst().longValue();
+        long last = first + len - 1;
+        long outerFirst = outerLimits.getFirst().longValue();
+        long outerLast = outerLimits.getLast().longValue();
+        RangeKeyClass pageFirst = null;
+        int pageLen = 0;
+        //крайняя строка окна, к которой примыкает страница
+        T boundary = null;
+        boolean forward = true;
+        if ((last - index < readAheadDistance) && (last < outerLast)) {
+            //следующая страница справа
+            pageFirst = range.valueOf(last + 1);
+            pageLen = (int)Math.min(defSize, outerLast - last);
+            boundary = dataReadOnly.get(len - 1);
+        } else {
+            if ((index - first < readAheadDistance) && (first > outerFirst)) {
+                //предыдущая страница слева
+                pageLen = (int)Math.min(defSize, first - outerFirst);
+                pageFirst = range.valueOf(first - pageLen);
+                boundary = dataReadOnly.get(0);
+                forward = false;
+            }
+        }
+        if ((pageFirst != null) && (pageLen > 0) && prefetchInFlight.compareAndSet(false, true)) {
+            log.debug("readAhead. pageFirst="+pageFirst+", pageLen="+pageLen);
+            //параметры запроса фиксируются в этом потоке, фоновая задача только выполняет запрос
+            final int gen = generation;
+            final long reqFirst = pageFirst.longValue();
+            final int reqLen = pageLen;
+            PageTable<T> pt = pageTable;
+            INestedRange<RangeKeyClass> loadRange = newRange(pageFirst, pageLen);
+            if (pt != null) {
+                boundary = null;
+                List<T> rows = fromPages(pt, reqFirst, reqLen);
+                if (rows != null) {
+                    //страница уже загружена - добавится в окно при следующем обращении
+                    prefetchedPages.add(new PrefetchedPage<>(gen, reqFirst, reqLen, null, reqFirst, rows));
+                    prefetchInFlight.set(false);
+                    return;
+                }
+                loadRange = pagesRange(pt, reqFirst, reqLen);
+            }
+            final long loadFirst = loadRange.getFirst().longValue();
+            final Supplier<List<T>> query = dataFetcher.prepareFetch(loadRange, boundary, forward);
+            getPrefetchExecutor().execute(() -> {
+                try {
+                    List<T> rows = fetchTimed(query);
+                    prefetchedPages.add(new PrefetchedPage<>(gen, reqFirst, reqLen, pt, loadFirst, rows));
+                } catch (RuntimeException e) {
+                    log.error("readAhead failed", e);
+                } finally {
+                    prefetchInFlight.set(false);
+                }
+                Executor splice = spliceExecutor;
+                if (splice != null) {
+                    splice.execute(this::installPrefetched);
+                }
+            });
+        }
+    }
+    
+    private synchronized ExecutorService getPrefetchExecutor() {
+        if (prefetchExecutor == null) {
+            prefetchExecutor = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, "DataCacheRolling-prefetch");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return prefetchExecutor;
+    }
+
+    /**
+     * @return строки окна в порядке номеров (без добавленных, но не сохраненных строк)
+     */
+    protected Object[] windowRows() {
+        return dataReadOnly.toArray();
+    }
+
+    /**
+     * @return true, если есть загруженные в фоне, но еще не добавленные в окно страницы
+     */
+    protected boolean hasPrefetchedPages() {
+        return !prefetchedPages.isEmpty();
+    }
+
+    /**
+     * Добавляет в окно загруженные в фоне страницы. Страница добавляется, только 
+     * если она по-прежнему примыкает к краю окна. После добавления окно урезается 
+     * с противоположного края до maxSize строк.
+     */
+    public void installPrefetched() {
+        PrefetchedPage<T> page;
+        while ((page = prefetchedPages.poll()) != null) {
+            int len = range.getLength().intValue();
+            if ((page.generation != generation) || (page.rows == null) || page.rows.isEmpty() || (len == 0)) {
+                continue;
+            }
+            if ((page.pageTable != null) && (page.pageTable == pageTable)) {
+                storePages(page.pageTable, page.loadFirst, page.rows);
+            }
+            List<T> rows = cut(page.rows, page.first - page.loadFirst, page.length);
+            if (rows.isEmpty()) {
+                continue;
+            }
+            int evict = Math.max(0, len + rows.size() - maxSize);
+            if (page.first == range.getLast().longValue() + 1) {
+                log.debug("installPrefetched. right, first="+page.first+", size="+rows.size());
+                if (evict > 0) {
+                    purgeLeft(Math.min(evict, len));
+                }
+                loadToCache(range.valueOf(page.first), rows);
+            } else {
+                if (page.first + rows.size() == range.getFirst().longValue()) {
+                    log.debug("installPrefetched. left, first="+page.first+", size="+rows.size());
+                    if (evict > 0) {
+                        purgeRight(Math.min(evict, len));
+                    }
+                    loadToCache(range.valueOf(page.first), rows);
+                } else {
+                    log.debug("installPrefetched. page is not adjacent, skipped. first="+page.first);
+                }
+            }
+        }
+    }
+
+    /**
+     * Помещает в окно строки, загруженные вне кеша (н-р, фоновой задачей).
+     * Строки, примыкающие к окну или перекрывающие его край, добавляются к окну
+     * с вытеснением строк с противоположного края до maxSize строк. Строки, уже 
+     * находящиеся в окне, не заменяются. В остальных случаях окно заменяется 
+     * полученными строками.
+     * @param first номер первой строки в исходных данных
+     * @param rows строки, начиная с first
+     */
+    public void putRows(long first, List<T> rows) {
+        log.trace(entering+"putRows(first="+first+", rows)");
+        if ((rows == null) || rows.isEmpty()) {
+            return;
+        }
+        //кол-во строк могло уменьшиться за время загрузки
+        long outerLast = outerLimits.getLast().longValue();
+        if ((first < outerLimits.getFirst().longValue()) || (first > outerLast)) {
+            return;
+        }
+        if (first + rows.size() - 1 > outerLast) {
+            rows = rows.subList(0, (int)(outerLast - first + 1));
+        }
+        installPrefetched();
+        int len = range.getLength().intValue();
+        long wFirst = range.getFirst().longValue();
+        long wLast = wFirst + len - 1;
+        long last = first + rows.size() - 1;
+        boolean adjacent = (len > 0) && (last >= wFirst - 1) && (first <= wLast + 1);
+        if (adjacent && (first >= wFirst) && (last <= wLast)) {
+            log.debug("putRows. rows are in the window already");
+            return;
+        }
+        if (adjacent && (first < wFirst) && (last <= wLast)) {
+            //часть строк левее окна
+            List<T> part = rows.subList(0, (int)(wFirst - first));
+            int evict = Math.min(len, Math.max(0, len + part.size() - maxSize));
+            if (evict > 0) {
+                purgeRight(evict);
+            }
+            loadToCache(range.valueOf(first), part);
+        } else {
+            if (adjacent && (first >= wFirst) && (last > wLast)) {
+                //часть строк правее окна
+                List<T> part = rows.subList((int)(wLast + 1 - first), rows.size());
+                int evict = Math.min(len, Math.max(0, len + part.size() - maxSize));
+                if (evict > 0) {
+                    purgeLeft(evict);
+                }
+                loadToCache(range.valueOf(wLast + 1), part);
+            } else {
+                //окно заменяется полученными строками
+                log.debug("putRows. window replaced");
+                statistics.recordEvicted(dataReadOnly.size());
+                clear();
+                range.setFirst(range.valueOf(first));
+                loadToCache(range.getFirst(), rows);
+            }
+        }
+    }
+
     @Override
     public T set(int index, T element) {
         log.trace(entering+"set(int, T)");
-        CacheKeyIndex key = new CacheKeyIndex(index);
         T oldValue = dataReadOnly.set(index, element);
-        dataOldValues.put(key, oldValue);
-        dataNewValues.put(key, element);
+        invalidatePages();
+        recordChange(oldValue, element);
         log.trace(exiting+"set(int, T)");
         return oldValue;
     }
@@ -555,10 +1398,9 @@ public class DataCacheRolling<T,RangeKeyClass extends Number> implements List<T>
     @Override
     public void add(int index, T element) {
         log.trace(entering+"add(int,T)");
-        CacheKeyIndex key = new CacheKeyIndex(index);
-        dataNewValues.put(key, element);
-        dataOldValues.put(key, null);
+        recordInsert(element);
         dataReadOnly.add(index, element);
+        invalidatePages();
         range.incLength(range.valueOf(1));
         log.trace(exiting+"add(int,T)");
     }
@@ -567,10 +1409,9 @@ public class DataCacheRolling<T,RangeKeyClass extends Number> implements List<T>
     public T remove(int index) {
         log.trace(entering+"remove(int)");
         T res = dataReadOnly.remove(index);
+        invalidatePages();
         range.incLength(range.valueOf(-1));
-        CacheKeyIndex key = new CacheKeyIndex(index);
-        dataOldValues.put(key, res);
-        dataNewValues.put(key, null);
+        recordChange(res, null);
         log.trace(exiting+"remove(int)");
         return res;
     }
@@ -614,60 +1455,62 @@ public class DataCacheRolling<T,RangeKeyClass extends Number> implements List<T>
         //return data.subList(toCacheIndex(fromIndex), toCacheIndex(toIndex));
     }
     
+    /**
+     * Строки, загруженные в фоне. Запрошенная страница first..first+length-1 
+     * вырезается из загруженных строк, начинающихся с loadFirst (в режиме 
+     * многосегментного кеша загружаются целые страницы таблицы pageTable).
+     */
+    private static class PrefetchedPage<T> {
+        private final int generation;
+        private final long first;
+        private final int length;
+        private final PageTable<T> pageTable;
+        private final long loadFirst;
+        private final List<T> rows;
+
+        private PrefetchedPage(int generation, long first, int length, PageTable<T> pageTable, long loadFirst, List<T> rows) {
+            this.generation = generation;
+            this.first = first;
+            this.length = length;
+            this.pageTable = pageTable;
+            this.loadFirst = loadFirst;
+            this.rows = rows;
+        }
+    }
+    
     private enum DataChanges {
         NONE, INSERT, UPDATE, DELETE
     }
     
-    private class CacheKeyIndex {
-        
-        private final long keyIndex;
-                
-        public CacheKeyIndex() {
-            log.trace(entering+"CacheKeyIndex()");
-            this.keyIndex = System.identityHashCode(System.nanoTime());
-            //this.keyIndex = System.identityHashCode(Math.random());
-            log.debug("keyIndex="+keyIndex);
-        }
-
-        public CacheKeyIndex(long keyIndex) {
-            log.trace(entering+"CacheKeyIndex("+keyIndex+")");
-            this.keyIndex = keyIndex;
-        }
-
-        @Override
-        public int hashCode() {
-            int hash = 7;
-            hash = 37 * hash + (int) (this.keyIndex ^ (this.keyIndex >>> 32));
-            return hash;
-        }
-
-        @Override
-        public boolean equals(Object obj) {
-            if (obj == null) {
-                return false;
-            }
-            if (getClass() != obj.getClass()) {
-                return false;
-            }
-            @SuppressWarnings("unchecked") //проверка в предыдущем операторе
-            final CacheKeyIndex other = (CacheKeyIndex)obj;
-            return this.keyIndex == other.keyIndex;
-        }
-        
-        public long getKeyIndex() {
-            return keyIndex;
-        }
-
-    }
-
     private class TwinIterator implements Iterator<T>{
 
         private final Iterator<T> roi;
-        private final Iterator<Entry<Object, T>> wi;
+        private final List<LongHashMap<T>> writableData;
+        // текущий буфер writableData и номер его следующей занятой ячейки
+        private int part;
+        private int slot;
         
-        private TwinIterator(List<T> readOnlyData, Map<Object,T> writableData){
+        private TwinIterator(List<T> readOnlyData, List<LongHashMap<T>> writableData){
             this.roi = readOnlyData.iterator();
-            this.wi = writableData.entrySet().iterator();
+            this.writableData = writableData;
+            this.part = 0;
+            this.slot = -1;
+            nextSlot();
+        }
+
+        private void nextSlot() {
+            while (part < writableData.size()) {
+                LongHashMap<T> values = writableData.get(part);
+                slot++;
+                while ((slot < values.capacity()) && (! values.isUsed(slot))) {
+                    slot++;
+                }
+                if (slot < values.capacity()) {
+                    return;
+                }
+                part++;
+                slot = -1;
+            }
         }
 
         @Override
@@ -675,7 +1518,7 @@ public class DataCacheRolling<T,RangeKeyClass extends Number> implements List<T>
             if (roi.hasNext()) {
                 return true;
             } else {
-                return wi.hasNext();
+                return part < writableData.size();
             }
         }
 
@@ -684,7 +1527,12 @@ public class DataCacheRolling<T,RangeKeyClass extends Number> implements List<T>
             if (roi.hasNext()) {
                 return roi.next();
             } else {
-                return wi.next().getValue();
+                if (part >= writableData.size()) {
+                    throw new NoSuchElementException();
+                }
+                T res = writableData.get(part).valueAt(slot);
+                nextSlot();
+                return res;
             }
         }
         
@@ -693,11 +1541,17 @@ public class DataCacheRolling<T,RangeKeyClass extends Number> implements List<T>
     private class TwinListIterator implements ListIterator<T>{
 
         private final ListIterator<T> roi;
-        private final ListIterator<Entry<Object, T>> wi;
+        private final ListIterator<T> wi;
         
-        private TwinListIterator(List<T> readOnlyData, Map<Object,T> writableData){
+        private TwinListIterator(List<T> readOnlyData, LongHashMap<T> writableData){
             this.roi = readOnlyData.listIterator();
-            this.wi = (new ArrayList<>(writableData.entrySet())).listIterator();
+            List<T> w = new ArrayList<>(writableData.size());
+            for (int i = 0; i < writableData.capacity(); i++) {
+                if (writableData.isUsed(i)) {
+                    w.add(writableData.valueAt(i));
+                }
+            }
+            this.wi = w.listIterator();
         }
 
         @Override
@@ -719,7 +1573,7 @@ public class DataCacheRolling<T,RangeKeyClass extends Number> implements List<T>
             if (roi.hasNext()) {
                 return roi.next();
             } else {
-                return wi.next().getValue();
+                return wi.next();
             }
             */
         }
@@ -15,22 +15,50 @@
  */
 package fxapp01.dao;
 
+import fxapp01.dao.cache.AdaptiveSizing;
+import fxapp01.dao.cache.CacheStatistics;
+import fxapp01.dao.cache.IRowCodec;
+import fxapp01.dao.cache.RowCountCache;
+import fxapp01.dao.cache.VersionScope;
+import fxapp01.dao.filter.ILocalFilterable;
 import fxapp01.dao.filter.ISqlFilterable;
+import fxapp01.dao.sort.ISortOrder;
 import fxapp01.dao.sort.IDAOSortOrder;
 import fxapp01.dao.sort.SortOrder;
 import fxapp01.dto.INestedRange;
 import fxapp01.dto.SQLParams;
+import fxapp01.excpt.ENegativeArgument;
 import fxapp01.excpt.ENullArgument;
 import fxapp01.excpt.EUnsupported;
 import fxapp01.log.ILogger;
 import fxapp01.log.LogMgr;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.text.Collator;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import javafx.application.Platform;
 import javafx.beans.InvalidationListener;
+import javafx.beans.property.ReadOnlyIntegerProperty;
+import javafx.beans.property.ReadOnlyIntegerWrapper;
 //import javafx.beans.value.ChangeListener;
 import javafx.collections.FXCollections;
 import javafx.collections.ListChangeListener;
@@ -60,6 +88,8 @@ public class DataList<DTOclass,RangeKeyClass extends Number> implements IDataCru
     
     private static final String entering = ">>> ";
     private static final String exiting = "<<< ";
+    // предел кол-ва строк для локальной сортировки и фильтра по умолчанию
+    public static final int defLocalLimit = 500;
 
     protected final ILogger log = LogMgr.getLogger(this.getClass());
     private final DataCacheRolling<DTOclass,RangeKeyClass> cache;
@@ -67,10 +97,41 @@ public class DataList<DTOclass,RangeKeyClass extends Number> implements IDataCru
     private final IDAOreadonly<DTOclass,RangeKeyClass> dao;
     private final boolean isWritable;
     private final IDataWriter<DTOclass> daoWriter;
-    //private final List<ListChangeListener<? super DTOclass>> changeListeners;
-    //private final List<InvalidationListener> invListeners;
+    private final RowCountCache<RangeKeyClass> rowCount;
+    // подписчики. изменения данных через dataFacade передаются им через facadeChanged
+    private final List<ListChangeListener<? super DTOclass>> changeListeners;
+    private final List<InvalidationListener> invListeners;
+    // изменения, накопленные до следующего такта javafx
+    private final DataListChangeBatch<DTOclass> pendingChanges;
+    private boolean flushScheduled;
+    private Executor notifyExecutor;
+    // асинхронный режим: заглушка для незагруженных строк и пул фоновых загрузок
+    private Supplier<DTOclass> placeholder;
+    private ExecutorService workerPool;
+    // номера первых строк загружаемых страниц
+    private final Set<Long> pendingPages;
+    private final ReadOnlyIntegerWrapper pendingCount;
+    private int pageGeneration;
     private IDAOSortOrder sortOrder;
     private ISqlFilterable filter;
+    // значение столбца (по имени) в строке данных. нужно для режима keyset и локальной сортировки
+    private BiFunction<DTOclass,String,Object> columnValue;
+    // режим keyset: столбец первичного ключа. null - отключен
+    private String keyColumn;
+    // локальная сортировка и фильтрация: все строки источника без фильтра и 
+    // их представление с текущими сортировкой и фильтром. null - выборка из БД
+    private volatile List<DTOclass> localRows;
+    private volatile List<DTOclass> localView;
+    // макс. кол-во строк для локальной сортировки. 0 - отключено
+    private int localLimit;
+    // сравнение строк при локальной сортировке. null - по кодам символов
+    private Collator collator;
+    // кол-во строк запрашивается вместе со страницей строк
+    private boolean countWithPage;
+    // периодическое обновление измененных строк
+    private ScheduledExecutorService autoRefreshTimer;
+    private ScheduledFuture<?> autoRefreshTask;
+    private boolean autoRefreshRunning;
 
     /**
      *
@@ -80,11 +141,19 @@ public class DataList<DTOclass,RangeKeyClass extends Number> implements IDataCru
      */
     public DataList(IDAOreadonly<DTOclass,RangeKeyClass> dao) throws IOException {
         log.trace(entering+"constructor");
-        //this.changeListeners = new ArrayList<>();
-        //this.invListeners = new ArrayList<>();
+        this.changeListeners = new CopyOnWriteArrayList<>();
+        this.invListeners = new CopyOnWriteArrayList<>();
+        this.notifyExecutor = Platform::runLater;
+        this.pendingChanges = new DataListChangeBatch<>(this);
+        this.flushScheduled = false;
+        this.placeholder = null;
+        this.workerPool = null;
+        this.pendingPages = new HashSet<>();
+        this.pendingCount = new ReadOnlyIntegerWrapper(this, "pendingCount", 0);
+        this.pageGeneration = 0;
         this.dao = dao;
         if (dao != null) {
-            if (dao.getClass().isAssignableFrom(IDataWriter.class)) {
+            if (dao instanceof IDataWriter) {
                 daoWriter = (IDataWriter)dao;
             } else {
                 this.daoWriter = null;
@@ -95,6 +164,28 @@ public class DataList<DTOclass,RangeKeyClass extends Number> implements IDataCru
         this.isWritable = (this.daoWriter != null);
         this.sortOrder = new SortOrder();
         this.filter = null;
+        this.columnValue = null;
+        this.keyColumn = null;
+        this.localRows = null;
+        this.localView = null;
+        this.localLimit = defLocalLimit;
+        this.collator = Collator.getInstance();
+        this.countWithPage = true;
+        this.autoRefreshTimer = null;
+        this.autoRefreshTask = null;
+        this.autoRefreshRunning = false;
+        //кол-во строк кешируется, чтобы size() не выполнял подсчет строк в БД
+        //при локальной сортировке строки считаются в памяти
+        this.rowCount = new RowCountCache<>(this::countRows);
+        //оценка кол-ва строк по статистике БД не учитывает фильтр
+        this.rowCount.setEstimateSource(() -> ((filter == null) && (localView == null)) ? dao.getRowTotalRangeEstimate() : null);
+        //точное кол-во строк, подсчитанное в фоне, передается в поток javafx
+        //без подписчиков новое значение применяется при следующем вызове size()
+        this.rowCount.setOnChange(() -> {
+            if (hasListeners()) {
+                notifyExecutor.execute(this::rowCountChanged);
+            }
+        });
         log.debug("before new DataCacheRolling");
         IDataRangeFetcher<DTOclass,RangeKeyClass> dps = this; // 
         //TODO желательно минимальный и максимальный диапазон окна определять 
@@ -102,10 +193,11 @@ public class DataList<DTOclass,RangeKeyClass extends Number> implements IDataCru
         this.cache = new DataCacheRolling<>(dps, 20, 40);
         log.debug("before FXCollections.observableList");
         this.dataFacade = FXCollections.observableList(cache);
+        this.dataFacade.addListener(this::facadeChanged);
         log.debug("make initRange");
         cache.getRange().setLength(cache.getRange().valueOf(20));
-        log.debug("before refresh");
-        refresh();
+        log.debug("before requery");
+        requery();
         log.trace(exiting+"constructor");
     }
     
@@ -129,35 +221,415 @@ public class DataList<DTOclass,RangeKeyClass extends Number> implements IDataCru
         return listIndex + cache.getLeftLimit().intValue();
     }
     
-/*
     private void fireInvalidationEvent() {
-        log.debug("invListeners.size="+dataFacade..size());
+        log.debug("invListeners.size="+invListeners.size());
         for (InvalidationListener il : invListeners) {
-            log.debug("il="+il);
-            if (il != null) {
-                il.invalidated(dataFacade);
-            }
+            il.invalidated(this);
         }
     }
     
-    private void fireChangeEvent() {
+    private void fireChangeEvent(DataListChange<DTOclass> c) {
         log.debug("changeListeners.size="+changeListeners.size());
         for (ListChangeListener<? super DTOclass> cl : changeListeners) {
-            log.debug("cl="+cl);
-            if (cl != null) {
-                ListChangeListener.Change<? extends DTOclass> c;
-                cl.onChanged(c);
+            c.reset();
+            cl.onChanged(c);
+        }
+    }
+
+    private boolean hasListeners() {
+        return !(changeListeners.isEmpty() && invListeners.isEmpty());
+    }
+
+    /* 
+     * планирует передачу накопленных изменений подписчикам. все изменения до 
+     * выполнения flushChanges (следующий такт javafx) передаются одним изменением
+     */
+    private void scheduleFlush() {
+        if (!flushScheduled) {
+            flushScheduled = true;
+            notifyExecutor.execute(this::flushChanges);
+        }
+    }
+
+    /**
+     * Передает подписчикам накопленные изменения. Вызывается в потоке javafx.
+     */
+    void flushChanges() {
+        flushScheduled = false;
+        DataListChange<DTOclass> c = pendingChanges.build();
+        if (c != null) {
+            log.debug("flushChanges. subChanges="+c.getSubChangeCount());
+            fireChangeEvent(c);
+            fireInvalidationEvent();
+        }
+    }
+
+    /* 
+     * изменение данных через фасад кеша (добавление, удаление, замена строки) 
+     * передается сразу, после накопленных изменений, в нумерации строк списка
+     */
+    private void facadeChanged(ListChangeListener.Change<? extends DTOclass> c) {
+        if (hasListeners()) {
+            flushChanges();
+            fireChangeEvent(DataListChange.copyOf(this, c, cache.getLeftLimit().intValue()));
+            fireInvalidationEvent();
+        }
+    }
+
+    /**
+     * Передает новое кол-во строк в кеш данных и уведомляет подписчиков 
+     * (н-р, TableView обновляет полосу прокрутки). Вызывается в потоке javafx.
+     */
+    private void rowCountChanged() {
+        long oldSize = cache.getRowTotalLength();
+        long newSize = rowCount.getLength();
+        if (oldSize == newSize) {
+            return;
+        }
+        log.debug("rowCountChanged. "+oldSize+" -> "+newSize+", estimated="+rowCount.isEstimated());
+        cache.setRowTotalLength(newSize);
+        pendingChanges.resized((int)Math.min(oldSize, Integer.MAX_VALUE), (int)Math.min(newSize, Integer.MAX_VALUE));
+        scheduleFlush();
+    }
+
+    /**
+     * @param notifyExecutor исполнитель, в котором применяется кол-во строк, 
+     * подсчитанное в фоне, передаются подписчикам накопленные за такт изменения
+     * и добавляются в кеш страницы упреждающего чтения (по умолчанию Platform::runLater)
+     */
+    public void setNotifyExecutor(Executor notifyExecutor) {
+        if (notifyExecutor == null) {
+            throw new ENullArgument("setNotifyExecutor");
+        }
+        this.notifyExecutor = notifyExecutor;
+        if (cache.getReadAhead() > 0) {
+            cache.setSpliceExecutor(notifyExecutor);
+        }
+    }
+
+    /**
+     * Включает упреждающее чтение в кеше. Страницы загружаются в фоновом потоке 
+     * и добавляются в кеш через notifyExecutor (поток javafx).
+     * @param distance расстояние до края окна кеша в строках. 0 - отключить
+     */
+    public void setReadAhead(int distance) {
+        log.trace("setReadAhead(distance="+distance+")");
+        cache.setSpliceExecutor((distance > 0) ? notifyExecutor : null);
+        cache.setReadAhead(distance);
+    }
+
+    public int getReadAhead() {
+        return cache.getReadAhead();
+    }
+
+    /**
+     * Включает адаптивный размер страницы кеша вместо фиксированных 20/40 строк.
+     * Окно кеша всегда вмещает две страницы.
+     * @param minPageSize минимальный размер страницы (случайные переходы)
+     * @param maxPageSize максимальный размер страницы (быстрая прокрутка)
+     */
+    public void setAdaptiveSizing(int minPageSize, int maxPageSize) {
+        log.trace("setAdaptiveSizing(minPageSize="+minPageSize+", maxPageSize="+maxPageSize+")");
+        cache.setSizingPolicy(new AdaptiveSizing(minPageSize, maxPageSize, 2));
+    }
+
+    /**
+     * Включает компактное хранение строк в кеше (см. DataCacheRolling.setCompactStorage).
+     * @param codec преобразователь строк в двоичный вид, н-р TestItemDTOCodec
+     * @param direct true - хранить строки вне кучи
+     */
+    public void setCompactStorage(IRowCodec<DTOclass> codec, boolean direct) {
+        log.trace("setCompactStorage(codec="+codec+", direct="+direct+")");
+        cache.setCompactStorage(codec, direct);
+    }
+
+    /**
+     * @return статистика кеша и списка (подсчеты строк, заглушки, локальные 
+     * сортировки и фильтры). для публикации через JMX - getStatistics().register(name)
+     */
+    public CacheStatistics getStatistics() {
+        return cache.getStatistics();
+    }
+
+    /**
+     * Включает режим многосегментного кеша (см. DataCacheRolling.setPageTable).
+     * @param pageSize размер страницы в строках
+     * @param maxPages максимальное кол-во страниц. 0 - отключить
+     */
+    public void setPageTable(int pageSize, int maxPages) {
+        log.trace("setPageTable(pageSize="+pageSize+", maxPages="+maxPages+")");
+        cache.setPageTable(pageSize, maxPages);
+    }
+
+    /**
+     * @return кеш кол-ва строк (время действия значения, фоновое обновление)
+     */
+    public RowCountCache<RangeKeyClass> getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Включает асинхронный режим. get() не обращается к БД в потоке javafx: для 
+     * строк, которых нет в кеше, сразу возвращается заглушка, а страница (defSize строк)
+     * загружается в пуле workerPool. Загруженная страница помещается в кеш через 
+     * notifyExecutor, а подписчики получают одно изменение - замену диапазона строк.
+     * @param placeholder создает заглушку строки, н-р TestItemDTO::new. null - синхронный режим
+     * @param workerPool пул фоновых загрузок. null - собственный пул из двух потоков
+     */
+    public void setAsync(Supplier<DTOclass> placeholder, ExecutorService workerPool) {
+        log.trace("setAsync(placeholder="+placeholder+", workerPool="+workerPool+")");
+        this.placeholder = placeholder;
+        this.workerPool = workerPool;
+    }
+
+    public boolean isAsync() {
+        return (placeholder != null);
+    }
+
+    /**
+     * @return кол-во загружаемых в фоне страниц (н-р, для индикатора загрузки)
+     */
+    public ReadOnlyIntegerProperty pendingCountProperty() {
+        return pendingCount.getReadOnlyProperty();
+    }
+
+    private synchronized ExecutorService getWorkerPool() {
+        if (workerPool == null) {
+            workerPool = Executors.newFixedThreadPool(2, r -> {
+                Thread t = new Thread(r, "DataList-worker");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return workerPool;
+    }
+
+    /**
+     * Запускает фоновую загрузку страницы, в которую попадает строка rowNo.
+     * Вызывается в потоке javafx.
+     */
+    private void requestPage(long rowNo) {
+        int pageSize = cache.getDefSize();
+        long outerFirst = cache.getLeftLimit().longValue();
+        long pageFirst = outerFirst + ((rowNo - outerFirst) / pageSize) * pageSize;
+        long pageLen = Math.min(pageSize, outerFirst + cache.getRowTotalLength() - pageFirst);
+        if ((pageLen <= 0) || !pendingPages.add(pageFirst)) {
+            return;
+        }
+        pendingCount.set(pendingPages.size());
+        final int gen = pageGeneration;
+        final INestedRange<RangeKeyClass> aRange = cache.getRange().clone();
+        aRange.setParentRange(null);
+        aRange.setLength(aRange.valueOf(0));
+        aRange.setFirst(aRange.valueOf(pageFirst));
+        aRange.setLength(aRange.valueOf(pageLen));
+        log.debug("requestPage. range="+aRange);
+        //сортировка и фильтр фиксируются в этом потоке, в пуле выполняется только запрос
+        final Supplier<List<DTOclass>> query = prepareFetch(aRange, null, true);
+        getWorkerPool().execute(() -> {
+            List<DTOclass> rows;
+            try {
+                rows = query.get();
+            } catch (RuntimeException e) {
+                log.error("page load failed. range="+aRange, e);
+                rows = null;
             }
+            final List<DTOclass> l = rows;
+            notifyExecutor.execute(() -> pageArrived(gen, pageFirst, l));
+        });
+    }
+
+    /**
+     * Помещает загруженную страницу в кеш и уведомляет подписчиков заменой 
+     * диапазона строк страницы. Вызывается в потоке javafx.
+     */
+    private void pageArrived(int gen, long pageFirst, List<DTOclass> rows) {
+        pendingPages.remove(pageFirst);
+        pendingCount.set(pendingPages.size());
+        if ((gen != pageGeneration) || (rows == null) || rows.isEmpty()) {
+            //данные перезагружены (сортировка, фильтр), пока страница загружалась
+            return;
+        }
+        cache.putRows(pageFirst, rows);
+        int size = size();
+        int from = (int)(pageFirst - cache.getLeftLimit().longValue());
+        int to = Math.min(size, from + rows.size());
+        log.debug("pageArrived. from="+from+", to="+to);
+        if ((from < to) && hasListeners()) {
+            pendingChanges.replaced(from, to, size);
+            scheduleFlush();
         }
     }
-*/
-    
+
+    /**
+     * Перезагружает данные из БД. Строки, сохраненные для локальной сортировки, 
+     * сбрасываются. Результаты выборок источника в общем кеше (QueryResultCache)
+     * также сбрасываются: явное обновление должно получить данные, измененные 
+     * другими пользователями.
+     */
     public void refresh() {
         log.trace("refresh");
-        cache.refresh();
+        if (dao != null) {
+            //строки из общего кеша выборок могли устареть
+            dao.invalidateCache();
+        }
+        requery();
+    }
+
+    /* 
+     * перезагрузка при смене выборки (сортировка, фильтр): общий кеш выборок 
+     * не сбрасывается, его страницы используют другие DataList
+     */
+    private void requery() {
+        dropLocalRows();
+        reload();
+    }
+
+    /* перезагрузка данных из источника: БД или локальных строк */
+    private void reload() {
+        long oldSize = cache.getRowTotalLength();
+        //подсчет и загрузка первых страниц - в одной сессии БД
+        inSession(() -> {
+            rowCount.invalidate();
+            if (countWithPage && !isAsync() && (localView == null)) {
+                //окно загружается первым: кол-во строк приходит вместе с ним
+                cache.refresh();
+                if (!rowCount.isStale()) {
+                    cache.setRowTotalLength(rowCount.getLength());
+                    return null;
+                }
+            }
+            try {
+                //оценка, если доступна, иначе подсчет. точное кол-во строк придет позже
+                cache.setRowTotalLength(rowCount.loadEstimate().getLength().longValue());
+            } catch (IOException ex) {
+                log.error(null, ex);
+            }
+            if (isAsync()) {
+                //загружаемые страницы устарели. данные загрузятся при обращении к строкам
+                pageGeneration++;
+                cache.invalidate();
+            } else {
+                cache.refresh();
+            }
+            return null;
+        });
+        if (hasListeners()) {
+            pendingChanges.replacedAll((int)Math.min(oldSize, Integer.MAX_VALUE), 
+                    (int)Math.min(cache.getRowTotalLength(), Integer.MAX_VALUE));
+            scheduleFlush();
+        }
         log.debug("size="+size());
         //debugPrintAll();
     }
+
+    /**
+     * Обновляет только измененные строки окна кеша (см. DataCacheRolling.refreshChanged):
+     * у БД запрашиваются строки из диапазона ключей окна с версией новее 
+     * наибольшей версии окна. Добавленные и удаленные строки не обнаруживаются - 
+     * для них нужен refresh(). Если строки не поддерживают IHasVersion, выполняется refresh().
+     * @return кол-во обновленных строк или -1, если выполнена полная перезагрузка
+     */
+    public int refreshChanged() {
+        log.trace("refreshChanged");
+        VersionScope scope = cache.getVersionScope();
+        List<DTOclass> rows = (scope == null) ? null : cache.fetchChanged(scope);
+        if (rows == null) {
+            refresh();
+            return -1;
+        }
+        return patchRows(scope, rows);
+    }
+
+    /* применяет измененные строки к кешу и строкам в памяти, уведомляет подписчиков */
+    private int patchRows(VersionScope scope, List<DTOclass> rows) {
+        List<Long> patched = cache.patchRows(scope, rows);
+        long leftLimit = cache.getLeftLimit().longValue();
+        List<DTOclass> view = localView;
+        int size = size();
+        for (Long rowNo : patched) {
+            int idx = (int)(rowNo - leftLimit);
+            if ((view != null) && (idx < view.size())) {
+                //строки в памяти заменяются теми же объектами, что и в кеше
+                DTOclass old = view.get(idx);
+                DTOclass row = cache.getRow(rowNo);
+                view.set(idx, row);
+                int i = localRows.indexOf(old);
+                if (i >= 0) {
+                    localRows.set(i, row);
+                }
+            }
+            if (hasListeners() && (idx < size)) {
+                pendingChanges.replaced(idx, idx + 1, size);
+            }
+        }
+        if (!patched.isEmpty() && hasListeners()) {
+            scheduleFlush();
+        }
+        log.debug("patchRows. patched="+patched.size());
+        return patched.size();
+    }
+
+    /**
+     * Периодическое обновление измененных строк (refreshChanged). Запрос к БД 
+     * выполняется в фоновом потоке, окно кеша рассчитывается и обновляется 
+     * через notifyExecutor (поток javafx). Если строки не поддерживают 
+     * IHasVersion, обновление не выполняется.
+     * @param periodMillis период в миллисекундах. 0 - отключает обновление
+     */
+    public synchronized void setAutoRefresh(long periodMillis) {
+        log.trace("setAutoRefresh(periodMillis="+periodMillis+")");
+        if (periodMillis < 0) {
+            throw new ENegativeArgument("setAutoRefresh", "periodMillis");
+        }
+        if (autoRefreshTask != null) {
+            autoRefreshTask.cancel(false);
+            autoRefreshTask = null;
+        }
+        if (periodMillis > 0) {
+            if (autoRefreshTimer == null) {
+                autoRefreshTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+                    Thread t = new Thread(r, "DataList-refresh");
+                    t.setDaemon(true);
+                    return t;
+                });
+            }
+            autoRefreshTask = autoRefreshTimer.scheduleWithFixedDelay(
+                    () -> notifyExecutor.execute(this::autoRefresh), periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /* шаг периодического обновления. вызывается в потоке javafx */
+    private void autoRefresh() {
+        if (autoRefreshRunning) {
+            return;
+        }
+        final VersionScope scope = cache.getVersionScope();
+        if (scope == null) {
+            return;
+        }
+        autoRefreshRunning = true;
+        try {
+            autoRefreshTimer.execute(() -> {
+                List<DTOclass> rows = null;
+                try {
+                    rows = cache.fetchChanged(scope);
+                } catch (RuntimeException e) {
+                    log.error("auto refresh failed", e);
+                }
+                final List<DTOclass> changed = rows;
+                notifyExecutor.execute(() -> {
+                    autoRefreshRunning = false;
+                    if (changed != null) {
+                        patchRows(scope, changed);
+                    }
+                });
+            });
+        } catch (RuntimeException e) {
+            autoRefreshRunning = false;
+            throw e;
+        }
+    }
     
     // ******************* IDataRangeFetcher *******************
 
@@ -167,7 +639,7 @@ public class DataList<DTOclass,RangeKeyClass extends Number> implements IDataCru
     */
     @Override
     public INestedRange<RangeKeyClass> getRowTotalRange() throws IOException{
-        return dao.getRowTotalRange();
+        return rowCount.get();
     }
     
     /**
@@ -182,16 +654,373 @@ public class DataList<DTOclass,RangeKeyClass extends Number> implements IDataCru
         if (aRowsRange == null) {
             throw new ENullArgument("fetch");
         }
+        List<DTOclass> l = prepareFetch(aRowsRange, null, true).get();
+        log.trace(exiting+"fetch");
+        return l;
+    }
+
+    /**
+     * Сортировка, фильтр, локальное представление и кол-во строк кеша читаются 
+     * при вызове, загрузка только выполняет подготовленный запрос к DAO.
+     */
+    @Override
+    public Supplier<List<DTOclass>> prepareFetch(INestedRange<RangeKeyClass> aRowsRange, DTOclass boundaryRow, boolean forward) {
+        log.trace(entering+"prepareFetch(aRowsRange="+aRowsRange+", forward="+forward+")");
+        if (aRowsRange == null) {
+            throw new ENullArgument("prepareFetch");
+        }
+        List<DTOclass> view = localView;
+        if (view != null) {
+            List<DTOclass> l = fetchLocal(view, aRowsRange);
+            return () -> l;
+        }
+        SQLParams qep = newParams(aRowsRange);
+        if (setKeyset(qep, boundaryRow, forward)) {
+            return () -> selectAdjacent(qep, forward);
+        }
+        //кол-во строк - попутно со страницей, без отдельного подсчета
+        qep.setCountTotal(countWithPage);
+        RowCountCache.Mark mark = rowCount.mark();
+        INestedRange<RangeKeyClass> r = aRowsRange.clone();
+        long leftLimit = cache.getLeftLimit().longValue();
+        return () -> selectPage(qep, mark, r, leftLimit);
+    }
+
+    private List<DTOclass> selectPage(SQLParams qep, RowCountCache.Mark mark, 
+            INestedRange<RangeKeyClass> aRowsRange, long leftLimit) {
         List<DTOclass> l;
         try {
-            SQLParams qep = new SQLParams(aRowsRange, getSortOrder(), getFilter());
             l = dao.select(qep);
+            if (qep.getTotalRows() != null) {
+                offerRowCount(mark, aRowsRange, leftLimit, qep.getTotalRows());
+            }
         } catch (IOException ex) {
             //TODO прятать проблемы нехорошо
             log.error(null, ex);
             l = new ArrayList<>();
         }
-        log.trace(exiting+"fetch");
+        return l;
+    }
+
+    /* кол-во строк, полученное вместе со страницей, заменяет подсчет */
+    private void offerRowCount(RowCountCache.Mark mark, INestedRange<RangeKeyClass> aRowsRange, long leftLimit, long total) {
+        INestedRange<RangeKeyClass> r = aRowsRange.clone();
+        r.setParentRange(null);
+        r.setLength(r.valueOf(0));
+        r.setFirst(r.valueOf(leftLimit));
+        r.setLength(r.valueOf(total));
+        rowCount.offer(mark, r);
+    }
+
+    public boolean isCountWithPage() {
+        return countWithPage;
+    }
+
+    /**
+     * @param countWithPage true - при загрузке страницы запрашивать общее кол-во 
+     * строк (count(*) over ()) в том же запросе. Кол-во строк обновляется с каждой
+     * страницей, без отдельного подсчета, но каждый запрос страницы обрабатывает 
+     * все строки выборки. false - кол-во строк подсчитывается отдельно (RowCountCache)
+     */
+    public void setCountWithPage(boolean countWithPage) {
+        this.countWithPage = countWithPage;
+    }
+
+    private SQLParams newParams(INestedRange<RangeKeyClass> aRowsRange) {
+        SQLParams qep = new SQLParams(aRowsRange, getSortOrder(), getFilter());
+        //первичный ключ в конце сортировки - одинаковый порядок строк для обоих режимов выборки
+        qep.setKeyColumn(keyColumn);
+        return qep;
+    }
+
+    /**
+     * @param columnValue значение столбца (по имени столбца сортировки) в строке данных.
+     * Нужно для режима keyset и локальной сортировки
+     */
+    public void setColumnValue(BiFunction<DTOclass,String,Object> columnValue) {
+        this.columnValue = columnValue;
+    }
+
+    /**
+     * Включает режим keyset: строки, примыкающие к окну кеша, выбираются по значениям 
+     * столбцов сортировки крайней строки окна (where (cols) > (values)), а не 
+     * пропуском предшествующих строк (offset/rownum), поэтому дальние страницы 
+     * загружаются так же быстро, как первые. Первичный ключ добавляется в конец 
+     * сортировки, чтобы порядок строк был однозначным.
+     * @param keyColumn столбец первичного ключа. null - отключает режим
+     * @param columnValue значение столбца (по имени столбца сортировки) в строке данных
+     */
+    public void setKeyset(String keyColumn, BiFunction<DTOclass,String,Object> columnValue) {
+        log.trace("setKeyset(keyColumn="+keyColumn+")");
+        if ((keyColumn != null) && (columnValue == null)) {
+            throw new ENullArgument("setKeyset", "columnValue");
+        }
+        this.keyColumn = keyColumn;
+        this.columnValue = columnValue;
+    }
+
+    /**
+     * @param localLimit макс. кол-во строк источника (без фильтра), при котором 
+     * сортировка и фильтр (ILocalFilterable) применяются в памяти без запроса к БД. 
+     * Не зависит от размера окна кеша: строки загружаются в память одним запросом.
+     * 0 - всегда запрос к БД. По умолчанию - defLocalLimit
+     */
+    public void setLocalLimit(int localLimit) {
+        if (localLimit < 0) {
+            throw new ENegativeArgument("setLocalLimit", "localLimit");
+        }
+        this.localLimit = localLimit;
+    }
+
+    public int getLocalLimit() {
+        return localLimit;
+    }
+
+    public Collator getCollator() {
+        return collator;
+    }
+
+    /**
+     * Порядок строковых значений при локальной сортировке. БД сортирует строки 
+     * по правилам своей collation (lc_collate, NLS_SORT), а String.compareTo - по 
+     * кодам символов UTF-16, поэтому по умолчанию используется Collator.getInstance() 
+     * для локали по умолчанию. Порядок совпадает с порядком БД, только если 
+     * правила collator и collation БД совпадают; при расхождении порядок строк 
+     * меняется при переходе между локальной сортировкой и запросом к БД.
+     * Действует со следующей локальной сортировки.
+     * @param collator правила сравнения строк. null - по кодам символов (как collation "C")
+     */
+    public void setCollator(Collator collator) {
+        this.collator = collator;
+    }
+
+    /**
+     * @return true, если сортировка и фильтр применяются к строкам в памяти
+     */
+    public boolean isLocal() {
+        return (localView != null);
+    }
+
+    /**
+     * Все строки источника с текущими сортировкой и фильтром, без загрузки в кеш.
+     * iterator() и toArray() видят только строки кеша, а этот поток читает
+     * выборку целиком (н-р, для выгрузки), держа в памяти не больше fetchSize строк.
+     * Поток нужно закрыть после чтения (try-with-resources).
+     * @param fetchSize кол-во строк, читаемых из БД за один раз
+     * @return поток строк
+     * @throws IOException
+     */
+    public Stream<DTOclass> streamAll(int fetchSize) throws IOException {
+        log.trace(entering+"streamAll. fetchSize="+fetchSize);
+        if (fetchSize <= 0) {
+            throw new ENegativeArgument("streamAll", "fetchSize");
+        }
+        List<DTOclass> view = localView;
+        if (view != null) {
+            //все строки уже в памяти
+            return view.stream();
+        }
+        return dao.selectStream(newParams(null), fetchSize);
+    }
+
+    /* 
+     * сохраняет все строки источника без фильтра для локальной сортировки и 
+     * фильтра, если их кол-во не превышает предел. строки выбираются одним запросом.
+     * при действующем фильтре или оценке кол-ва строк строки без фильтра 
+     * подсчитываются отдельно. строки не сохраняются, если их оказалось больше
+     * подсчитанного (источник изменился)
+     */
+    private boolean loadLocalRows() {
+        if (localRows != null) {
+            return true;
+        }
+        if ((columnValue == null) || (localLimit == 0) || cache.hasDataChanges()) {
+            return false;
+        }
+        try {
+            long total = ((filter == null) && !rowCount.isEstimated()) ? cache.getRowTotalLength()
+                    : dao.getRowTotalRange().getLength().longValue();
+            if (total > localLimit) {
+                return false;
+            }
+            log.debug("loadLocalRows. total="+total);
+            //на одну строку больше - проверка, что строк не стало больше
+            INestedRange<RangeKeyClass> r = cache.getRange().clone();
+            r.setParentRange(null);
+            r.setLength(r.valueOf(0));
+            r.setFirst(cache.getLeftLimit());
+            r.setLength(r.valueOf(total + 1));
+            SQLParams prm = new SQLParams(r);
+            prm.setKeyColumn(keyColumn);
+            List<DTOclass> rows = dao.select(prm);
+            if (rows.size() != total) {
+                log.debug("loadLocalRows. rows="+rows.size()+", source changed");
+                return false;
+            }
+            localRows = new ArrayList<>(rows);
+            return true;
+        } catch (IOException ex) {
+            log.error(null, ex);
+            return false;
+        }
+    }
+
+    private void dropLocalRows() {
+        localRows = null;
+        localView = null;
+    }
+
+    /* 
+     * применяет сортировку и фильтр к строкам в памяти. 
+     * возвращает false, если это невозможно и нужен запрос к БД: строк больше 
+     * localLimit или фильтр не реализует ILocalFilterable (такой фильтр, пока он 
+     * действует, выполняется только в БД)
+     */
+    private boolean applyLocally(IDAOSortOrder aSortOrder, ISqlFilterable aFilter) {
+        if ((aFilter != null) && !(aFilter instanceof ILocalFilterable)) {
+            return false;
+        }
+        if (!loadLocalRows()) {
+            return false;
+        }
+        List<DTOclass> view = new ArrayList<>();
+        for (DTOclass row : localRows) {
+            if ((aFilter == null) || ((ILocalFilterable)aFilter).passesFilter(row)) {
+                view.add(row);
+            }
+        }
+        SQLParams prm = new SQLParams(null, aSortOrder);
+        prm.setKeyColumn(keyColumn);
+        Comparator<DTOclass> cmp = null;
+        for (SQLParams.SortTerm t : prm.getSortTerms()) {
+            Comparator<DTOclass> c = columnComparator(t.getColumn(), t.getDirection());
+            cmp = (cmp == null) ? c : cmp.thenComparing(c);
+        }
+        if (cmp != null) {
+            view.sort(cmp);
+        }
+        log.debug("applyLocally. rows="+localRows.size()+", view="+view.size());
+        localView = view;
+        cache.getStatistics().recordLocalQuery();
+        return true;
+    }
+
+    /* 
+     * сравнение по столбцу: пустые значения, как в БД, - в конце при сортировке 
+     * по возрастанию и в начале при сортировке по убыванию. строки сравниваются 
+     * через collator (см. setCollator)
+     */
+    private Comparator<DTOclass> columnComparator(String column, ISortOrder.Direction dir) {
+        final Collator coll = collator;
+        Comparator<DTOclass> c = (a, b) -> compareColumnValues(coll, columnValue.apply(a, column), columnValue.apply(b, column));
+        return (dir == ISortOrder.Direction.DESC) ? c.reversed() : c;
+    }
+
+    /* пустые значения - в конце */
+    @SuppressWarnings("unchecked") // значения одного столбца - одного класса, реализующего Comparable
+    private static int compareColumnValues(Collator coll, Object a, Object b) {
+        if (a == null) {
+            return (b == null) ? 0 : 1;
+        }
+        if (b == null) {
+            return -1;
+        }
+        if ((coll != null) && (a instanceof String) && (b instanceof String)) {
+            return coll.compare(a, b);
+        }
+        return ((Comparable<Object>)a).compareTo(b);
+    }
+
+    /* подсчет кол-ва строк для RowCountCache (в т.ч. в фоновом потоке) */
+    private INestedRange<RangeKeyClass> countRows() throws IOException {
+        if (localView != null) {
+            return localRange();
+        }
+        //первый подсчет - из конструктора кеша, до его присваивания
+        if (cache != null) {
+            cache.getStatistics().recordRowCount();
+        }
+        return dao.getRowTotalRange();
+    }
+
+    /* кол-во строк локального представления в нумерации источника */
+    private INestedRange<RangeKeyClass> localRange() {
+        INestedRange<RangeKeyClass> r = cache.getRange().getParentRange().clone();
+        r.setParentRange(null);
+        r.setLength(r.valueOf(localView.size()));
+        return r;
+    }
+
+    private List<DTOclass> fetchLocal(List<DTOclass> view, INestedRange<RangeKeyClass> aRowsRange) {
+        long from = aRowsRange.getFirst().longValue() - cache.getLeftLimit().longValue();
+        long to = Math.min(view.size(), from + aRowsRange.getLength().longValue());
+        if ((from < 0) || (from >= to)) {
+            return new ArrayList<>();
+        }
+        return new ArrayList<>(view.subList((int)from, (int)to));
+    }
+
+    public String getKeyColumn() {
+        return keyColumn;
+    }
+
+    /**
+     * @param scope диапазон ключей и версия окна кеша
+     * @return строки, измененные после версии окна, или null, если DAO не поддерживает выборку по версии
+     */
+    @Override
+    public List<DTOclass> fetchChanged(VersionScope scope) {
+        log.trace(entering+"fetchChanged(scope="+scope+")");
+        try {
+            return dao.selectChanged(scope);
+        } catch (IOException ex) {
+            //при ошибке окно не меняется, а не перезагружается
+            log.error(null, ex);
+            return new ArrayList<>();
+        }
+    }
+
+    @Override
+    public List<DTOclass> fetchAdjacent(INestedRange<RangeKeyClass> aRowsRange, DTOclass boundaryRow, boolean forward) {
+        log.trace(entering+"fetchAdjacent(aRowsRange="+aRowsRange+", forward="+forward+")");
+        if (aRowsRange == null) {
+            throw new ENullArgument("fetchAdjacent");
+        }
+        List<DTOclass> l = prepareFetch(aRowsRange, boundaryRow, forward).get();
+        log.trace(exiting+"fetchAdjacent");
+        return l;
+    }
+
+    /* условие выборки по ключу граничной строки; false - нужна обычная выборка */
+    private boolean setKeyset(SQLParams qep, DTOclass boundaryRow, boolean forward) {
+        if ((keyColumn == null) || (boundaryRow == null)) {
+            return false;
+        }
+        List<Object> values = new ArrayList<>();
+        for (String col : qep.getSortColumns()) {
+            Object v = columnValue.apply(boundaryRow, col);
+            if (v == null) {
+                //сравнение с null не выбирает строк - обычная выборка
+                return false;
+            }
+            values.add(v);
+        }
+        qep.setKeyset(values, forward);
+        return true;
+    }
+
+    private List<DTOclass> selectAdjacent(SQLParams qep, boolean forward) {
+        List<DTOclass> l;
+        try {
+            l = new ArrayList<>(dao.select(qep));
+            if (!forward) {
+                //строки перед граничной выбраны в обратном порядке
+                Collections.reverse(l);
+            }
+        } catch (IOException ex) {
+            log.error(null, ex);
+            l = new ArrayList<>();
+        }
         return l;
     }
 
@@ -241,36 +1070,34 @@ public class DataList<DTOclass,RangeKeyClass extends Number> implements IDataCru
     public void addListener(ListChangeListener<? super DTOclass> listener) {
         //throw new UnsupportedOperationException("Not supported yet.");
         log.trace(entering+"addListener(ListChangeListener)"+listener);
-        dataFacade.addListener(listener);
-        //changeListeners.add(listener);
+        changeListeners.add(listener);
     }
 
     @Override
     public void removeListener(ListChangeListener<? super DTOclass> listener) {
         //throw new UnsupportedOperationException("Not supported yet.");
         log.trace(entering+"removeListener(ListChangeListener)"+listener);
-        dataFacade.removeListener(listener);
-        //changeListeners.remove(listener);
+        changeListeners.remove(listener);
     }
 
     // ******************* java.util.List *******************
     
     /*
+    * кол-во строк берется из кеша кол-ва строк и не ждет подсчета строк в БД.
+    * новое значение, полученное в фоне, применяется в rowCountChanged с уведомлением
+    * подписчиков, а при их отсутствии - здесь же
     * @return  
     */
     @Override
     public int size() {
-        int sz = dataFacade.size();
-        int rc;
-        try {
-            rc = getRowTotalRange().getLength().intValue();
-        } catch (IOException ex) {
-            log.error(null, ex);
-            rc = 0;
+        long rc = rowCount.getLength();
+        if ((rc != cache.getRowTotalLength()) && !hasListeners()) {
+            log.debug("size. RowCount changed: "+cache.getRowTotalLength()+" -> "+rc);
+            cache.setRowTotalLength(rc);
         }
-        log.trace(entering+"size="+sz+", RowCount="+rc+", isEmpty="+dataFacade.isEmpty());
-        //return dataFacade.size();
-        return rc;
+        rc = cache.getRowTotalLength();
+        log.trace(entering+"size. RowCount="+rc);
+        return (int)Math.min(rc, Integer.MAX_VALUE);
     }
 
     @Override
@@ -291,6 +1118,51 @@ public class DataList<DTOclass,RangeKeyClass extends Number> implements IDataCru
         return dataFacade.iterator();
     }
 
+    /**
+     * Строки источника с текущими сортировкой и фильтром страницами размера кеша
+     * (getDefSize). См. rowStream(pageSize)
+     * @return поток строк
+     */
+    public Stream<DTOclass> rowStream() {
+        return rowStream(cache.getDefSize());
+    }
+
+    /**
+     * Поток всех строк источника в обход кеша для параллельной обработки 
+     * (rowStream(pageSize).parallel()). Делится по границам страниц, каждая 
+     * страница выбирается отдельным запросом со своей сессией БД, поэтому 
+     * выборка и обработка строк распределяются по потокам и соединениям пула. 
+     * Кол-во строк (getRowTotalRange) может быть оценкой или устаревшим, 
+     * поэтому последняя часть читает страницы, пока страница не вернется 
+     * неполной. При локальной сортировке строки берутся из памяти.
+     * @param pageSize кол-во строк в одном запросе
+     * @return поток строк
+     */
+    public Stream<DTOclass> rowStream(int pageSize) {
+        log.trace(entering+"rowStream. pageSize="+pageSize);
+        if (pageSize <= 0) {
+            throw new ENegativeArgument("rowStream", "pageSize");
+        }
+        List<DTOclass> view = localView;
+        if (view != null) {
+            return view.stream();
+        }
+        INestedRange<RangeKeyClass> total;
+        try {
+            total = getRowTotalRange();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        return StreamSupport.stream(new RowRangeSpliterator<>(range -> {
+            try {
+                return dao.select(newParams(range));
+            } catch (IOException ex) {
+                //в отличие от fetch пропуск строк недопустим
+                throw new UncheckedIOException(ex);
+            }
+        }, total, pageSize, true), false);
+    }
+
     @Override
     public Object[] toArray() {
         log.trace(entering+"toArray");
@@ -364,9 +1236,32 @@ public class DataList<DTOclass,RangeKeyClass extends Number> implements IDataCru
     @Override
     public DTOclass get(int index) {
         //log.trace(entering+"get(index="+index+")");
-        //возвращаем значение из этой строки
-        //assert(cache.containsIndex(index));
-        return cache.get(toDataRowNo(index));
+        int dataRowNo = toDataRowNo(index);
+        Supplier<DTOclass> ph = placeholder;
+        if ((ph != null) && !cache.containsIndex(dataRowNo)) {
+            //асинхронный режим: строки нет в кеше - заглушка и загрузка в фоне
+            requestPage(dataRowNo);
+            cache.getStatistics().recordPlaceholder();
+            return ph.get();
+        }
+        if (!cache.containsIndex(dataRowNo)) {
+            //загрузка страницы - в одной сессии БД. упреждающее чтение выполняется 
+            //в потоке подкачки кеша, со своей сессией
+            return inSession(() -> cache.get(dataRowNo));
+        }
+        return cache.get(dataRowNo);
+    }
+
+    /* последовательные чтения из источника в одной сессии БД (см. IDAOreadonly.inSession) */
+    private <R> R inSession(Supplier<R> work) {
+        if (dao == null) {
+            return work.get();
+        }
+        try {
+            return dao.inSession(work::get);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
     }
 
     @Override
@@ -426,15 +1321,13 @@ public class DataList<DTOclass,RangeKeyClass extends Number> implements IDataCru
     @Override
     public void addListener(InvalidationListener listener) {
         log.trace(entering+"addListener(InvalidationListener)");
-        dataFacade.addListener(listener);
-        //invListeners.add(listener);
+        invListeners.add(listener);
     }
 
     @Override
     public void removeListener(InvalidationListener listener) {
         log.trace(entering+"removeListener(InvalidationListener)");
-        dataFacade.removeListener(listener);
-        //invListeners.remove(listener);
+        invListeners.remove(listener);
     }
 
     // ******************* fxapp01.dto.ISortOrder *******************
@@ -460,8 +1353,13 @@ public class DataList<DTOclass,RangeKeyClass extends Number> implements IDataCru
         log.trace("setSortOrder");
         if (isSortOrderChanged(sortOrder)) {
             log.debug("isSortOrderChanged=true");
+            if (applyLocally(sortOrder, filter)) {
+                this.sortOrder = sortOrder;
+                reload();
+                return;
+            }
             this.sortOrder = sortOrder;
-            refresh();
+            requery();
         } else {
             log.debug("isSortOrderChanged=false");
         }
@@ -489,8 +1387,14 @@ public class DataList<DTOclass,RangeKeyClass extends Number> implements IDataCru
         log.trace("setFilter");
         if (isFilterChanged(filter)) {
             log.debug("isFilterChanged=true");
+            boolean local = applyLocally(sortOrder, filter);
             this.filter = filter;
-            refresh();
+            rowCount.setScope(filter);
+            if (local) {
+                reload();
+                return;
+            }
+            requery();
         } else {
             log.debug("isFilterChanged=false");
         }
@@ -502,7 +1406,11 @@ public class DataList<DTOclass,RangeKeyClass extends Number> implements IDataCru
     public int insertRow(DTOclass item) throws IOException {
         log.trace(entering+"insertRow");
         if (isWritable) {
-            return daoWriter.insertRow(item);    
+            int res = daoWriter.insertRow(item);
+            //строки в памяти устарели
+            dropLocalRows();
+            rowCount.adjust(res);
+            return res;
         } else {
             throw new EUnsupported("DAO is read-only");
         }
@@ -512,6 +1420,7 @@ public class DataList<DTOclass,RangeKeyClass extends Number> implements IDataCru
     public int updateRow(DTOclass item) throws IOException {
         log.trace(entering+"updateRow");
         if (isWritable) {
+            dropLocalRows();
             return daoWriter.updateRow(item);
         } else {
             throw new EUnsupported("DAO is read-only");
@@ -522,7 +1431,47 @@ public class DataList<DTOclass,RangeKeyClass extends Number> implements IDataCru
     public int deleteRow(DTOclass item) throws IOException {
         log.trace(entering+"deleteRow");
         if (isWritable) {
-            return daoWriter.deleteRow(item);
+            int res = daoWriter.deleteRow(item);
+            dropLocalRows();
+            rowCount.adjust(-res);
+            return res;
+        } else {
+            throw new EUnsupported("DAO is read-only");
+        }
+    }
+    
+    @Override
+    public int insertRows(List<DTOclass> items) throws IOException {
+        log.trace(entering+"insertRows. size="+items.size());
+        if (isWritable) {
+            int res = daoWriter.insertRows(items);
+            dropLocalRows();
+            rowCount.adjust(res);
+            return res;
+        } else {
+            throw new EUnsupported("DAO is read-only");
+        }
+    }
+
+    @Override
+    public int updateRows(List<DTOclass> items) throws IOException {
+        log.trace(entering+"updateRows. size="+items.size());
+        if (isWritable) {
+            dropLocalRows();
+            return daoWriter.updateRows(items);
+        } else {
+            throw new EUnsupported("DAO is read-only");
+        }
+    }
+
+    @Override
+    public int deleteRows(List<DTOclass> items) throws IOException {
+        log.trace(entering+"deleteRows. size="+items.size());
+        if (isWritable) {
+            int res = daoWriter.deleteRows(items);
+            dropLocalRows();
+            rowCount.adjust(-res);
+            return res;
         } else {
             throw new EUnsupported("DAO is read-only");
         }
@@ -537,6 +1486,7 @@ public class DataList<DTOclass,RangeKeyClass extends Number> implements IDataCru
 
     @Override
     public void applyDataChanges() throws IOException {
+        dropLocalRows();
         cache.applyDataChanges();
     }
 
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2015 serg.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fxapp01.dao;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import javafx.collections.ListChangeListener;
+import javafx.collections.ObservableList;
+
+/**
+ * Изменение списка DataList из одного или нескольких последовательных изменений
+ * (sub-change): строки from..to-1 добавлены вместо removedSize удаленных строк. 
+ * Используется для уведомления о смене кол-ва строк, загрузке страниц и полной 
+ * перезагрузке данных. Удаленные строки в кеше, как правило, уже не хранятся,
+ * поэтому, если они не переданы явно, getRemoved() возвращает список нужной длины из null.
+ * @author serg
+ * @param <E> класс строки данных
+ */
+class DataListChange<E> extends ListChangeListener.Change<E> {
+
+    private final List<SubChange<E>> subChanges;
+    private int cursor;
+
+    /**
+     * Одно изменение: строки from..to-1 добавлены вместо removedSize удаленных строк
+     */
+    static class SubChange<E> {
+        private final int from;
+        private final int to;
+        private final int removedSize;
+        private final List<E> removed;
+
+        SubChange(int from, int to, int removedSize, List<E> removed) {
+            this.from = from;
+            this.to = to;
+            this.removedSize = removedSize;
+            this.removed = removed;
+        }
+    }
+
+    /**
+     * @param list источник изменения
+     * @param from первая добавленная строка (или позиция удаления)
+     * @param to строка после последней добавленной
+     * @param removedSize кол-во удаленных строк
+     */
+    DataListChange(ObservableList<E> list, int from, int to, int removedSize) {
+        this(list, Collections.singletonList(new SubChange<>(from, to, removedSize, null)));
+    }
+
+    /**
+     * @param list источник изменения
+     * @param subChanges изменения по возрастанию from, индексы - после применения предыдущих изменений
+     */
+    DataListChange(ObservableList<E> list, List<SubChange<E>> subChanges) {
+        super(list);
+        this.subChanges = subChanges;
+        this.cursor = -1;
+    }
+
+    /**
+     * Копия изменения другого списка (н-р, фасада кеша) со сдвигом индексов на offset.
+     * Перестановки и обновления строк передаются как замена строк.
+     */
+    static <E> DataListChange<E> copyOf(ObservableList<E> list, ListChangeListener.Change<? extends E> c, int offset) {
+        List<SubChange<E>> res = new ArrayList<>();
+        c.reset();
+        while (c.next()) {
+            int from = c.getFrom() - offset;
+            int to = c.getTo() - offset;
+            if (c.wasPermutated() || c.wasUpdated()) {
+                res.add(new SubChange<>(from, to, to - from, null));
+            } else {
+                res.add(new SubChange<>(from, to, c.getRemovedSize(), new ArrayList<E>(c.getRemoved())));
+            }
+        }
+        c.reset();
+        return new DataListChange<>(list, res);
+    }
+
+    /**
+     * @return кол-во изменений (sub-change)
+     */
+    int getSubChangeCount() {
+        return subChanges.size();
+    }
+
+    private SubChange<E> current() {
+        if ((cursor < 0) || (cursor >= subChanges.size())) {
+            throw new IllegalStateException("Invalid Change state: next() must be called before inspecting the Change.");
+        }
+        return subChanges.get(cursor);
+    }
+
+    @Override
+    public boolean next() {
+        cursor++;
+        return cursor < subChanges.size();
+    }
+
+    @Override
+    public void reset() {
+        cursor = -1;
+    }
+
+    @Override
+    public int getFrom() {
+        return current().from;
+    }
+
+    @Override
+    public int getTo() {
+        return current().to;
+    }
+
+    @Override
+    public List<E> getRemoved() {
+        SubChange<E> sc = current();
+        if (sc.removed != null) {
+            return sc.removed;
+        }
+        return Collections.nCopies(sc.removedSize, null);
+    }
+
+    @Override
+    protected int[] getPermutation() {
+        current();
+        return new int[0];
+    }
+
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2015 serg.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fxapp01.dao;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import javafx.collections.ObservableList;
+
+/**
+ * Накопитель изменений DataList в пределах одного такта (pulse) javafx. 
+ * Пересекающиеся и смежные замены строк объединяются, последовательные изменения 
+ * кол-ва строк сводятся к одному добавлению или удалению строк в конце списка, 
+ * а полная перезагрузка поглощает все остальные изменения. В результате 
+ * подписчик (TableView) получает одно изменение и перерисовывает только 
+ * затронутые строки.
+ * @author serg
+ * @param <E> класс строки данных
+ */
+class DataListChangeBatch<E> {
+
+    private final ObservableList<E> list;
+    private boolean empty;
+    // кол-во строк до первого накопленного изменения, текущее и минимальное за такт
+    private int startSize;
+    private int size;
+    private int minSize;
+    private boolean full;
+    // замененные строки: from -> to. диапазоны не пересекаются и не смежны
+    private final TreeMap<Integer,Integer> replaced;
+
+    DataListChangeBatch(ObservableList<E> list) {
+        this.list = list;
+        this.replaced = new TreeMap<>();
+        clear();
+    }
+
+    private void clear() {
+        empty = true;
+        full = false;
+        startSize = 0;
+        size = 0;
+        minSize = 0;
+        replaced.clear();
+    }
+
+    boolean isEmpty() {
+        return empty;
+    }
+
+    private void begin(int curSize) {
+        if (empty) {
+            empty = false;
+            startSize = curSize;
+            size = curSize;
+            minSize = curSize;
+        }
+    }
+
+    /**
+     * Строки from..to-1 заменены (н-р, загружена страница)
+     * @param curSize текущее кол-во строк
+     */
+    void replaced(int from, int to, int curSize) {
+        begin(curSize);
+        if (full || (from >= to)) {
+            return;
+        }
+        //объединяем с пересекающимися и смежными диапазонами
+        Map.Entry<Integer,Integer> e = replaced.floorEntry(from);
+        if ((e != null) && (e.getValue() >= from)) {
+            from = e.getKey();
+            to = Math.max(to, e.getValue());
+            replaced.remove(e.getKey());
+        }
+        e = replaced.ceilingEntry(from);
+        while ((e != null) && (e.getKey() <= to)) {
+            to = Math.max(to, e.getValue());
+            replaced.remove(e.getKey());
+            e = replaced.ceilingEntry(from);
+        }
+        replaced.put(from, to);
+    }
+
+    /**
+     * Кол-во строк изменилось с oldSize до newSize (строки добавлены или удалены в конце)
+     */
+    void resized(int oldSize, int newSize) {
+        begin(oldSize);
+        size = newSize;
+        minSize = Math.min(minSize, newSize);
+    }
+
+    /**
+     * Все строки заменены (перезагрузка данных)
+     */
+    void replacedAll(int oldSize, int newSize) {
+        begin(oldSize);
+        size = newSize;
+        full = true;
+        replaced.clear();
+    }
+
+    /**
+     * Сводит накопленные изменения в одно изменение списка и очищает накопитель.
+     * @return изменение или null, если изменений нет
+     */
+    DataListChange<E> build() {
+        if (empty) {
+            return null;
+        }
+        List<DataListChange.SubChange<E>> res = new ArrayList<>();
+        if (full) {
+            res.add(new DataListChange.SubChange<>(0, size, startSize, null));
+        } else {
+            //строки после минимального за такт кол-ва удалялись и добавлялись заново
+            int common = Math.min(startSize, size);
+            if (minSize < common) {
+                replaced(minSize, common, size);
+            }
+            for (Map.Entry<Integer,Integer> e : replaced.entrySet()) {
+                int from = e.getKey();
+                int to = Math.min(e.getValue(), common);
+                if (from < to) {
+                    res.add(new DataListChange.SubChange<>(from, to, to - from, null));
+                }
+            }
+            if (size > startSize) {
+                res.add(new DataListChange.SubChange<>(startSize, size, 0, null));
+            } else if (size < startSize) {
+                res.add(new DataListChange.SubChange<>(size, size, startSize - size, null));
+            }
+        }
+        clear();
+        return res.isEmpty() ? null : new DataListChange<>(list, res);
+    }
+
+}
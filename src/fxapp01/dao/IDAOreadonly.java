@@ -15,10 +15,21 @@
  */
 package fxapp01.dao;
 
+import fxapp01.dao.cache.VersionScope;
 import fxapp01.dto.INestedRange;
 import fxapp01.dto.SQLParams;
+import fxapp01.excpt.ENegativeArgument;
+import fxapp01.excpt.ENullArgument;
 import java.io.IOException;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.Callable;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  *
@@ -33,7 +44,114 @@ public interface IDAOreadonly<DTOclass,RangeKeyClass extends Number>{
     public List<String> getColumnNames();
     
     public INestedRange<RangeKeyClass> getRowTotalRange() throws IOException;
+
+    /**
+     * Оценка кол-ва строк по статистике БД, без подсчета строк.
+     * Для больших таблиц возвращается сразу, точное значение - getRowTotalRange().
+     * @return диапазон строк с оценкой кол-ва строк или null, если оценка не поддерживается
+     * @throws IOException
+     */
+    default INestedRange<RangeKeyClass> getRowTotalRangeEstimate() throws IOException {
+        return null;
+    }
     
     public List<DTOclass> select(SQLParams prm) throws IOException;
 
+    /**
+     * Выполняет последовательные чтения (н-р, подсчет строк и загрузку нескольких
+     * страниц при прокрутке) в одной сессии БД: одно соединение и одна транзакция 
+     * только для чтения. Методы DAO, вызванные из work, присоединяются к ней.
+     * Реализация по умолчанию просто выполняет work.
+     * @param <R> класс результата
+     * @param work чтения из источника
+     * @return результат work
+     * @throws IOException
+     */
+    default <R> R inSession(Callable<R> work) throws IOException {
+        try {
+            return work.call();
+        } catch (IOException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Сбрасывает результаты выборок, сохраненные в общем кеше (QueryResultCache),
+     * чтобы следующие выборки читали данные из БД. Вызывается после записи в источник
+     * и при явном обновлении данных (DataList.refresh), но не при смене сортировки 
+     * или фильтра: страницы кеша используют и другие DataList.
+     */
+    default void invalidateCache() {
+    }
+
+    /**
+     * Строки из диапазона ключей scope, измененные после версии scope.sinceVersion
+     * (см. IHasVersion). Используется для обновления кеша без полной перезагрузки.
+     * @param scope диапазон ключей и версия
+     * @return измененные строки или null, если выборка по версии не поддерживается
+     * @throws IOException
+     */
+    default List<DTOclass> selectChanged(VersionScope scope) throws IOException {
+        return null;
+    }
+
+    /**
+     * Все строки выборки prm (с учетом фильтра и сортировки) в виде потока, 
+     * в памяти одновременно держится не больше fetchSize строк.
+     * Реализация по умолчанию читает выборку страницами через select() 
+     * по копии prm (prm не изменяется). Реализации, поддерживающие 
+     * потоковое чтение в одном запросе (см. fxapp01.orm.ResultStream), 
+     * переопределяют метод. Поток нужно закрыть после чтения.
+     * @param prm параметры выборки, диапазон строк не учитывается
+     * @param fetchSize кол-во строк, читаемых из БД за один раз
+     * @return поток строк
+     * @throws IOException
+     */
+    default Stream<DTOclass> selectStream(SQLParams prm, int fetchSize) throws IOException {
+        if (prm == null) {
+            throw new ENullArgument("selectStream", "prm");
+        }
+        if (fetchSize <= 0) {
+            throw new ENegativeArgument("selectStream", "fetchSize");
+        }
+        final INestedRange<RangeKeyClass> page = getRowTotalRange().clone();
+        page.setParentRange(null);
+        page.setLength(page.valueOf(0));
+        //prm вызывающего не изменяется, диапазон страниц задается в копии
+        final SQLParams pagePrm = new SQLParams(prm);
+        Iterator<DTOclass> it = new Iterator<DTOclass>() {
+            private Iterator<DTOclass> rows = Collections.emptyIterator();
+            private boolean last = false;
+
+            @Override
+            public boolean hasNext() {
+                while (!rows.hasNext() && !last) {
+                    page.setFirst(page.valueOf(page.getFirst().longValue() + page.getLength().longValue()));
+                    page.setLength(page.valueOf(fetchSize));
+                    pagePrm.setRowsRange(page);
+                    List<DTOclass> l;
+                    try {
+                        l = select(pagePrm);
+                    } catch (IOException e) {
+                        throw new IllegalStateException("selectStream failed", e);
+                    }
+                    last = (l == null) || (l.size() < fetchSize);
+                    rows = (l == null) ? Collections.emptyIterator() : l.iterator();
+                }
+                return rows.hasNext();
+            }
+
+            @Override
+            public DTOclass next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return rows.next();
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(it, Spliterator.ORDERED), false);
+    }
+
 }
@@ -15,9 +15,11 @@
  */
 package fxapp01.dao;
 
+import fxapp01.dao.cache.VersionScope;
 import fxapp01.dto.INestedRange;
 import java.io.IOException;
 import java.util.List;
+import java.util.function.Supplier;
 
 /**
  * Интерфейс источника данных, поддерживающий их извлечение по-странично.
@@ -30,4 +32,44 @@ public interface IDataRangeFetcher<DTOclass,RangeKeyClass extends Number> {
     public INestedRange<RangeKeyClass> getRowTotalRange() throws IOException;
     
     List<DTOclass> fetch(INestedRange<RangeKeyClass> aRowsRange);
+
+    /**
+     * Загрузка строк, примыкающих к уже загруженной строке boundaryRow. Источник, 
+     * поддерживающий выборку по ключу (keyset), ищет строки по значениям столбцов 
+     * сортировки граничной строки, а не пропускает aRowsRange.first строк.
+     * @param aRowsRange диапазон строк, примыкающий к граничной строке
+     * @param boundaryRow последняя строка перед диапазоном (forward) или первая после него
+     * @param forward true - диапазон после граничной строки, false - перед ней
+     * @return строки диапазона по порядку
+     */
+    default List<DTOclass> fetchAdjacent(INestedRange<RangeKeyClass> aRowsRange, DTOclass boundaryRow, boolean forward) {
+        return fetch(aRowsRange);
+    }
+
+    /**
+     * Подготовка загрузки диапазона для выполнения в другом потоке (упреждающее 
+     * чтение). Параметры выборки (сортировка, фильтр, граничная строка) фиксируются 
+     * в потоке вызывающего, задача только выполняет запрос к источнику.
+     * @param aRowsRange диапазон строк
+     * @param boundaryRow граничная строка (см. fetchAdjacent) или null
+     * @param forward направление от граничной строки
+     * @return загрузка строк диапазона
+     */
+    default Supplier<List<DTOclass>> prepareFetch(INestedRange<RangeKeyClass> aRowsRange, DTOclass boundaryRow, boolean forward) {
+        INestedRange<RangeKeyClass> r = aRowsRange.clone();
+        if (boundaryRow == null) {
+            return () -> fetch(r);
+        }
+        return () -> fetchAdjacent(r, boundaryRow, forward);
+    }
+
+    /**
+     * Строки с первичным ключом (IHasID) в диапазоне scope.minKey..scope.maxKey,
+     * версия (IHasVersion) которых больше scope.sinceVersion.
+     * @param scope диапазон ключей и версия окна кеша
+     * @return измененные строки или null, если выборка по версии не поддерживается
+     */
+    default List<DTOclass> fetchChanged(VersionScope scope) {
+        return null;
+    }
 }
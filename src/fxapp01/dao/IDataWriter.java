@@ -16,6 +16,7 @@
 package fxapp01.dao;
 
 import java.io.IOException;
+import java.util.List;
 
 /**
  *
@@ -27,5 +28,50 @@ public interface IDataWriter<DTOclass> {
     int insertRow(DTOclass item) throws IOException;
     int updateRow(DTOclass item) throws IOException;
     int deleteRow(DTOclass item) throws IOException;
+
+    /**
+     * Добавляет строки одной операцией. Реализации, поддерживающие пакетное 
+     * выполнение (н-р, ExecutorType.BATCH mybatis), отправляют строки в БД 
+     * пакетами и фиксируют изменения один раз. Реализация по умолчанию 
+     * добавляет строки по одной.
+     * @param items добавляемые строки
+     * @return кол-во добавленных строк
+     * @throws IOException
+     */
+    default int insertRows(List<DTOclass> items) throws IOException {
+        int res = 0;
+        for (DTOclass item : items) {
+            res += insertRow(item);
+        }
+        return res;
+    }
+
+    /**
+     * Изменяет строки одной операцией (см. insertRows)
+     * @param items измененные строки
+     * @return кол-во измененных строк
+     * @throws IOException
+     */
+    default int updateRows(List<DTOclass> items) throws IOException {
+        int res = 0;
+        for (DTOclass item : items) {
+            res += updateRow(item);
+        }
+        return res;
+    }
+
+    /**
+     * Удаляет строки одной операцией (см. insertRows)
+     * @param items удаляемые строки
+     * @return кол-во удаленных строк
+     * @throws IOException
+     */
+    default int deleteRows(List<DTOclass> items) throws IOException {
+        int res = 0;
+        for (DTOclass item : items) {
+            res += deleteRow(item);
+        }
+        return res;
+    }
     
 }
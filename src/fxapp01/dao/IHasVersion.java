@@ -20,10 +20,10 @@ import java.io.Serializable;
 /**
  * A base interface for all entities that have a version (generation) info
  * can be used for optimistic locking
- * @param <T> type of the version
+ * @param <T> type of the version, versions are ordered (newer is greater)
  * @author serg
  */
-public interface IHasVersion<T> extends Serializable {
+public interface IHasVersion<T extends Comparable<? super T>> extends Serializable {
 
     /**
      * Returns the Version data
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2015 serg.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fxapp01.dao;
+
+import fxapp01.dto.INestedRange;
+import fxapp01.excpt.ENegativeArgument;
+import fxapp01.excpt.ENullArgument;
+import fxapp01.log.ILogger;
+import fxapp01.log.LogMgr;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Spliterator по диапазону номеров строк источника данных для параллельной 
+ * обработки (DataList.rowStream()). Строки читаются из источника страницами 
+ * по pageSize строк в обход кеша, диапазон делится только по границам страниц, 
+ * поэтому каждая часть выбирается своими запросами (и своей сессией БД из пула),
+ * а одна страница не запрашивается дважды.
+ * Если источник вернул меньше строк, чем ожидалось (строки удалены), 
+ * обход части завершается. С открытым концом (openEnd) последняя часть 
+ * читает страницы и за концом диапазона, пока страница не вернется неполной, 
+ * поэтому кол-во строк диапазона может быть оценкой.
+ * @author serg
+ * @param <T> класс строки данных
+ * @param <RangeKeyClass>
+ */
+public class RowRangeSpliterator<T,RangeKeyClass extends Number> implements Spliterator<T> {
+
+    private static final ILogger log = LogMgr.getLogger(RowRangeSpliterator.class);
+
+    private final Function<INestedRange<RangeKeyClass>,List<T>> source;
+    private final INestedRange<RangeKeyClass> template;
+    private final int pageSize;
+    // начало нумерации строк, от которого отсчитываются границы страниц
+    private final long base;
+    // следующая строка и строка после последней
+    private long origin;
+    private long fence;
+    // читать за fence, пока страницы полные
+    private boolean openEnd;
+    // загруженная страница и позиция в ней
+    private List<T> page;
+    private int pageIdx;
+
+    /**
+     * @param source выборка строк диапазона, н-р range -> dao.select(new SQLParams(range))
+     * @param totalRange диапазон обрабатываемых строк
+     * @param pageSize кол-во строк в одном запросе
+     */
+    public RowRangeSpliterator(Function<INestedRange<RangeKeyClass>,List<T>> source, 
+            INestedRange<RangeKeyClass> totalRange, int pageSize) {
+        this(source, totalRange, pageSize, false);
+    }
+
+    /**
+     * @param source выборка строк диапазона, н-р range -> dao.select(new SQLParams(range))
+     * @param totalRange диапазон обрабатываемых строк (ожидаемый при openEnd)
+     * @param pageSize кол-во строк в одном запросе
+     * @param openEnd продолжать чтение за концом totalRange до неполной страницы
+     */
+    public RowRangeSpliterator(Function<INestedRange<RangeKeyClass>,List<T>> source, 
+            INestedRange<RangeKeyClass> totalRange, int pageSize, boolean openEnd) {
+        if (source == null) {
+            throw new ENullArgument("constructor", "source");
+        }
+        if (totalRange == null) {
+            throw new ENullArgument("constructor", "totalRange");
+        }
+        if (pageSize <= 0) {
+            throw new ENegativeArgument("constructor", "pageSize");
+        }
+        this.source = source;
+        this.template = totalRange.clone();
+        this.template.setParentRange(null);
+        this.pageSize = pageSize;
+        this.base = totalRange.getFirst().longValue();
+        this.origin = base;
+        this.fence = base + totalRange.getLength().longValue();
+        this.openEnd = openEnd;
+        this.page = null;
+        this.pageIdx = 0;
+    }
+
+    private RowRangeSpliterator(RowRangeSpliterator<T,RangeKeyClass> parent, long origin, long fence) {
+        this.source = parent.source;
+        this.template = parent.template;
+        this.pageSize = parent.pageSize;
+        this.base = parent.base;
+        this.origin = origin;
+        this.fence = fence;
+        this.openEnd = false;
+        this.page = null;
+        this.pageIdx = 0;
+    }
+
+    /* загружает страницу, начинающуюся со строки origin */
+    private boolean loadPage() {
+        if ((fence <= origin) && openEnd) {
+            //последняя страница была полной - строки могут быть и дальше
+            fence = origin + pageSize;
+        }
+        long length = Math.min(pageSize, fence - origin);
+        if (length <= 0) {
+            return false;
+        }
+        INestedRange<RangeKeyClass> r = template.clone();
+        r.setLength(r.valueOf(0));
+        r.setFirst(r.valueOf(origin));
+        r.setLength(r.valueOf(length));
+        log.trace("loadPage. range="+r);
+        List<T> l = source.apply(r);
+        if ((l == null) || (l.size() < length)) {
+            //строк меньше, чем ожидалось - дальше строк нет
+            log.debug("loadPage. "+((l == null) ? 0 : l.size())+" of "+length+" rows returned");
+            fence = origin + ((l == null) ? 0 : l.size());
+            openEnd = false;
+        }
+        page = l;
+        pageIdx = 0;
+        return (l != null) && !l.isEmpty();
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super T> action) {
+        if (action == null) {
+            throw new ENullArgument("tryAdvance", "action");
+        }
+        if (page == null) {
+            if (!loadPage()) {
+                return false;
+            }
+        }
+        T row = page.get(pageIdx++);
+        origin++;
+        if (pageIdx >= page.size()) {
+            page = null;
+        }
+        action.accept(row);
+        return true;
+    }
+
+    /**
+     * Отделяет первую половину оставшихся страниц. Страница, обход которой 
+     * уже начат, не делится. Открытый конец остается у этой (последней) части.
+     */
+    @Override
+    public Spliterator<T> trySplit() {
+        if (page != null) {
+            return null;
+        }
+        long pages = (fence - origin + pageSize - 1) / pageSize;
+        if (pages < 2) {
+            return null;
+        }
+        long mid = origin + (pages / 2) * pageSize;
+        //граница страницы в общей нумерации
+        mid = base + ((mid - base) / pageSize) * pageSize;
+        if ((mid <= origin) || (mid >= fence)) {
+            return null;
+        }
+        RowRangeSpliterator<T,RangeKeyClass> prefix = new RowRangeSpliterator<>(this, origin, mid);
+        origin = mid;
+        return prefix;
+    }
+
+    @Override
+    public long estimateSize() {
+        return Math.max(0, fence - origin);
+    }
+
+    /**
+     * Кол-во строк может измениться во время обхода или быть оценкой, 
+     * поэтому SIZED не заявляется
+     */
+    @Override
+    public int characteristics() {
+        return ORDERED | NONNULL;
+    }
+
+}
@@ -15,18 +15,42 @@
  */
 package fxapp01.dao;
 
+import fxapp01.dao.cache.QueryResultCache;
+import fxapp01.dao.cache.VersionScope;
 import fxapp01.orm.ORMFacade;
+import fxapp01.orm.ResultStream;
+import fxapp01.dto.CountedRow;
 import fxapp01.dto.INestedRange;
 import fxapp01.dto.NestedIntRange;
 import fxapp01.dto.SQLParams;
 import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
 import fxapp01.dto.TestItemDTO;
+import fxapp01.excpt.EArgumentBreaksRule;
+import fxapp01.excpt.ENegativeArgument;
+import fxapp01.excpt.ENullArgument;
+import fxapp01.excpt.EUnsupported;
 import fxapp01.log.ILogger;
 import fxapp01.log.LogMgr;
 import java.beans.IntrospectionException;
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
+import java.util.stream.Stream;
+import org.apache.ibatis.session.ExecutorType;
+import org.apache.ibatis.session.SqlSession;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.postgresql.copy.CopyManager;
 
 /**
  *
@@ -34,8 +58,12 @@ import java.lang.reflect.InvocationTargetException;
  */
 public class TestItemDAO implements TestItemMapper {
     
+    // кол-во строк в одном операторе массовой загрузки
+    public static final int defBulkChunkSize = 500;
+    // макс. кол-во значений в списке IN (ограничение Oracle)
+    public static final int maxInListSize = 1000;
+
     private final ILogger log = LogMgr.getLogger(this.getClass());
-    private INestedRange<Integer> rowRange = null;
     private final DAOProperties beanProperties;
     
     public TestItemDAO() throws IOException, IntrospectionException {
@@ -75,16 +103,16 @@ public class TestItemDAO implements TestItemMapper {
         return beanProperties.getColumnNames();
     }
 
+    /**
+     * Подсчитывает строки при каждом вызове. Кеширование кол-ва строк - 
+     * на стороне потребителя (см. RowCountCache в DataList).
+     * @return диапазон номеров строк
+     * @throws IOException 
+     */
     @Override
     public INestedRange<Integer> getRowTotalRange() throws IOException {
         log.trace(">>> getRowTotalRange");
-        //TODO сделать обновление диапазона
-        if (rowRange == null) {
-            rowRange = selectTotalRange();
-        }
-        //пока условно считаем, что кол-во записей в таблице не меняется
-        //в дальнейшем надо будет продумать, как и когда это должно обновляться
-        return rowRange;
+        return selectTotalRange();
     }
     
     @Override
@@ -107,14 +135,69 @@ public class TestItemDAO implements TestItemMapper {
             orm.closeDBSession();
         }
     }
-    
+
+    /**
+     * @return оценка кол-ва строк по статистике БД (см. selectTotalRangeEstimate)
+     * @throws IOException 
+     */
+    @Override
+    public INestedRange<Integer> getRowTotalRangeEstimate() throws IOException {
+        log.trace(">>> getRowTotalRangeEstimate");
+        return selectTotalRangeEstimate();
+    }
+
+    @Override
+    public INestedRange<Integer> selectTotalRangeEstimate() throws IOException {
+        log.trace(">>> selectTotalRangeEstimate");
+        ORMFacade orm = new ORMFacade();
+        try {
+            TestItemMapper mapper = orm.getMapper(TestItemMapper.class);
+            INestedRange<Integer> res = mapper.selectTotalRangeEstimate();
+            log.debug("range="+res);
+            log.trace("<<< selectTotalRangeEstimate");
+            return res;
+        } catch (Exception e) {
+            log.error(null, e);
+            throw e;
+        } finally {
+            orm.closeDBSession();
+        }
+    }
+
+    @Override
+    public INestedRange<Long> selectTotalLongRange() throws IOException {
+        log.trace(">>> selectTotalLongRange");
+        ORMFacade orm = new ORMFacade();
+        try {
+            TestItemMapper mapper = orm.getMapper(TestItemMapper.class);
+            INestedRange<Long> res = mapper.selectTotalLongRange();
+            log.debug("range="+res);
+            log.trace("<<< selectTotalLongRange");
+            return res;
+        } catch (Exception e) {
+            log.error(null, e);
+            throw e;
+        } finally {
+            orm.closeDBSession();
+        }
+    }
+
     @Override
     public List<TestItemDTO> select(SQLParams prm) throws IOException {
         log.trace(">>> selectBE");
         ORMFacade orm = new ORMFacade();
         try {
-            TestItemMapper mapper = orm.getMapper(TestItemMapper.class);
-            List<TestItemDTO> res = mapper.select(prm);
+            List<TestItemDTO> res;
+            if (ORMFacade.isInWriteSession()) {
+                //в единице работы с записью строки могут быть изменены и не зафиксированы:
+                //чтение после записи не должно получить страницу из кеша, а 
+                //незафиксированные строки - попасть в общий кеш
+                res = selectRows(orm, prm);
+            } else {
+                //одинаковые выборки нескольких DataList - из общего кеша
+                res = QueryResultCache.getInstance().select(TestItemMapper.class, prm, 
+                        () -> selectRows(orm, prm), TestItemDTO::copyOf);
+            }
             log.trace("<<< selectBE");
             return res;
         } catch (Exception e) {
@@ -125,6 +208,98 @@ public class TestItemDAO implements TestItemMapper {
         }
     }
 
+    private List<TestItemDTO> selectRows(ORMFacade orm, SQLParams prm) throws IOException {
+        TestItemMapper mapper = orm.getMapper(TestItemMapper.class);
+        return prm.isCountTotal() ? unwrapCounted(mapper.selectWithTotal(prm), prm) : mapper.select(prm);
+    }
+
+    /**
+     * Потоковое чтение всей выборки одним запросом (selectAll) порциями по fetchSize строк.
+     * @param prm параметры выборки, диапазон строк не учитывается
+     * @param fetchSize размер порции
+     * @return поток строк, закрытие потока прерывает запрос
+     * @throws IOException 
+     */
+    @Override
+    public Stream<TestItemDTO> selectStream(SQLParams prm, int fetchSize) throws IOException {
+        log.trace(">>> selectStream");
+        ResultStream<TestItemDTO> rs = new ResultStream<>("fxapp01.dao.TestItemMapper.selectAll", prm, fetchSize);
+        return rs.stream();
+    }
+
+    /**
+     * Единица работы ORMFacade только для чтения: методы DAO, вызванные из work, 
+     * используют одну сессию БД.
+     */
+    @Override
+    public <R> R inSession(Callable<R> work) throws IOException {
+        log.trace(">>> inSession");
+        return ORMFacade.inSession(true, work);
+    }
+
+    @Override
+    public void invalidateCache() {
+        log.trace(">>> invalidateCache");
+        QueryResultCache.getInstance().invalidate(TestItemMapper.class);
+    }
+
+    /**
+     * Страница строк вместе с общим кол-вом строк запроса (count(*) over ()) в одном запросе
+     * @param prm параметры выборки
+     * @return строки страницы с общим кол-вом строк
+     * @throws IOException 
+     */
+    @Override
+    public List<CountedRow<TestItemDTO>> selectWithTotal(SQLParams prm) throws IOException {
+        log.trace(">>> selectWithTotal");
+        ORMFacade orm = new ORMFacade();
+        try {
+            TestItemMapper mapper = orm.getMapper(TestItemMapper.class);
+            List<CountedRow<TestItemDTO>> res = mapper.selectWithTotal(prm);
+            log.trace("<<< selectWithTotal");
+            return res;
+        } catch (Exception e) {
+            log.error(null, e);
+            throw e;
+        } finally {
+            orm.closeDBSession();
+        }
+    }
+
+    /* строки страницы. общее кол-во строк передается в prm.totalRows */
+    private List<TestItemDTO> unwrapCounted(List<CountedRow<TestItemDTO>> rows, SQLParams prm) {
+        List<TestItemDTO> res = new ArrayList<>(rows.size());
+        for (CountedRow<TestItemDTO> r : rows) {
+            res.add(r.getRow());
+        }
+        //страница за последней строкой - кол-во неизвестно
+        prm.setTotalRows(rows.isEmpty() ? null : rows.get(0).getTotalRows());
+        log.debug("unwrapCounted. totalRows="+prm.getTotalRows());
+        return res;
+    }
+
+    /**
+     * @param scope диапазон ключей и версия строк кеша
+     * @return строки, измененные после версии scope.sinceVersion
+     * @throws IOException 
+     */
+    @Override
+    public List<TestItemDTO> selectChanged(VersionScope scope) throws IOException {
+        log.trace(">>> selectChanged");
+        ORMFacade orm = new ORMFacade();
+        try {
+            TestItemMapper mapper = orm.getMapper(TestItemMapper.class);
+            List<TestItemDTO> res = mapper.selectChanged(scope);
+            log.trace("<<< selectChanged. rows="+res.size());
+            return res;
+        } catch (Exception e) {
+            log.error(null, e);
+            throw e;
+        } finally {
+            orm.closeDBSession();
+        }
+    }
+
     @Override
     public TestItemDTO selectByPKey(BigInteger PKey) throws IOException {
         log.trace(">>> selectByPKey");
@@ -142,14 +317,65 @@ public class TestItemDAO implements TestItemMapper {
         }
     }
 
+    /**
+     * Строки по списку ключей за минимальное кол-во запросов: для postgresql - 
+     * одним запросом (id = any(массив)), иначе - порциями по maxInListSize ключей (IN).
+     * @param PKeys ключи строк. null и повторы пропускаются
+     * @return найденные строки в порядке ключей PKeys; для отсутствующих ключей строк нет
+     * @throws IOException 
+     */
+    @Override
+    public List<TestItemDTO> selectByPKeys(Collection<BigInteger> PKeys) throws IOException {
+        log.trace(">>> selectByPKeys");
+        if (PKeys == null) {
+            throw new ENullArgument("selectByPKeys", "PKeys");
+        }
+        Set<BigInteger> keySet = new LinkedHashSet<>(PKeys);
+        keySet.remove(null);
+        List<BigInteger> keys = new ArrayList<>(keySet);
+        if (keys.isEmpty()) {
+            log.trace("<<< selectByPKeys. no keys");
+            return new ArrayList<>();
+        }
+        ORMFacade orm = new ORMFacade();
+        try {
+            TestItemMapper mapper = orm.getMapper(TestItemMapper.class);
+            int chunkSize = "postgresql".equals(orm.getDatabaseId()) ? keys.size() : maxInListSize;
+            Map<BigInteger, TestItemDTO> found = new HashMap<>();
+            for (int i = 0; i < keys.size(); i += chunkSize) {
+                for (TestItemDTO item : mapper.selectByPKeys(keys.subList(i, Math.min(i + chunkSize, keys.size())))) {
+                    found.put(item.getId(), item);
+                }
+            }
+            //порядок строк - как в запрошенном списке ключей
+            List<TestItemDTO> res = new ArrayList<>(found.size());
+            for (BigInteger key : keys) {
+                TestItemDTO item = found.get(key);
+                if (item != null) {
+                    res.add(item);
+                }
+            }
+            log.trace("<<< selectByPKeys. keys="+keys.size()+", rows="+res.size());
+            return res;
+        } catch (Exception e) {
+            log.error(null, e);
+            throw e;
+        } finally {
+            orm.closeDBSession();
+        }
+    }
+
     @Override
     public int insertRow(TestItemDTO item) throws IOException {
         log.trace(">>> insertRow");
         ORMFacade orm = new ORMFacade();
         try {
+            //сессия для записи: в единице работы только для чтения - исключение
+            orm.createDBSession(ExecutorType.SIMPLE);
             TestItemMapper mapper = orm.getMapper(TestItemMapper.class);
             int res = mapper.insertRow(item);
             orm.commit();
+            ORMFacade.afterCommit(this::invalidateCache);
             log.trace("<<< insertRow");
             return res;
         } catch (Exception e) {
@@ -165,9 +391,11 @@ public class TestItemDAO implements TestItemMapper {
         log.trace(">>> insertRowBySP");
         ORMFacade orm = new ORMFacade();
         try {
+            orm.createDBSession(ExecutorType.SIMPLE);
             TestItemMapper mapper = orm.getMapper(TestItemMapper.class);
             int res = mapper.insertRowBySP(item);
             orm.commit();
+            ORMFacade.afterCommit(this::invalidateCache);
             log.trace("<<< insertRowBySP");
             return res;
         } catch (Exception e) {
@@ -183,9 +411,11 @@ public class TestItemDAO implements TestItemMapper {
         log.trace(">>> insertRowBySP2");
         ORMFacade orm = new ORMFacade();
         try {
+            orm.createDBSession(ExecutorType.SIMPLE);
             TestItemMapper mapper = orm.getMapper(TestItemMapper.class);
             int res = mapper.insertRowBySP2(item);
             orm.commit();
+            ORMFacade.afterCommit(this::invalidateCache);
             log.trace("<<< insertRowBySP2");
             return res;
         } catch (Exception e) {
@@ -201,9 +431,11 @@ public class TestItemDAO implements TestItemMapper {
         log.trace(">>> updateRow");
         ORMFacade orm = new ORMFacade();
         try {
+            orm.createDBSession(ExecutorType.SIMPLE);
             TestItemMapper mapper = orm.getMapper(TestItemMapper.class);
             int res = mapper.updateRow(item);
             orm.commit();
+            ORMFacade.afterCommit(this::invalidateCache);
             log.trace("<<< updateRow");
             return res;
         } catch (Exception e) {
@@ -219,9 +451,11 @@ public class TestItemDAO implements TestItemMapper {
         log.trace(">>> deleteRow");
         ORMFacade orm = new ORMFacade();
         try {
+            orm.createDBSession(ExecutorType.SIMPLE);
             TestItemMapper mapper = orm.getMapper(TestItemMapper.class);
             int res = mapper.deleteRow(item);
             orm.commit();
+            ORMFacade.afterCommit(this::invalidateCache);
             log.trace("<<< deleteRow");
             return res;
         } catch (Exception e) {
@@ -232,4 +466,231 @@ public class TestItemDAO implements TestItemMapper {
         }
     }
 
+    /**
+     * Добавляет строки пакетами (ExecutorType.BATCH, в oracle - по одной 
+     * с повторным использованием оператора) с одной фиксацией изменений.
+     * @param items строки
+     * @return кол-во строк
+     * @throws IOException 
+     */
+    @Override
+    public int insertRows(List<TestItemDTO> items) throws IOException {
+        log.trace(">>> insertRows. size="+items.size());
+        ORMFacade orm = new ORMFacade();
+        try {
+            orm.createDBSession(batchType(orm));
+            TestItemMapper mapper = orm.getMapper(TestItemMapper.class);
+            int res = 0;
+            for (TestItemDTO item : items) {
+                //в пакетном режиме возвращается признак пакета, а не кол-во строк
+                res += Math.max(0, mapper.insertRow(item));
+            }
+            res += orm.flushStatements();
+            orm.commit();
+            ORMFacade.afterCommit(this::invalidateCache);
+            log.trace("<<< insertRows. res="+res);
+            return res;
+        } catch (Exception e) {
+            log.error(null, e);
+            throw e;
+        } finally {
+            orm.closeDBSession();
+        }
+    }
+
+    /**
+     * Изменяет строки пакетами (ExecutorType.BATCH, в oracle - по одной 
+     * с повторным использованием оператора) с одной фиксацией изменений.
+     * @param items строки
+     * @return кол-во строк
+     * @throws IOException 
+     */
+    @Override
+    public int updateRows(List<TestItemDTO> items) throws IOException {
+        log.trace(">>> updateRows. size="+items.size());
+        ORMFacade orm = new ORMFacade();
+        try {
+            orm.createDBSession(batchType(orm));
+            TestItemMapper mapper = orm.getMapper(TestItemMapper.class);
+            int res = 0;
+            for (TestItemDTO item : items) {
+                //в пакетном режиме возвращается признак пакета, а не кол-во строк
+                res += Math.max(0, mapper.updateRow(item));
+            }
+            res += orm.flushStatements();
+            orm.commit();
+            ORMFacade.afterCommit(this::invalidateCache);
+            log.trace("<<< updateRows. res="+res);
+            return res;
+        } catch (Exception e) {
+            log.error(null, e);
+            throw e;
+        } finally {
+            orm.closeDBSession();
+        }
+    }
+
+    /**
+     * Удаляет строки пакетами (ExecutorType.BATCH, в oracle - по одной 
+     * с повторным использованием оператора) с одной фиксацией изменений.
+     * @param items строки
+     * @return кол-во строк
+     * @throws IOException 
+     */
+    @Override
+    public int deleteRows(List<TestItemDTO> items) throws IOException {
+        log.trace(">>> deleteRows. size="+items.size());
+        ORMFacade orm = new ORMFacade();
+        try {
+            orm.createDBSession(batchType(orm));
+            TestItemMapper mapper = orm.getMapper(TestItemMapper.class);
+            int res = 0;
+            for (TestItemDTO item : items) {
+                //в пакетном режиме возвращается признак пакета, а не кол-во строк
+                res += Math.max(0, mapper.deleteRow(item));
+            }
+            res += orm.flushStatements();
+            orm.commit();
+            ORMFacade.afterCommit(this::invalidateCache);
+            log.trace("<<< deleteRows. res="+res);
+            return res;
+        } catch (Exception e) {
+            log.error(null, e);
+            throw e;
+        } finally {
+            orm.closeDBSession();
+        }
+    }
+
+    /*
+     * способ выполнения пакетной записи. в oracle добавление, изменение и удаление 
+     * строк - вызовы блоков (CALLABLE) с OUT/INOUT параметрами, которые драйвер 
+     * не выполняет пакетом, а mybatis в режиме BATCH не читает OUT параметры, 
+     * поэтому строки записываются по одной с повторным использованием оператора
+     */
+    private ExecutorType batchType(ORMFacade orm) throws IOException {
+        if ("oracle".equals(orm.getDatabaseId())) {
+            return ExecutorType.REUSE;
+        }
+        return ExecutorType.BATCH;
+    }
+
+    /**
+     * Массовая загрузка строк без построчного insertRow. Строки читаются из items 
+     * по мере загрузки, в памяти держится не больше chunkSize строк.
+     * Для postgresql строки передаются протоколом COPY FROM STDIN, для oracle - 
+     * direct-path insert по chunkSize строк с фиксацией каждой порции. 
+     * id загруженных строк не возвращаются. Фиксация порций не может быть 
+     * отложена, поэтому в единице работы (ORMFacade.inSession) загрузка не выполняется.
+     * @param items загружаемые строки
+     * @param chunkSize кол-во строк в одной порции
+     * @return кол-во загруженных строк
+     * @throws IOException 
+     * @throws EArgumentBreaksRule внутри единицы работы
+     */
+    public long bulkInsert(Iterator<TestItemDTO> items, int chunkSize) throws IOException {
+        log.trace(">>> bulkInsert. chunkSize="+chunkSize);
+        if (items == null) {
+            throw new ENullArgument("bulkInsert", "items");
+        }
+        if (chunkSize <= 0) {
+            throw new ENegativeArgument("bulkInsert", "chunkSize");
+        }
+        if (ORMFacade.isInSession()) {
+            //oracle: вторая порция direct-path insert в той же транзакции - ORA-12838
+            throw new EArgumentBreaksRule("bulkInsert", "items", "bulk insert can not run inside a unit of work");
+        }
+        ORMFacade orm = new ORMFacade();
+        try {
+            String databaseId = orm.getDatabaseId();
+            long res;
+            if ("postgresql".equals(databaseId)) {
+                res = copyIn(orm, items, chunkSize);
+            } else if ("oracle".equals(databaseId)) {
+                res = insertValues(orm, items, chunkSize);
+            } else {
+                throw new EUnsupported("bulkInsert for databaseId="+databaseId);
+            }
+            orm.commit();
+            ORMFacade.afterCommit(this::invalidateCache);
+            log.trace("<<< bulkInsert. rows="+res);
+            return res;
+        } catch (Exception e) {
+            log.error(null, e);
+            throw e;
+        } finally {
+            orm.closeDBSession();
+        }
+    }
+
+    /* insert по chunkSize строк, каждая порция фиксируется (direct-path insert) */
+    private long insertValues(ORMFacade orm, Iterator<TestItemDTO> items, int chunkSize) {
+        SqlSession session = orm.getDBSession();
+        List<TestItemDTO> chunk = new ArrayList<>(chunkSize);
+        long res = 0;
+        while (items.hasNext()) {
+            chunk.add(items.next());
+            if ((chunk.size() == chunkSize) || !items.hasNext()) {
+                res += session.insert("fxapp01.dao.TestItemMapper.insertValues", chunk);
+                orm.commit();
+                chunk.clear();
+            }
+        }
+        return res;
+    }
+
+    /* COPY FROM STDIN в текстовом формате, строки передаются порциями по chunkSize */
+    private long copyIn(ORMFacade orm, Iterator<TestItemDTO> items, int chunkSize) throws IOException {
+        try {
+            CopyManager cm = orm.getDBConnection().unwrap(PGConnection.class).getCopyAPI();
+            CopyIn copy = cm.copyIn("COPY test02 (name) FROM STDIN");
+            try {
+                StringBuilder sb = new StringBuilder();
+                int n = 0;
+                while (items.hasNext()) {
+                    appendCopyValue(sb, items.next().getName());
+                    sb.append('\n');
+                    if (++n == chunkSize) {
+                        writeToCopy(copy, sb);
+                        n = 0;
+                    }
+                }
+                writeToCopy(copy, sb);
+                return copy.endCopy();
+            } finally {
+                if (copy.isActive()) {
+                    copy.cancelCopy();
+                }
+            }
+        } catch (SQLException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private void writeToCopy(CopyIn copy, StringBuilder sb) throws SQLException {
+        if (sb.length() > 0) {
+            byte[] buf = sb.toString().getBytes(StandardCharsets.UTF_8);
+            copy.writeToCopy(buf, 0, buf.length);
+            sb.setLength(0);
+        }
+    }
+
+    /* значение столбца в текстовом формате COPY: \N - null, спецсимволы экранируются */
+    private static void appendCopyValue(StringBuilder sb, String value) {
+        if (value == null) {
+            sb.append("\\N");
+            return;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\': sb.append("\\\\"); break;
+                case '\t': sb.append("\\t"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                default: sb.append(c);
+            }
+        }
+    }
+
 }
@@ -15,9 +15,12 @@
  */
 package fxapp01.dao;
 
+import fxapp01.dao.cache.VersionScope;
 import fxapp01.dto.INestedRange;
+import fxapp01.dto.CountedRow;
 import fxapp01.dto.SQLParams;
 import java.math.BigInteger;
+import java.util.Collection;
 import java.util.List;
 import fxapp01.dto.TestItemDTO;
 import java.io.IOException;
@@ -26,8 +29,14 @@ public interface TestItemMapper extends IDAOreadonly<TestItemDTO,Integer>, IData
     //List<TestItemDTO> select(INestedRange rowsrange) throws IOException;
     @Override
     List<TestItemDTO> select(SQLParams prm) throws IOException;
+    List<CountedRow<TestItemDTO>> selectWithTotal(SQLParams prm) throws IOException;
     TestItemDTO selectByPKey(BigInteger PKey) throws IOException;
+    List<TestItemDTO> selectByPKeys(Collection<BigInteger> PKeys) throws IOException;
+    @Override
+    List<TestItemDTO> selectChanged(VersionScope scope) throws IOException;
     INestedRange<Integer> selectTotalRange() throws IOException;
+    INestedRange<Long> selectTotalLongRange() throws IOException;
+    INestedRange<Integer> selectTotalRangeEstimate() throws IOException;
     @Override
     int insertRow(TestItemDTO item) throws IOException;
     int insertRowBySP(TestItemDTO item) throws IOException;
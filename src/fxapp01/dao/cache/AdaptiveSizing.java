@@ -0,0 +1,201 @@
+/*
+ * Copyright 2015 serg.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fxapp01.dao.cache;
+
+import fxapp01.excpt.EArgumentBreaksRule;
+
+/**
+ * Политика адаптивного размера страницы и окна кеша. Отслеживает характер
+ * последних обращений к строкам (последовательно вперед, последовательно назад,
+ * случайные переходы), скорость прокрутки и время загрузки одной страницы.
+ * При быстрой последовательной прокрутке размер страницы растет так, чтобы
+ * за время загрузки следующей страницы пользователь не дошел до края окна.
+ * При случайных переходах используется минимальный размер страницы.
+ * Размер окна равен размеру страницы, умноженному на windowPages.
+ * Методы синхронизированы, т.к. время загрузки может сообщаться из фонового потока.
+ * @author serg
+ */
+public class AdaptiveSizing {
+
+    public enum AccessPattern {
+        FORWARD, BACKWARD, RANDOM
+    }
+
+    // коэффициент сглаживания скользящих средних
+    private static final double alpha = 0.3;
+    // минимальный интервал замера скорости прокрутки.
+    // javafx TableView запрашивает видимые строки пачкой, мгновенная скорость не показательна
+    private static final long sampleNanos = 50_000_000L;
+
+    private final int minPageSize;
+    private final int maxPageSize;
+    private final int windowPages;
+
+    private boolean hasLast;
+    private long lastIndex;
+    private long sampleIndex;
+    private long sampleStart;
+    // >0 - преимущественно вперед, <0 - назад
+    private double direction;
+    // доля случайных переходов
+    private double randomness;
+    // строк в секунду
+    private double velocity;
+    // среднее время одной загрузки, нс
+    private double fetchNanos;
+    private int pageSize;
+
+    /**
+     * @param minPageSize минимальный размер страницы
+     * @param maxPageSize максимальный размер страницы
+     * @param windowPages кол-во страниц в окне кеша
+     */
+    public AdaptiveSizing(int minPageSize, int maxPageSize, int windowPages) {
+        if (minPageSize <= 0) {
+            throw new EArgumentBreaksRule("constructor", "minPageSize", "minPageSize > 0");
+        }
+        if (maxPageSize < minPageSize) {
+            throw new EArgumentBreaksRule("constructor", "maxPageSize", "maxPageSize >= minPageSize");
+        }
+        if (windowPages < 1) {
+            throw new EArgumentBreaksRule("constructor", "windowPages", "windowPages >= 1");
+        }
+        this.minPageSize = minPageSize;
+        this.maxPageSize = maxPageSize;
+        this.windowPages = windowPages;
+        this.pageSize = minPageSize;
+        this.hasLast = false;
+    }
+
+    public int getMinPageSize() {
+        return minPageSize;
+    }
+
+    public int getMaxPageSize() {
+        return maxPageSize;
+    }
+
+    public int getWindowPages() {
+        return windowPages;
+    }
+
+    public synchronized int getPageSize() {
+        return pageSize;
+    }
+
+    public synchronized int getWindowSize() {
+        return pageSize * windowPages;
+    }
+
+    /**
+     * @return скорость прокрутки, строк в секунду
+     */
+    public synchronized double getVelocity() {
+        return velocity;
+    }
+
+    /**
+     * @return среднее время одной загрузки, нс
+     */
+    public synchronized double getFetchNanos() {
+        return fetchNanos;
+    }
+
+    public synchronized AccessPattern getPattern() {
+        if (randomness > 0.5) {
+            return AccessPattern.RANDOM;
+        }
+        if (direction > 0.3) {
+            return AccessPattern.FORWARD;
+        }
+        if (direction < -0.3) {
+            return AccessPattern.BACKWARD;
+        }
+        return AccessPattern.RANDOM;
+    }
+
+    private static double ema(double avg, double sample) {
+        return avg + alpha * (sample - avg);
+    }
+
+    /**
+     * Регистрирует обращение к строке.
+     * @param index номер строки
+     * @param nanoTime момент обращения (System.nanoTime())
+     */
+    public synchronized void onAccess(long index, long nanoTime) {
+        if (!hasLast) {
+            hasLast = true;
+            lastIndex = index;
+            sampleIndex = index;
+            sampleStart = nanoTime;
+            return;
+        }
+        long delta = index - lastIndex;
+        if (delta == 0) {
+            return;
+        }
+        lastIndex = index;
+        //переход не дальше одной страницы считаем последовательной прокруткой
+        boolean sequential = Math.abs(delta) <= pageSize;
+        direction = ema(direction, sequential ? Long.signum(delta) : 0);
+        randomness = ema(randomness, sequential ? 0 : 1);
+        if (!sequential) {
+            //после перехода скорость прокрутки замеряется заново
+            velocity = 0;
+            sampleIndex = index;
+            sampleStart = nanoTime;
+        } else {
+            long elapsed = nanoTime - sampleStart;
+            if (elapsed >= sampleNanos) {
+                velocity = ema(velocity, Math.abs(index - sampleIndex) * 1e9 / elapsed);
+                sampleIndex = index;
+                sampleStart = nanoTime;
+            }
+        }
+        resize();
+    }
+
+    /**
+     * Регистрирует загрузку данных из источника.
+     * @param rows кол-во загруженных строк
+     * @param nanos время загрузки, нс
+     */
+    public synchronized void onFetch(int rows, long nanos) {
+        fetchNanos = (fetchNanos == 0) ? nanos : ema(fetchNanos, nanos);
+        resize();
+    }
+
+    private void resize() {
+        int size;
+        if (getPattern() == AccessPattern.RANDOM) {
+            size = minPageSize;
+        } else {
+            //строк, которые пользователь пролистает за время одной загрузки.
+            //берем с двойным запасом, чтобы следующая страница успела загрузиться
+            double ahead = velocity * fetchNanos / 1e9 * 2;
+            size = (int) Math.min(maxPageSize, Math.max(minPageSize, Math.ceil(ahead)));
+        }
+        pageSize = size;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "pattern="+getPattern()+", velocity="+Math.round(velocity)
+                +", fetchNanos="+Math.round(fetchNanos)+", pageSize="+pageSize;
+    }
+
+}
@@ -0,0 +1,373 @@
+/*
+ * Copyright 2015 serg.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fxapp01.dao.cache;
+
+import fxapp01.log.ILogger;
+import fxapp01.log.LogMgr;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Статистика работы плавающего кеша данных. Счетчики - LongAdder, поэтому 
+ * их увеличение не требует блокировок и дешево в потоке javafx.
+ * Время загрузки данных учитывается в гистограмме с интервалами по степеням двойки 
+ * (в микросекундах), процентили вычисляются по ней с точностью до интервала.
+ * Счетчики списка данных (DataList) - подсчеты кол-ва строк, заглушки строк 
+ * асинхронного режима и сортировки/фильтры, выполненные в памяти.
+ * Статистика может быть опубликована как JMX MBean (register/unregister).
+ * @author serg
+ */
+public class CacheStatistics implements CacheStatisticsMBean {
+
+    private static final ILogger log = LogMgr.getLogger(CacheStatistics.class);
+    // интервал i содержит значения [2^(i-1), 2^i) мкс, интервал 0 - меньше 1 мкс
+    private static final int bucketCount = 40;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder fetches = new LongAdder();
+    private final LongAdder rowsFetched = new LongAdder();
+    private final LongAdder rowsEvicted = new LongAdder();
+    private final LongAdder extendsCount = new LongAdder();
+    private final LongAdder slides = new LongAdder();
+    private final LongAdder reloads = new LongAdder();
+    private final LongAdder rowCounts = new LongAdder();
+    private final LongAdder placeholders = new LongAdder();
+    private final LongAdder localQueries = new LongAdder();
+    private final LongAdder[] latency;
+    private volatile ObjectName objectName;
+
+    public CacheStatistics() {
+        this.latency = new LongAdder[bucketCount];
+        for (int i = 0; i < bucketCount; i++) {
+            latency[i] = new LongAdder();
+        }
+    }
+
+    public void recordHit() {
+        hits.increment();
+    }
+
+    public void recordMiss() {
+        misses.increment();
+    }
+
+    /**
+     * @param rows кол-во загруженных строк
+     * @param nanos время загрузки, нс
+     */
+    public void recordFetch(int rows, long nanos) {
+        fetches.increment();
+        rowsFetched.add(rows);
+        long micros = nanos / 1000;
+        int bucket = (micros <= 0) ? 0 : 64 - Long.numberOfLeadingZeros(micros);
+        latency[Math.min(bucket, bucketCount - 1)].increment();
+    }
+
+    public void recordEvicted(int rows) {
+        rowsEvicted.add(rows);
+    }
+
+    /** окно дозагружено без сброса строк */
+    public void recordExtend() {
+        extendsCount.increment();
+    }
+
+    /** окно сдвинуто со сбросом части строк */
+    public void recordSlide() {
+        slides.increment();
+    }
+
+    /** окно полностью перезагружено */
+    public void recordReload() {
+        reloads.increment();
+    }
+
+    /** кол-во строк подсчитано источником данных */
+    public void recordRowCount() {
+        rowCounts.increment();
+    }
+
+    /** вместо строки, которой нет в кеше, возвращена заглушка (асинхронный режим) */
+    public void recordPlaceholder() {
+        placeholders.increment();
+    }
+
+    /** сортировка или фильтр применены к строкам в памяти, без запроса к источнику */
+    public void recordLocalQuery() {
+        localQueries.increment();
+    }
+
+    @Override
+    public long getHits() {
+        return hits.sum();
+    }
+
+    @Override
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    @Override
+    public double getHitRatio() {
+        return snapshot().getHitRatio();
+    }
+
+    @Override
+    public long getFetchCount() {
+        return fetches.sum();
+    }
+
+    @Override
+    public long getRowsFetched() {
+        return rowsFetched.sum();
+    }
+
+    @Override
+    public long getRowsEvicted() {
+        return rowsEvicted.sum();
+    }
+
+    @Override
+    public long getExtends() {
+        return extendsCount.sum();
+    }
+
+    @Override
+    public long getSlides() {
+        return slides.sum();
+    }
+
+    @Override
+    public long getReloads() {
+        return reloads.sum();
+    }
+
+    @Override
+    public long getRowCounts() {
+        return rowCounts.sum();
+    }
+
+    @Override
+    public long getPlaceholders() {
+        return placeholders.sum();
+    }
+
+    @Override
+    public long getLocalQueries() {
+        return localQueries.sum();
+    }
+
+    @Override
+    public long getFetchLatencyP50Micros() {
+        return snapshot().getFetchLatencyMicros(0.5);
+    }
+
+    @Override
+    public long getFetchLatencyP90Micros() {
+        return snapshot().getFetchLatencyMicros(0.9);
+    }
+
+    @Override
+    public long getFetchLatencyP99Micros() {
+        return snapshot().getFetchLatencyMicros(0.99);
+    }
+
+    @Override
+    public void reset() {
+        hits.reset();
+        misses.reset();
+        fetches.reset();
+        rowsFetched.reset();
+        rowsEvicted.reset();
+        extendsCount.reset();
+        slides.reset();
+        reloads.reset();
+        rowCounts.reset();
+        placeholders.reset();
+        localQueries.reset();
+        for (LongAdder a : latency) {
+            a.reset();
+        }
+    }
+
+    /**
+     * @return неизменяемый снимок текущих значений счетчиков
+     */
+    public Snapshot snapshot() {
+        long[] hist = new long[bucketCount];
+        for (int i = 0; i < bucketCount; i++) {
+            hist[i] = latency[i].sum();
+        }
+        return new Snapshot(hits.sum(), misses.sum(), fetches.sum(), rowsFetched.sum(), 
+                rowsEvicted.sum(), extendsCount.sum(), slides.sum(), reloads.sum(), 
+                rowCounts.sum(), placeholders.sum(), localQueries.sum(), hist);
+    }
+
+    /**
+     * Публикует статистику в платформенном MBeanServer под именем 
+     * fxapp01.dao:type=DataCacheRolling,name=&lt;name&gt;.
+     * Ошибка регистрации не прерывает работу кеша, а только записывается в журнал.
+     * @param name имя кеша
+     */
+    public void register(String name) {
+        unregister();
+        try {
+            ObjectName on = new ObjectName("fxapp01.dao:type=DataCacheRolling,name="+ObjectName.quote(name));
+            MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+            mbs.registerMBean(this, on);
+            objectName = on;
+        } catch (JMException e) {
+            log.error("register MBean failed. name="+name, e);
+        }
+    }
+
+    public void unregister() {
+        ObjectName on = objectName;
+        if (on != null) {
+            objectName = null;
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(on);
+            } catch (JMException e) {
+                log.error("unregister MBean failed. name="+on, e);
+            }
+        }
+    }
+
+    public ObjectName getObjectName() {
+        return objectName;
+    }
+
+    /**
+     * Неизменяемый снимок статистики кеша.
+     */
+    public static class Snapshot {
+        private final long hits;
+        private final long misses;
+        private final long fetchCount;
+        private final long rowsFetched;
+        private final long rowsEvicted;
+        private final long extendsCount;
+        private final long slides;
+        private final long reloads;
+        private final long rowCounts;
+        private final long placeholders;
+        private final long localQueries;
+        private final long[] latency;
+
+        private Snapshot(long hits, long misses, long fetchCount, long rowsFetched, long rowsEvicted, 
+                long extendsCount, long slides, long reloads, 
+                long rowCounts, long placeholders, long localQueries, long[] latency) {
+            this.hits = hits;
+            this.misses = misses;
+            this.fetchCount = fetchCount;
+            this.rowsFetched = rowsFetched;
+            this.rowsEvicted = rowsEvicted;
+            this.extendsCount = extendsCount;
+            this.slides = slides;
+            this.reloads = reloads;
+            this.rowCounts = rowCounts;
+            this.placeholders = placeholders;
+            this.localQueries = localQueries;
+            this.latency = latency;
+        }
+
+        public long getHits() {
+            return hits;
+        }
+
+        public long getMisses() {
+            return misses;
+        }
+
+        public double getHitRatio() {
+            long total = hits + misses;
+            return (total == 0) ? 0 : (double)hits / total;
+        }
+
+        public long getFetchCount() {
+            return fetchCount;
+        }
+
+        public long getRowsFetched() {
+            return rowsFetched;
+        }
+
+        public long getRowsEvicted() {
+            return rowsEvicted;
+        }
+
+        public long getExtends() {
+            return extendsCount;
+        }
+
+        public long getSlides() {
+            return slides;
+        }
+
+        public long getReloads() {
+            return reloads;
+        }
+
+        public long getRowCounts() {
+            return rowCounts;
+        }
+
+        public long getPlaceholders() {
+            return placeholders;
+        }
+
+        public long getLocalQueries() {
+            return localQueries;
+        }
+
+        /**
+         * @param quantile доля, например 0.99
+         * @return верхняя граница интервала гистограммы, в который попадает процентиль, мкс. 
+         * 0, если загрузок не было
+         */
+        public long getFetchLatencyMicros(double quantile) {
+            long total = 0;
+            for (long c : latency) {
+                total += c;
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long rank = (long)Math.ceil(quantile * total);
+            long seen = 0;
+            for (int i = 0; i < latency.length; i++) {
+                seen += latency[i];
+                if (seen >= Math.max(rank, 1)) {
+                    return 1L << i;
+                }
+            }
+            return 1L << (latency.length - 1);
+        }
+
+        @Override
+        public String toString() {
+            return "hits="+hits+", misses="+misses+", fetches="+fetchCount+", rowsFetched="+rowsFetched
+                    +", rowsEvicted="+rowsEvicted+", extends="+extendsCount+", slides="+slides
+                    +", reloads="+reloads+", rowCounts="+rowCounts+", placeholders="+placeholders
+                    +", localQueries="+localQueries+", p50="+getFetchLatencyMicros(0.5)+"us, p99="+getFetchLatencyMicros(0.99)+"us";
+        }
+    }
+
+}
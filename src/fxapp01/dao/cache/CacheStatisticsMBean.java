@@ -0,0 +1,56 @@
+/*
+ * Copyright 2015 serg.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fxapp01.dao.cache;
+
+/**
+ * JMX интерфейс статистики плавающего кеша данных.
+ * @author serg
+ */
+public interface CacheStatisticsMBean {
+
+    long getHits();
+
+    long getMisses();
+
+    double getHitRatio();
+
+    long getFetchCount();
+
+    long getRowsFetched();
+
+    long getRowsEvicted();
+
+    long getExtends();
+
+    long getSlides();
+
+    long getReloads();
+
+    long getRowCounts();
+
+    long getPlaceholders();
+
+    long getLocalQueries();
+
+    long getFetchLatencyP50Micros();
+
+    long getFetchLatencyP90Micros();
+
+    long getFetchLatencyP99Micros();
+
+    void reset();
+
+}
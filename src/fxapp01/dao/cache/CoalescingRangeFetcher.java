@@ -0,0 +1,224 @@
+/*
+ * Copyright 2015 serg.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fxapp01.dao.cache;
+
+import fxapp01.dao.IDataRangeFetcher;
+import fxapp01.dto.INestedRange;
+import fxapp01.excpt.ENullArgument;
+import fxapp01.log.ILogger;
+import fxapp01.log.LogMgr;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
+
+/**
+ * Объединение одновременных запросов диапазонов строк. Если запрошенный диапазон
+ * пересекается с диапазонами, которые уже загружаются другими потоками, у источника
+ * данных запрашиваются только непокрытые части, а остальные строки берутся из
+ * результатов уже выполняющихся запросов. Каждая строка загружается не более
+ * одного раза, результат получают все ожидающие потоки.
+ * @author serg
+ * @param <T> класс строки данных
+ * @param <RangeKeyClass>
+ */
+public class CoalescingRangeFetcher<T,RangeKeyClass extends Number> implements IDataRangeFetcher<T,RangeKeyClass> {
+
+    private final ILogger log = LogMgr.getLogger(this.getClass());
+    private final IDataRangeFetcher<T,RangeKeyClass> delegate;
+    // выполняющиеся запросы
+    private final List<Flight<T>> inFlight;
+    // поколение запросов, увеличивается при forget()
+    private int generation;
+
+    public CoalescingRangeFetcher(IDataRangeFetcher<T,RangeKeyClass> delegate) {
+        if (delegate == null) {
+            throw new ENullArgument("constructor", "delegate");
+        }
+        this.delegate = delegate;
+        this.inFlight = new ArrayList<>();
+        this.generation = 0;
+    }
+
+    public IDataRangeFetcher<T,RangeKeyClass> getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public INestedRange<RangeKeyClass> getRowTotalRange() throws IOException {
+        return delegate.getRowTotalRange();
+    }
+
+    /**
+     * @return кол-во выполняющихся запросов к источнику данных
+     */
+    public int getInFlightCount() {
+        synchronized (inFlight) {
+            return inFlight.size();
+        }
+    }
+
+    /**
+     * Запросы, начатые до вызова, не объединяются с последующими: их строки 
+     * могли быть выбраны до изменения данных, сортировки или фильтра. 
+     * Потоки, уже ожидающие эти запросы, получают их результат.
+     */
+    public void forget() {
+        synchronized (inFlight) {
+            generation++;
+        }
+    }
+
+    @Override
+    public List<T> fetch(INestedRange<RangeKeyClass> aRowsRange) {
+        if (aRowsRange == null) {
+            throw new ENullArgument("fetch");
+        }
+        long first = aRowsRange.getFirst().longValue();
+        long last = first + aRowsRange.getLength().longValue() - 1;
+        if (last < first) {
+            return delegate.fetch(aRowsRange);
+        }
+        //части запрошенного диапазона: чужие выполняющиеся запросы и собственные
+        List<Flight<T>> pieces = new ArrayList<>();
+        List<Flight<T>> own = new ArrayList<>();
+        synchronized (inFlight) {
+            for (Flight<T> f : inFlight) {
+                if ((f.generation == generation) && (f.first <= last) && (f.last >= first)) {
+                    pieces.add(f);
+                }
+            }
+            Collections.sort(pieces, Comparator.comparingLong(f -> f.first));
+            //непокрытые части регистрируем как собственные запросы
+            long next = first;
+            for (Flight<T> f : new ArrayList<>(pieces)) {
+                if (f.first > next) {
+                    own.add(new Flight<>(generation, next, f.first - 1));
+                }
+                next = Math.max(next, f.last + 1);
+            }
+            if (next <= last) {
+                own.add(new Flight<>(generation, next, last));
+            }
+            inFlight.addAll(own);
+        }
+        if (!pieces.isEmpty()) {
+            log.debug("fetch. range="+first+".."+last+" joins "+pieces.size()+" in-flight request(s)");
+        }
+        //сначала выполняем собственные запросы, чтобы ожидающие их потоки не блокировались
+        for (Flight<T> f : own) {
+            try {
+                f.result.complete(delegate.fetch(subRange(aRowsRange, f.first, f.last)));
+            } catch (RuntimeException e) {
+                f.result.completeExceptionally(e);
+            } finally {
+                synchronized (inFlight) {
+                    inFlight.remove(f);
+                }
+            }
+        }
+        pieces.addAll(own);
+        Collections.sort(pieces, Comparator.comparingLong(f -> f.first));
+        //собираем результат из частей по порядку
+        List<T> res = new ArrayList<>((int)(last - first + 1));
+        long next = first;
+        for (Flight<T> f : pieces) {
+            if (f.last < next) {
+                continue;
+            }
+            List<T> rows;
+            try {
+                rows = f.result.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException)e.getCause();
+                }
+                throw e;
+            }
+            if (rows == null) {
+                break;
+            }
+            int from = (int)(next - f.first);
+            int to = (int)Math.min(rows.size(), Math.min(last, f.last) - f.first + 1);
+            if (from < to) {
+                res.addAll(rows.subList(from, to));
+            }
+            //источник вернул меньше строк, чем запрашивалось - дальше строк нет
+            if (rows.size() < f.last - f.first + 1) {
+                break;
+            }
+            next = f.last + 1;
+        }
+        return res;
+    }
+
+    /**
+     * Примыкающие диапазоны загружаются по ключу граничной строки и с другими 
+     * запросами не объединяются.
+     */
+    @Override
+    public List<T> fetchAdjacent(INestedRange<RangeKeyClass> aRowsRange, T boundaryRow, boolean forward) {
+        return delegate.fetchAdjacent(aRowsRange, boundaryRow, forward);
+    }
+
+    /**
+     * Параметры выборки фиксирует источник данных в потоке вызывающего, поэтому 
+     * подготовленная загрузка с другими запросами не объединяется.
+     */
+    @Override
+    public Supplier<List<T>> prepareFetch(INestedRange<RangeKeyClass> aRowsRange, T boundaryRow, boolean forward) {
+        return delegate.prepareFetch(aRowsRange, boundaryRow, forward);
+    }
+
+    @Override
+    public List<T> fetchChanged(VersionScope scope) {
+        return delegate.fetchChanged(scope);
+    }
+
+    /* диапазон first..last того же класса, что и исходный */
+    private INestedRange<RangeKeyClass> subRange(INestedRange<RangeKeyClass> aRange, long first, long last) {
+        INestedRange<RangeKeyClass> r = aRange.clone();
+        INestedRange<RangeKeyClass> parent = r.getParentRange();
+        r.setParentRange(null);
+        r.setLength(r.valueOf(0));
+        r.setFirst(r.valueOf(first));
+        r.setLength(r.valueOf(last - first + 1));
+        r.setParentRange(parent);
+        return r;
+    }
+
+    /**
+     * Выполняющийся запрос диапазона first..last.
+     */
+    private static class Flight<T> {
+        private final int generation;
+        private final long first;
+        private final long last;
+        private final CompletableFuture<List<T>> result;
+
+        private Flight(int generation, long first, long last) {
+            this.generation = generation;
+            this.first = first;
+            this.last = last;
+            this.result = new CompletableFuture<>();
+        }
+    }
+
+}
@@ -0,0 +1,403 @@
+/*
+ * Copyright 2015 serg.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fxapp01.dao.cache;
+
+import fxapp01.excpt.EArgumentBreaksRule;
+import fxapp01.excpt.ENullArgument;
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * Компактное хранилище строк окна кеша. Строки хранятся в двоичном виде
+ * (см. IRowCodec) в блоках ByteBuffer фиксированного размера, в куче или
+ * вне кучи (allocateDirect). Порядок строк задается кольцевым массивом
+ * адресов (long: номер блока и смещение в нем), поэтому добавление и удаление
+ * строк с краев окна не сдвигает данные.
+ * Объект строки создается только при обращении к ней и запоминается в небольшом
+ * LRU кеше, чтобы повторные обращения к видимым строкам возвращали тот же объект.
+ * Объект, переданный через set() или add(index, element), хранится вместе с 
+ * двоичной копией и выдается, пока строка в хранилище: кеш окна находит 
+ * несохраненные изменения строк по ссылке на объект.
+ * Изменения объекта строки, не переданные через set(), в хранилище не попадают.
+ * Место удаленных строк освобождается уплотнением блоков, когда мертвые данные
+ * занимают больше половины блоков.
+ * @author serg
+ * @param <T> класс строки данных
+ */
+public class CompactRowStore<T> extends AbstractList<T> implements IRowStore<T>, RandomAccess {
+
+    public static final int defSlabSize = 1 << 20;
+    public static final int defMaterializedRows = 256;
+    // длина записи строки в блоке
+    private static final int header = 4;
+
+    private final IRowCodec<T> codec;
+    private final boolean direct;
+    private final int slabSize;
+    private final int maxMaterialized;
+    private List<ByteBuffer> slabs;
+    // байт записано во все блоки / байт занято живыми строками
+    private long usedBytes;
+    private long liveBytes;
+    // кольцевой массив адресов строк
+    private long[] locators;
+    private int head;
+    private int count;
+    private final LinkedHashMap<Long, T> materialized;
+    // объекты строк, записанных через set() и add(index, element). не вытесняются
+    private final Map<Long, T> pinned;
+
+    public CompactRowStore(IRowCodec<T> codec) {
+        this(codec, false, defSlabSize, defMaterializedRows);
+    }
+
+    /**
+     * @param codec преобразователь строк
+     * @param direct true - блоки вне кучи (ByteBuffer.allocateDirect)
+     * @param slabSize размер блока в байтах
+     * @param maxMaterialized кол-во запоминаемых объектов строк
+     */
+    public CompactRowStore(IRowCodec<T> codec, boolean direct, int slabSize, int maxMaterialized) {
+        if (codec == null) {
+            throw new ENullArgument("constructor", "codec");
+        }
+        if (slabSize < 64) {
+            throw new EArgumentBreaksRule("constructor", "slabSize", "slabSize >= 64");
+        }
+        this.codec = codec;
+        this.direct = direct;
+        this.slabSize = slabSize;
+        this.maxMaterialized = maxMaterialized;
+        this.slabs = new ArrayList<>();
+        this.locators = new long[16];
+        this.head = 0;
+        this.count = 0;
+        this.materialized = new LinkedHashMap<Long, T>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, T> eldest) {
+                return size() > CompactRowStore.this.maxMaterialized;
+            }
+        };
+        this.pinned = new HashMap<>();
+    }
+
+    public boolean isDirect() {
+        return direct;
+    }
+
+    public int getSlabCount() {
+        return slabs.size();
+    }
+
+    /**
+     * @return байт занято блоками данных
+     */
+    public long getAllocatedBytes() {
+        long res = 0;
+        for (ByteBuffer b : slabs) {
+            res += b.capacity();
+        }
+        return res;
+    }
+
+    /**
+     * @return байт занято живыми строками
+     */
+    public long getLiveBytes() {
+        return liveBytes;
+    }
+
+    // ************************** блоки данных *********************************
+
+    private ByteBuffer newSlab(int size) {
+        ByteBuffer b = direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+        slabs.add(b);
+        return b;
+    }
+
+    /* записывает строку в блоки и возвращает ее адрес */
+    private long store(T row) {
+        int size = codec.encodedSize(row);
+        int need = header + size;
+        ByteBuffer slab = slabs.isEmpty() ? null : slabs.get(slabs.size() - 1);
+        if ((slab == null) || (slab.remaining() < need)) {
+            //строка больше блока получает отдельный блок
+            slab = newSlab(Math.max(slabSize, need));
+        }
+        int offset = slab.position();
+        slab.putInt(size);
+        int start = slab.position();
+        codec.encode(row, slab);
+        if (slab.position() - start != size) {
+            throw new EArgumentBreaksRule("store", "codec.encode", "written bytes == codec.encodedSize");
+        }
+        usedBytes += need;
+        liveBytes += need;
+        return ((long)(slabs.size() - 1) << 32) | offset;
+    }
+
+    private T load(long loc) {
+        T row = pinned.get(loc);
+        if (row != null) {
+            return row;
+        }
+        row = materialized.get(loc);
+        if (row == null) {
+            ByteBuffer b = slabs.get((int)(loc >>> 32)).duplicate();
+            int offset = (int)loc;
+            int size = b.getInt(offset);
+            b.limit(offset + header + size);
+            b.position(offset + header);
+            row = codec.decode(b);
+            materialized.put(loc, row);
+        }
+        return row;
+    }
+
+    private void free(long loc) {
+        materialized.remove(loc);
+        pinned.remove(loc);
+        liveBytes -= header + slabs.get((int)(loc >>> 32)).getInt((int)loc);
+    }
+
+    /**
+     * Уплотнение: живые строки переписываются в новые блоки в порядке окна.
+     * Выполняется, когда мертвые данные занимают больше половины записанного.
+     */
+    private void compactIfNeeded() {
+        if ((usedBytes > 2L * slabSize) && (liveBytes * 2 < usedBytes)) {
+            compact();
+        }
+    }
+
+    public void compact() {
+        List<ByteBuffer> old = slabs;
+        slabs = new ArrayList<>();
+        usedBytes = 0;
+        liveBytes = 0;
+        materialized.clear();
+        Map<Long, T> oldPinned = new HashMap<>(pinned);
+        pinned.clear();
+        for (int i = 0; i < count; i++) {
+            int s = slot(i);
+            long loc = locators[s];
+            ByteBuffer src = old.get((int)(loc >>> 32)).duplicate();
+            int offset = (int)loc;
+            int size = src.getInt(offset);
+            int need = header + size;
+            ByteBuffer slab = slabs.isEmpty() ? null : slabs.get(slabs.size() - 1);
+            if ((slab == null) || (slab.remaining() < need)) {
+                slab = newSlab(Math.max(slabSize, need));
+            }
+            int newOffset = slab.position();
+            src.limit(offset + need);
+            src.position(offset);
+            slab.put(src);
+            usedBytes += need;
+            liveBytes += need;
+            locators[s] = ((long)(slabs.size() - 1) << 32) | newOffset;
+            T row = oldPinned.get(loc);
+            if (row != null) {
+                pinned.put(locators[s], row);
+            }
+        }
+    }
+
+    // ************************** адреса строк *********************************
+
+    private int slot(int index) {
+        int s = head + index;
+        return (s >= locators.length) ? s - locators.length : s;
+    }
+
+    private void checkIndex(int index) {
+        if ((index < 0) || (index >= count)) {
+            throw new IndexOutOfBoundsException("index="+index+", size="+count);
+        }
+    }
+
+    private void ensureCapacity(int minCapacity) {
+        if (minCapacity > locators.length) {
+            int newCapacity = Math.max(minCapacity, locators.length + (locators.length >> 1) + 1);
+            long[] a = new long[newCapacity];
+            int tail = Math.min(count, locators.length - head);
+            System.arraycopy(locators, head, a, 0, tail);
+            System.arraycopy(locators, 0, a, tail, count - tail);
+            locators = a;
+            head = 0;
+        }
+    }
+
+    // ************************** List *****************************************
+
+    @Override
+    public int size() {
+        return count;
+    }
+
+    @Override
+    public T get(int index) {
+        checkIndex(index);
+        return load(locators[slot(index)]);
+    }
+
+    @Override
+    public T set(int index, T element) {
+        checkIndex(index);
+        int s = slot(index);
+        T old = load(locators[s]);
+        free(locators[s]);
+        locators[s] = store(element);
+        pinned.put(locators[s], element);
+        compactIfNeeded();
+        return old;
+    }
+
+    @Override
+    public void add(int index, T element) {
+        if ((index < 0) || (index > count)) {
+            throw new IndexOutOfBoundsException("index="+index+", size="+count);
+        }
+        long loc = store(element);
+        pinned.put(loc, element);
+        ensureCapacity(count + 1);
+        if (index == 0) {
+            head = (head == 0) ? locators.length - 1 : head - 1;
+        } else {
+            for (int i = count; i > index; i--) {
+                locators[slot(i)] = locators[slot(i - 1)];
+            }
+        }
+        locators[slot(index)] = loc;
+        count++;
+        modCount++;
+    }
+
+    @Override
+    public T remove(int index) {
+        checkIndex(index);
+        long loc = locators[slot(index)];
+        T old = load(loc);
+        free(loc);
+        if (index == 0) {
+            head = slot(1);
+        } else {
+            for (int i = index; i < count - 1; i++) {
+                locators[slot(i)] = locators[slot(i + 1)];
+            }
+        }
+        count--;
+        if (count == 0) {
+            head = 0;
+        }
+        modCount++;
+        compactIfNeeded();
+        return old;
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends T> c) {
+        return addAllLast(c);
+    }
+
+    @Override
+    public boolean addAllFirst(Collection<? extends T> c) {
+        if ((c == null) || c.isEmpty()) {
+            return false;
+        }
+        ensureCapacity(count + c.size());
+        int newHead = head - c.size();
+        if (newHead < 0) {
+            newHead += locators.length;
+        }
+        int s = newHead;
+        for (T row : c) {
+            locators[s] = store(row);
+            s = (s + 1 == locators.length) ? 0 : s + 1;
+        }
+        head = newHead;
+        count += c.size();
+        modCount++;
+        return true;
+    }
+
+    @Override
+    public boolean addAllLast(Collection<? extends T> c) {
+        if ((c == null) || c.isEmpty()) {
+            return false;
+        }
+        ensureCapacity(count + c.size());
+        for (T row : c) {
+            locators[slot(count)] = store(row);
+            count++;
+        }
+        modCount++;
+        return true;
+    }
+
+    @Override
+    public void removeFirst(int n) {
+        if ((n < 0) || (n > count)) {
+            throw new EArgumentBreaksRule("removeFirst", "0 <= n <= size");
+        }
+        for (int i = 0; i < n; i++) {
+            free(locators[slot(i)]);
+        }
+        head = slot(n);
+        count -= n;
+        if (count == 0) {
+            head = 0;
+        }
+        modCount++;
+        compactIfNeeded();
+    }
+
+    @Override
+    public void removeLast(int n) {
+        if ((n < 0) || (n > count)) {
+            throw new EArgumentBreaksRule("removeLast", "0 <= n <= size");
+        }
+        for (int i = count - n; i < count; i++) {
+            free(locators[slot(i)]);
+        }
+        count -= n;
+        if (count == 0) {
+            head = 0;
+        }
+        modCount++;
+        compactIfNeeded();
+    }
+
+    @Override
+    public void clear() {
+        slabs = new ArrayList<>();
+        usedBytes = 0;
+        liveBytes = 0;
+        materialized.clear();
+        pinned.clear();
+        head = 0;
+        count = 0;
+        modCount++;
+    }
+
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2015 serg.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fxapp01.dao.cache;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Преобразование строки данных в компактное двоичное представление и обратно.
+ * Используется компактным хранилищем строк CompactRowStore.
+ * @author serg
+ * @param <T> класс строки данных
+ */
+public interface IRowCodec<T> {
+
+    /**
+     * @param row строка данных
+     * @return точный размер двоичного представления строки в байтах
+     */
+    int encodedSize(T row);
+
+    /**
+     * Записывает строку в буфер с его текущей позиции. 
+     * В буфере гарантированно есть encodedSize(row) байт.
+     * @param row строка данных
+     * @param out буфер
+     */
+    void encode(T row, ByteBuffer out);
+
+    /**
+     * Читает строку из буфера с его текущей позиции.
+     * @param in буфер
+     * @return новый объект строки данных
+     */
+    T decode(ByteBuffer in);
+
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2015 serg.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fxapp01.dao.cache;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Хранилище строк "окна" плавающего кеша. Кроме операций List поддерживает
+ * добавление и удаление строк с обоих краев окна.
+ * @author serg
+ * @param <T> класс строки данных
+ */
+public interface IRowStore<T> extends List<T> {
+
+    /**
+     * Добавляет строки в начало хранилища, сохраняя их порядок.
+     * @param c
+     * @return true, если хранилище изменилось
+     */
+    boolean addAllFirst(Collection<? extends T> c);
+
+    /**
+     * Добавляет строки в конец хранилища.
+     * @param c
+     * @return true, если хранилище изменилось
+     */
+    boolean addAllLast(Collection<? extends T> c);
+
+    /**
+     * Удаляет n строк с начала хранилища.
+     * @param n
+     */
+    void removeFirst(int n);
+
+    /**
+     * Удаляет n строк с конца хранилища.
+     * @param n
+     */
+    void removeLast(int n);
+
+}
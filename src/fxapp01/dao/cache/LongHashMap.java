@@ -0,0 +1,227 @@
+/*
+ * Copyright 2015 serg.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fxapp01.dao.cache;
+
+import fxapp01.excpt.ENegativeArgument;
+import java.util.Arrays;
+
+/**
+ * Хеш-таблица с ключами примитивного типа long и открытой адресацией
+ * (линейное пробирование). Ключи не упаковываются в объекты, поэтому
+ * добавление и поиск не создают объектов. Допускаются значения null.
+ * Удаление выполняется сдвигом следующих элементов цепочки, без "надгробий".
+ * Перебор элементов - по номерам ячеек: for (i = 0; i < capacity(); i++) if (isUsed(i)) ...
+ * @author serg
+ * @param <V> класс значения
+ */
+public class LongHashMap<V> {
+
+    private static final float loadFactor = 0.5f;
+    private long[] keys;
+    private Object[] values;
+    private boolean[] used;
+    private int size;
+    // маска номера ячейки, capacity - 1
+    private int mask;
+
+    public LongHashMap() {
+        this(16);
+    }
+
+    public LongHashMap(int expectedSize) {
+        if (expectedSize < 0) {
+            throw new ENegativeArgument("constructor", "expectedSize");
+        }
+        allocate(tableSizeFor(expectedSize));
+    }
+
+    private static int tableSizeFor(int expectedSize) {
+        int cap = 16;
+        while (cap * loadFactor < expectedSize) {
+            cap <<= 1;
+        }
+        return cap;
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new Object[capacity];
+        used = new boolean[capacity];
+        mask = capacity - 1;
+    }
+
+    /* перемешивание битов ключа (золотое сечение), чтобы последовательные ключи не шли подряд */
+    private int slotOf(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int)(h ^ (h >>> 32)) & mask;
+    }
+
+    /* номер ячейки с ключом key или -1 */
+    private int find(long key) {
+        int i = slotOf(key);
+        while (used[i]) {
+            if (keys[i] == key) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean containsKey(long key) {
+        return find(key) >= 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        int i = find(key);
+        return (i < 0) ? null : (V)values[i];
+    }
+
+    /**
+     * @param key
+     * @param value
+     * @return предыдущее значение или null
+     */
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+        int i = slotOf(key);
+        while (used[i]) {
+            if (keys[i] == key) {
+                V old = (V)values[i];
+                values[i] = value;
+                return old;
+            }
+            i = (i + 1) & mask;
+        }
+        used[i] = true;
+        keys[i] = key;
+        values[i] = value;
+        size++;
+        if (size > keys.length * loadFactor) {
+            rehash(keys.length << 1);
+        }
+        return null;
+    }
+
+    /**
+     * Добавляет значение, только если ключа еще нет в таблице.
+     * @param key
+     * @param value
+     * @return true, если значение добавлено
+     */
+    public boolean putIfAbsent(long key, V value) {
+        if (containsKey(key)) {
+            return false;
+        }
+        put(key, value);
+        return true;
+    }
+
+    /**
+     * @param key
+     * @return удаленное значение или null
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        int i = find(key);
+        if (i < 0) {
+            return null;
+        }
+        V old = (V)values[i];
+        // сдвигаем назад элементы цепочки, которые иначе стали бы недостижимы
+        int gap = i;
+        int j = (i + 1) & mask;
+        while (used[j]) {
+            int home = slotOf(keys[j]);
+            // элемент j можно перенести в gap, если gap лежит между home и j (по кругу)
+            if (((j - home) & mask) >= ((j - gap) & mask)) {
+                keys[gap] = keys[j];
+                values[gap] = values[j];
+                gap = j;
+            }
+            j = (j + 1) & mask;
+        }
+        used[gap] = false;
+        values[gap] = null;
+        size--;
+        return old;
+    }
+
+    public boolean containsValue(Object value) {
+        for (int i = 0; i < used.length; i++) {
+            if (used[i] && ((value == null) ? (values[i] == null) : value.equals(values[i]))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void clear() {
+        if (size > 0) {
+            Arrays.fill(used, false);
+            Arrays.fill(values, null);
+            size = 0;
+        }
+    }
+
+    private void rehash(int newCapacity) {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        boolean[] oldUsed = used;
+        allocate(newCapacity);
+        for (int i = 0; i < oldUsed.length; i++) {
+            if (oldUsed[i]) {
+                int j = slotOf(oldKeys[i]);
+                while (used[j]) {
+                    j = (j + 1) & mask;
+                }
+                used[j] = true;
+                keys[j] = oldKeys[i];
+                values[j] = oldValues[i];
+            }
+        }
+    }
+
+    /**
+     * @return кол-во ячеек таблицы (для перебора по номерам ячеек)
+     */
+    public int capacity() {
+        return used.length;
+    }
+
+    public boolean isUsed(int slot) {
+        return used[slot];
+    }
+
+    public long keyAt(int slot) {
+        return keys[slot];
+    }
+
+    @SuppressWarnings("unchecked")
+    public V valueAt(int slot) {
+        return (V)values[slot];
+    }
+
+}
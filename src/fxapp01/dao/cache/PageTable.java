@@ -0,0 +1,107 @@
+/*
+ * Copyright 2015 serg.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fxapp01.dao.cache;
+
+import fxapp01.excpt.EArgumentBreaksRule;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Таблица страниц данных фиксированного размера. Ключ - номер страницы
+ * (номер строки, отсчитанный от начала диапазона данных, деленный на размер страницы).
+ * Количество хранимых страниц ограничено, при превышении вытесняется страница,
+ * к которой дольше всего не было обращений (LRU).
+ * Методы синхронизированы, т.к. страницы могут добавляться из фонового потока.
+ * @author serg
+ * @param <T> класс строки данных
+ */
+public class PageTable<T> {
+
+    private final int pageSize;
+    private final int maxPages;
+    private final LinkedHashMap<Long, List<T>> pages;
+
+    public PageTable(int pageSize, int maxPages) {
+        if (pageSize <= 0) {
+            throw new EArgumentBreaksRule("constructor", "pageSize", "pageSize > 0");
+        }
+        if (maxPages <= 0) {
+            throw new EArgumentBreaksRule("constructor", "maxPages", "maxPages > 0");
+        }
+        this.pageSize = pageSize;
+        this.maxPages = maxPages;
+        // accessOrder = true: порядок итерации - от давно использованных к недавно использованным
+        this.pages = new LinkedHashMap<Long, List<T>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, List<T>> eldest) {
+                return size() > PageTable.this.maxPages;
+            }
+        };
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    public int getMaxPages() {
+        return maxPages;
+    }
+
+    /**
+     * @param offset номер строки, отсчитанный от начала диапазона данных
+     * @return номер страницы, в которую попадает строка
+     */
+    public long pageOf(long offset) {
+        return offset / pageSize;
+    }
+
+    /**
+     * @param pageNo номер страницы
+     * @return строки страницы или null, если страницы нет в таблице
+     */
+    public synchronized List<T> get(long pageNo) {
+        return pages.get(pageNo);
+    }
+
+    /**
+     * Помещает страницу в таблицу. Страница может быть неполной только
+     * в конце диапазона данных.
+     * @param pageNo номер страницы
+     * @param rows строки страницы. сохраняется неизменяемая копия
+     */
+    public synchronized void put(long pageNo, List<? extends T> rows) {
+        if ((rows == null) || (rows.size() > pageSize)) {
+            throw new EArgumentBreaksRule("put", "rows", "rows.size() <= pageSize");
+        }
+        pages.put(pageNo, Collections.unmodifiableList(new ArrayList<>(rows)));
+    }
+
+    public synchronized boolean contains(long pageNo) {
+        return pages.containsKey(pageNo);
+    }
+
+    public synchronized int size() {
+        return pages.size();
+    }
+
+    public synchronized void clear() {
+        pages.clear();
+    }
+
+}
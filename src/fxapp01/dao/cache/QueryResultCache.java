@@ -0,0 +1,309 @@
+/*
+ * Copyright 2015 serg.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fxapp01.dao.cache;
+
+import fxapp01.dto.SQLParams;
+import fxapp01.excpt.ENegativeArgument;
+import fxapp01.excpt.ENullArgument;
+import fxapp01.log.ILogger;
+import fxapp01.log.LogMgr;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.UnaryOperator;
+
+/**
+ * Общий для приложения кеш результатов выборок (страниц строк) по параметрам 
+ * SQLParams. Несколько DataList с одинаковыми источником, сортировкой и фильтром 
+ * получают страницу из кеша, а не каждый из БД.
+ * Ключ - область (namespace, н-р класс mapper-а) и копия параметров выборки, 
+ * сравниваемая по каноническому виду (см. SQLParams.equals). Кол-во страниц 
+ * ограничено, при превышении вытесняется страница, к которой дольше всего не 
+ * было обращений (LRU). Страница действительна в течение TTL. 
+ * Запись в область (invalidate) удаляет ее страницы, а результаты выборок, 
+ * начатых до записи, в кеш не попадают.
+ * Изменяемые строки (DTO) хранятся и выдаются копиями, поэтому несохраненное 
+ * изменение строки в одном DataList не видно в других и в последующих выборках.
+ * Для выборки со счетчиком (SQLParams.isCountTotal) вместе со строками хранится 
+ * общее кол-во строк, полученное загрузчиком (prm.getTotalRows), и при попадании 
+ * в кеш оно передается в prm.
+ * @author serg
+ */
+public class QueryResultCache {
+
+    public static final int defMaxEntries = 256;
+    public static final long defTTLMillis = 30000;
+
+    private static final QueryResultCache instance = new QueryResultCache(defMaxEntries, defTTLMillis);
+
+    private final ILogger log = LogMgr.getLogger(this.getClass());
+    private final LinkedHashMap<Key, Entry> entries;
+    // номер "поколения" области, увеличивается при каждой записи в область
+    private final Map<Object, Long> generations;
+    // увеличивается при очистке всего кеша
+    private long epoch;
+    private int maxEntries;
+    private volatile long ttlNanos;
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+
+    private static class Key {
+        private final Object namespace;
+        private final SQLParams params;
+
+        private Key(Object namespace, SQLParams params) {
+            this.namespace = namespace;
+            this.params = params;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key k = (Key)o;
+            return namespace.equals(k.namespace) && params.equals(k.params);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * namespace.hashCode() + params.hashCode();
+        }
+    }
+
+    private static class Entry {
+        private final List<?> rows;
+        // общее кол-во строк выборки со счетчиком (SQLParams.getTotalRows)
+        private final Long totalRows;
+        private final long loadedAt;
+
+        private Entry(List<?> rows, Long totalRows, long loadedAt) {
+            this.rows = rows;
+            this.totalRows = totalRows;
+            this.loadedAt = loadedAt;
+        }
+    }
+
+    /**
+     * @return общий кеш приложения
+     */
+    public static QueryResultCache getInstance() {
+        return instance;
+    }
+
+    /**
+     * @param maxEntries макс. кол-во страниц. 0 - кеширование отключено
+     * @param ttlMillis время действия страницы в миллисекундах
+     */
+    public QueryResultCache(int maxEntries, long ttlMillis) {
+        if (maxEntries < 0) {
+            throw new ENegativeArgument("constructor", "maxEntries");
+        }
+        if (ttlMillis < 0) {
+            throw new ENegativeArgument("constructor", "ttlMillis");
+        }
+        this.maxEntries = maxEntries;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.generations = new HashMap<>();
+        this.epoch = 0;
+        this.hits = new AtomicLong();
+        this.misses = new AtomicLong();
+        // accessOrder = true: порядок итерации - от давно использованных к недавно использованным
+        this.entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                return size() > QueryResultCache.this.maxEntries;
+            }
+        };
+    }
+
+    public synchronized int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * @param maxEntries макс. кол-во страниц. 0 - кеширование отключено
+     */
+    public synchronized void setMaxEntries(int maxEntries) {
+        if (maxEntries < 0) {
+            throw new ENegativeArgument("setMaxEntries", "maxEntries");
+        }
+        this.maxEntries = maxEntries;
+        Iterator<Key> it = entries.keySet().iterator();
+        while ((entries.size() > maxEntries) && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    public long getTTLMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(ttlNanos);
+    }
+
+    public void setTTLMillis(long ttlMillis) {
+        if (ttlMillis < 0) {
+            throw new ENegativeArgument("setTTLMillis", "ttlMillis");
+        }
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Строки выборки из кеша или, если их там нет, из источника с сохранением в кеше.
+     * Только для неизменяемых строк (String, числа и т.п.): строки общие для всех получателей.
+     * @param <T> класс строки данных
+     * @param namespace область кеша, н-р класс mapper-а
+     * @param prm параметры выборки
+     * @param loader выборка из источника
+     * @return строки выборки (копия списка)
+     * @throws IOException
+     */
+    public <T> List<T> select(Object namespace, SQLParams prm, Callable<List<T>> loader) throws IOException {
+        return select(namespace, prm, loader, UnaryOperator.identity());
+    }
+
+    /**
+     * Строки выборки из кеша или, если их там нет, из источника с сохранением в кеше.
+     * В кеше хранятся копии строк, при попадании в кеш выдаются новые копии.
+     * @param <T> класс строки данных
+     * @param namespace область кеша, н-р класс mapper-а
+     * @param prm параметры выборки. при isCountTotal loader передает в prm общее 
+     * кол-во строк (setTotalRows), при попадании в кеш оно передается из кеша
+     * @param loader выборка из источника
+     * @param copier копирование строки, н-р TestItemDTO::copyOf
+     * @return строки выборки
+     * @throws IOException
+     */
+    @SuppressWarnings("unchecked")
+    public <T> List<T> select(Object namespace, SQLParams prm, Callable<List<T>> loader, UnaryOperator<T> copier) throws IOException {
+        if (namespace == null) {
+            throw new ENullArgument("select", "namespace");
+        }
+        if (loader == null) {
+            throw new ENullArgument("select", "loader");
+        }
+        if (copier == null) {
+            throw new ENullArgument("select", "copier");
+        }
+        if (prm == null) {
+            return call(loader);
+        }
+        Key key = new Key(namespace, new SQLParams(prm));
+        long gen;
+        long ep;
+        synchronized (this) {
+            ep = epoch;
+            if (maxEntries == 0) {
+                gen = -1;
+            } else {
+                Entry e = entries.get(key);
+                if ((e != null) && (System.nanoTime() - e.loadedAt <= ttlNanos)) {
+                    hits.incrementAndGet();
+                    if (prm.isCountTotal()) {
+                        prm.setTotalRows(e.totalRows);
+                    }
+                    return copyRows((List<T>)e.rows, copier);
+                }
+                if (e != null) {
+                    entries.remove(key);
+                }
+                gen = generation(namespace);
+            }
+        }
+        misses.incrementAndGet();
+        List<T> res = call(loader);
+        if ((res != null) && (gen >= 0)) {
+            synchronized (this) {
+                //запись в область во время выборки - результат может быть устаревшим
+                if ((gen == generation(namespace)) && (ep == epoch) && (maxEntries > 0)) {
+                    entries.put(key, new Entry(Collections.unmodifiableList(copyRows(res, copier)), 
+                            prm.isCountTotal() ? prm.getTotalRows() : null, System.nanoTime()));
+                } else {
+                    log.debug("select. "+namespace+" changed during select, result not cached");
+                }
+            }
+        }
+        return res;
+    }
+
+    private static <T> List<T> copyRows(List<T> rows, UnaryOperator<T> copier) {
+        List<T> res = new ArrayList<>(rows.size());
+        for (T row : rows) {
+            res.add((row == null) ? null : copier.apply(row));
+        }
+        return res;
+    }
+
+    private <T> List<T> call(Callable<List<T>> loader) throws IOException {
+        try {
+            return loader.call();
+        } catch (IOException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+    }
+
+    private long generation(Object namespace) {
+        Long g = generations.get(namespace);
+        return (g == null) ? 0 : g;
+    }
+
+    /**
+     * Удаляет страницы области. Вызывается после каждой записи в источник данных области.
+     * @param namespace область кеша, н-р класс mapper-а
+     */
+    public synchronized void invalidate(Object namespace) {
+        log.trace("invalidate. namespace="+namespace);
+        generations.put(namespace, generation(namespace) + 1);
+        Iterator<Key> it = entries.keySet().iterator();
+        while (it.hasNext()) {
+            if (Objects.equals(it.next().namespace, namespace)) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Удаляет все страницы
+     */
+    public synchronized void clear() {
+        log.trace("clear");
+        epoch++;
+        entries.clear();
+    }
+
+}
@@ -0,0 +1,334 @@
+/*
+ * Copyright 2015 serg.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fxapp01.dao.cache;
+
+import fxapp01.excpt.EArgumentBreaksRule;
+import fxapp01.excpt.ENegativeArgument;
+import java.util.AbstractList;
+import java.util.Collection;
+import java.util.RandomAccess;
+
+/**
+ * Кольцевой буфер с произвольным доступом по индексу. Добавление и удаление
+ * строк с любого из концов буфера выполняется без сдвига остальных элементов
+ * (за O(1) на элемент). Вставка/удаление в середине сдвигает меньшую из частей.
+ * Используется как хранилище "окна" данных в DataCacheRolling.
+ * @author serg
+ * @param <T> класс элемента буфера
+ */
+public class RingBuffer<T> extends AbstractList<T> implements IRowStore<T>, RandomAccess {
+
+    private static final int defCapacity = 16;
+    private Object[] items;
+    // индекс первого элемента в массиве items
+    private int head;
+    private int count;
+
+    public RingBuffer() {
+        this(defCapacity);
+    }
+
+    public RingBuffer(int initialCapacity) {
+        if (initialCapacity < 0) {
+            throw new ENegativeArgument("constructor", "initialCapacity");
+        }
+        this.items = new Object[Math.max(initialCapacity, 1)];
+        this.head = 0;
+        this.count = 0;
+    }
+
+    public int capacity() {
+        return items.length;
+    }
+
+    /* физический адрес элемента в массиве по логическому индексу */
+    private int slot(int index) {
+        int s = head + index;
+        return (s >= items.length) ? s - items.length : s;
+    }
+
+    private void checkIndex(int index) {
+        if ((index < 0) || (index >= count)) {
+            throw new IndexOutOfBoundsException("index="+index+", size="+count);
+        }
+    }
+
+    public void ensureCapacity(int minCapacity) {
+        if (minCapacity > items.length) {
+            int newCapacity = Math.max(minCapacity, items.length + (items.length >> 1) + 1);
+            Object[] a = new Object[newCapacity];
+            // переносим элементы в начало нового массива, "разворачивая" кольцо
+            int tail = Math.min(count, items.length - head);
+            System.arraycopy(items, head, a, 0, tail);
+            System.arraycopy(items, 0, a, tail, count - tail);
+            items = a;
+            head = 0;
+        }
+    }
+
+    @Override
+    public int size() {
+        return count;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public T get(int index) {
+        checkIndex(index);
+        return (T)items[slot(index)];
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public T set(int index, T element) {
+        checkIndex(index);
+        int s = slot(index);
+        T old = (T)items[s];
+        items[s] = element;
+        return old;
+    }
+
+    public void addFirst(T element) {
+        ensureCapacity(count + 1);
+        head = (head == 0) ? items.length - 1 : head - 1;
+        items[head] = element;
+        count++;
+        modCount++;
+    }
+
+    public void addLast(T element) {
+        ensureCapacity(count + 1);
+        items[slot(count)] = element;
+        count++;
+        modCount++;
+    }
+
+    @Override
+    public boolean add(T element) {
+        addLast(element);
+        return true;
+    }
+
+    /**
+     * Вставка в середину буфера. Сдвигается меньшая из двух частей буфера.
+     * @param index
+     * @param element
+     */
+    @Override
+    public void add(int index, T element) {
+        if ((index < 0) || (index > count)) {
+            throw new IndexOutOfBoundsException("index="+index+", size="+count);
+        }
+        if (index == 0) {
+            addFirst(element);
+            return;
+        }
+        if (index == count) {
+            addLast(element);
+            return;
+        }
+        ensureCapacity(count + 1);
+        if (index < (count >> 1)) {
+            head = (head == 0) ? items.length - 1 : head - 1;
+            for (int i = 0; i < index; i++) {
+                items[slot(i)] = items[slot(i + 1)];
+            }
+        } else {
+            for (int i = count; i > index; i--) {
+                items[slot(i)] = items[slot(i - 1)];
+            }
+        }
+        items[slot(index)] = element;
+        count++;
+        modCount++;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public T remove(int index) {
+        checkIndex(index);
+        T old = (T)items[slot(index)];
+        if (index < (count >> 1)) {
+            for (int i = index; i > 0; i--) {
+                items[slot(i)] = items[slot(i - 1)];
+            }
+            items[head] = null;
+            head = slot(1);
+        } else {
+            for (int i = index; i < count - 1; i++) {
+                items[slot(i)] = items[slot(i + 1)];
+            }
+            items[slot(count - 1)] = null;
+        }
+        count--;
+        modCount++;
+        return old;
+    }
+
+    /**
+     * Добавляет элементы коллекции в начало буфера, сохраняя их порядок.
+     * @param c
+     * @return true, если буфер изменился
+     */
+    @Override
+    public boolean addAllFirst(Collection<? extends T> c) {
+        if ((c == null) || c.isEmpty()) {
+            return false;
+        }
+        Object[] a = c.toArray();
+        ensureCapacity(count + a.length);
+        int newHead = head - a.length;
+        if (newHead < 0) {
+            newHead += items.length;
+        }
+        int s = newHead;
+        for (Object o : a) {
+            items[s] = o;
+            s = (s + 1 == items.length) ? 0 : s + 1;
+        }
+        head = newHead;
+        count += a.length;
+        modCount++;
+        return true;
+    }
+
+    /**
+     * Добавляет элементы коллекции в конец буфера.
+     * @param c
+     * @return true, если буфер изменился
+     */
+    @Override
+    public boolean addAllLast(Collection<? extends T> c) {
+        if ((c == null) || c.isEmpty()) {
+            return false;
+        }
+        Object[] a = c.toArray();
+        ensureCapacity(count + a.length);
+        int s = slot(count);
+        for (Object o : a) {
+            items[s] = o;
+            s = (s + 1 == items.length) ? 0 : s + 1;
+        }
+        count += a.length;
+        modCount++;
+        return true;
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends T> c) {
+        return addAllLast(c);
+    }
+
+    @Override
+    public boolean addAll(int index, Collection<? extends T> c) {
+        if (index == 0) {
+            return addAllFirst(c);
+        }
+        if (index == count) {
+            return addAllLast(c);
+        }
+        return super.addAll(index, c);
+    }
+
+    /**
+     * Удаляет n элементов с начала буфера.
+     * @param n
+     */
+    @Override
+    public void removeFirst(int n) {
+        if ((n < 0) || (n > count)) {
+            throw new EArgumentBreaksRule("removeFirst", "0 <= n <= size");
+        }
+        for (int i = 0; i < n; i++) {
+            items[slot(i)] = null;
+        }
+        head = slot(n);
+        count -= n;
+        if (count == 0) {
+            head = 0;
+        }
+        modCount++;
+    }
+
+    /**
+     * Удаляет n элементов с конца буфера.
+     * @param n
+     */
+    @Override
+    public void removeLast(int n) {
+        if ((n < 0) || (n > count)) {
+            throw new EArgumentBreaksRule("removeLast", "0 <= n <= size");
+        }
+        for (int i = count - n; i < count; i++) {
+            items[slot(i)] = null;
+        }
+        count -= n;
+        if (count == 0) {
+            head = 0;
+        }
+        modCount++;
+    }
+
+    @Override
+    protected void removeRange(int fromIndex, int toIndex) {
+        if (fromIndex == 0) {
+            removeFirst(toIndex);
+        } else {
+            if (toIndex == count) {
+                removeLast(count - fromIndex);
+            } else {
+                super.removeRange(fromIndex, toIndex);
+            }
+        }
+    }
+
+    @Override
+    public void clear() {
+        removeFirst(count);
+    }
+
+    @Override
+    public int indexOf(Object o) {
+        for (int i = 0; i < count; i++) {
+            Object e = items[slot(i)];
+            if ((o == null) ? (e == null) : o.equals(e)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public int lastIndexOf(Object o) {
+        for (int i = count - 1; i >= 0; i--) {
+            Object e = items[slot(i)];
+            if ((o == null) ? (e == null) : o.equals(e)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public Object[] toArray() {
+        Object[] a = new Object[count];
+        int tail = Math.min(count, items.length - head);
+        System.arraycopy(items, head, a, 0, tail);
+        System.arraycopy(items, 0, a, tail, count - tail);
+        return a;
+    }
+
+}
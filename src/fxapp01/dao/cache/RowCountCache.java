@@ -0,0 +1,396 @@
+/*
+ * Copyright 2015 serg.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fxapp01.dao.cache;
+
+import fxapp01.dto.INestedRange;
+import fxapp01.excpt.ENegativeArgument;
+import fxapp01.excpt.ENullArgument;
+import fxapp01.log.ILogger;
+import fxapp01.log.LogMgr;
+import java.io.IOException;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Кеш кол-ва строк источника данных (диапазона, возвращаемого getRowTotalRange).
+ * Значение действительно в течение заданного времени (TTL), после чего
+ * обновляется в фоновом потоке, а до получения нового значения возвращается
+ * прежнее. Добавленные и удаленные через приложение строки учитываются сразу
+ * (adjust), без повторного подсчета.
+ * Кеш привязан к области (н-р, текущему фильтру): при смене области значение
+ * считается устаревшим, а результаты подсчетов, начатых до смены, отбрасываются.
+ * Если задан источник оценки (setEstimateSource), первое значение берется из
+ * статистики БД без подсчета строк, а точное кол-во подсчитывается в фоне.
+ * @author serg
+ * @param <RangeKeyClass>
+ */
+public class RowCountCache<RangeKeyClass extends Number> {
+
+    public static final long defTTLMillis = 30000;
+
+    private final ILogger log = LogMgr.getLogger(this.getClass());
+    private final Callable<INestedRange<RangeKeyClass>> source;
+    private Callable<INestedRange<RangeKeyClass>> estimateSource;
+    private Runnable onChange;
+    private volatile long ttlNanos;
+    private Executor refreshExecutor;
+    // результат последнего подсчета
+    private volatile INestedRange<RangeKeyClass> counted;
+    private volatile long countedAt;
+    private volatile boolean valid;
+    private volatile boolean estimated;
+    // изменение кол-ва строк после последнего подсчета
+    private final AtomicLong delta;
+    private final AtomicBoolean refreshing;
+    private volatile int generation;
+    private Object scope;
+
+    public RowCountCache(Callable<INestedRange<RangeKeyClass>> source) {
+        this(source, defTTLMillis);
+    }
+
+    /**
+     * @param source подсчет кол-ва строк, н-р dao::getRowTotalRange
+     * @param ttlMillis время действия значения в миллисекундах
+     */
+    public RowCountCache(Callable<INestedRange<RangeKeyClass>> source, long ttlMillis) {
+        if (source == null) {
+            throw new ENullArgument("constructor", "source");
+        }
+        if (ttlMillis < 0) {
+            throw new ENegativeArgument("constructor", "ttlMillis");
+        }
+        this.source = source;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.refreshExecutor = null;
+        this.counted = null;
+        this.countedAt = 0;
+        this.valid = false;
+        this.estimated = false;
+        this.estimateSource = null;
+        this.onChange = null;
+        this.delta = new AtomicLong();
+        this.refreshing = new AtomicBoolean(false);
+        this.generation = 0;
+        this.scope = null;
+    }
+
+    public long getTTLMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(ttlNanos);
+    }
+
+    public void setTTLMillis(long ttlMillis) {
+        if (ttlMillis < 0) {
+            throw new ENegativeArgument("setTTLMillis", "ttlMillis");
+        }
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+    }
+
+    /**
+     * @param refreshExecutor исполнитель фоновых подсчетов.
+     * Если не задан, используется собственный фоновый поток.
+     */
+    public synchronized void setRefreshExecutor(Executor refreshExecutor) {
+        this.refreshExecutor = refreshExecutor;
+    }
+
+    /**
+     * @param estimateSource оценка кол-ва строк по статистике БД, н-р dao::getRowTotalRangeEstimate.
+     * Может вернуть null, если оценка недоступна - тогда строки подсчитываются
+     */
+    public synchronized void setEstimateSource(Callable<INestedRange<RangeKeyClass>> estimateSource) {
+        this.estimateSource = estimateSource;
+    }
+
+    /**
+     * @param onChange вызывается при изменении кол-ва строк (новый подсчет или adjust),
+     * в т.ч. из фонового потока
+     */
+    public synchronized void setOnChange(Runnable onChange) {
+        this.onChange = onChange;
+    }
+
+    private void fireChange() {
+        Runnable r;
+        synchronized (this) {
+            r = onChange;
+        }
+        if (r != null) {
+            r.run();
+        }
+    }
+
+    private synchronized Executor getRefreshExecutor() {
+        if (refreshExecutor == null) {
+            refreshExecutor = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, "RowCountCache-refresh");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return refreshExecutor;
+    }
+
+    /**
+     * @return true, если значение отсутствует, устарело или сброшено
+     */
+    public boolean isStale() {
+        return (!valid) || (System.nanoTime() - countedAt > ttlNanos);
+    }
+
+    public boolean isRefreshing() {
+        return refreshing.get();
+    }
+
+    /**
+     * @return true, если текущее значение - оценка, и точный подсчет еще не завершен
+     */
+    public boolean isEstimated() {
+        return estimated;
+    }
+
+    /**
+     * Состояние кеша перед запросом, возвращающим кол-во строк попутно 
+     * (н-р, count(*) over () вместе со страницей строк), см. offer
+     */
+    public static final class Mark {
+        private final int generation;
+        private final long delta;
+
+        private Mark(int generation, long delta) {
+            this.generation = generation;
+            this.delta = delta;
+        }
+    }
+
+    /**
+     * @return состояние кеша, сохраняемое до выполнения запроса
+     */
+    public Mark mark() {
+        return new Mark(generation, delta.get());
+    }
+
+    /**
+     * Принимает кол-во строк, полученное попутно с другим запросом, как результат 
+     * подсчета: значение становится действительным на время TTL без отдельного подсчета.
+     * @param mark состояние кеша до выполнения запроса
+     * @param r диапазон строк
+     * @return false, если область сменилась во время запроса и значение отброшено
+     */
+    public boolean offer(Mark mark, INestedRange<RangeKeyClass> r) {
+        if (mark == null) {
+            throw new ENullArgument("offer", "mark");
+        }
+        if (r == null) {
+            throw new ENullArgument("offer", "r");
+        }
+        return install(mark.generation, r, mark.delta, false);
+    }
+
+    /**
+     * Подсчитывает кол-во строк в потоке вызывающего.
+     * @return диапазон строк с учетом изменений, сделанных во время подсчета
+     * @throws IOException
+     */
+    public INestedRange<RangeKeyClass> load() throws IOException {
+        log.trace("load");
+        count();
+        return get();
+    }
+
+    /* 
+     * подсчет строк. возвращает false, если результат отброшен из-за смены области
+     */
+    private boolean count() throws IOException {
+        int gen = generation;
+        long d0 = delta.get();
+        INestedRange<RangeKeyClass> r = call(source);
+        if (r == null) {
+            throw new ENullArgument("count", "source.call()");
+        }
+        return install(gen, r, d0, false);
+    }
+
+    /**
+     * Оценка кол-ва строк без подсчета с последующим точным подсчетом в фоне.
+     * Если оценка недоступна, строки подсчитываются в потоке вызывающего (load).
+     * @return диапазон строк
+     * @throws IOException
+     */
+    public INestedRange<RangeKeyClass> loadEstimate() throws IOException {
+        log.trace("loadEstimate");
+        Callable<INestedRange<RangeKeyClass>> es;
+        synchronized (this) {
+            es = estimateSource;
+        }
+        INestedRange<RangeKeyClass> r = (es != null) ? call(es) : null;
+        if (r == null) {
+            return load();
+        }
+        install(generation, r, delta.get(), true);
+        refreshAsync();
+        return adjusted(r);
+    }
+
+    private INestedRange<RangeKeyClass> call(Callable<INestedRange<RangeKeyClass>> c) throws IOException {
+        try {
+            return c.call();
+        } catch (IOException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+    }
+
+    /* 
+     * запоминает результат подсчета, если область за время подсчета не менялась.
+     * оценка запоминается как устаревшее значение, чтобы следом был выполнен подсчет
+     * при изменении кол-ва строк уведомляет подписчика.
+     * возвращает false, если результат отброшен
+     */
+    private boolean install(int gen, INestedRange<RangeKeyClass> r, long d0, boolean isEstimate) {
+        boolean changed;
+        synchronized (this) {
+            if (gen != generation) {
+                log.debug("install. scope changed, count discarded");
+                return false;
+            }
+            long before = (counted == null) ? -1 : counted.getLength().longValue() + delta.get();
+            //изменения, сделанные до начала подсчета, в нем уже учтены
+            delta.addAndGet(-d0);
+            counted = r;
+            countedAt = System.nanoTime();
+            valid = !isEstimate;
+            estimated = isEstimate;
+            log.debug("install. range="+r+", delta="+delta.get()+", estimated="+isEstimate);
+            changed = (before != r.getLength().longValue() + delta.get());
+        }
+        if (changed) {
+            fireChange();
+        }
+        return true;
+    }
+
+    /**
+     * Запускает подсчет в фоне, если он еще не выполняется.
+     */
+    public void refreshAsync() {
+        if (refreshing.compareAndSet(false, true)) {
+            log.trace("refreshAsync");
+            try {
+                getRefreshExecutor().execute(() -> {
+                    try {
+                        //подсчет, отброшенный из-за смены области, повторяется для новой области
+                        while (!count()) {
+                            log.debug("refreshAsync. recount for the new scope");
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        log.error("row count refresh failed", e);
+                    } finally {
+                        refreshing.set(false);
+                    }
+                });
+            } catch (RuntimeException e) {
+                refreshing.set(false);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Диапазон строк. Подсчет в потоке вызывающего выполняется только если
+     * значения еще нет, устаревшее значение обновляется в фоне.
+     * @return диапазон строк с учетом добавленных и удаленных строк
+     * @throws IOException
+     */
+    public INestedRange<RangeKeyClass> get() throws IOException {
+        INestedRange<RangeKeyClass> c = counted;
+        if (c == null) {
+            return loadEstimate();
+        }
+        if (isStale()) {
+            refreshAsync();
+        }
+        return adjusted(c);
+    }
+
+    /**
+     * Кол-во строк без ожидания подсчета. Устаревшее или отсутствующее значение
+     * обновляется в фоне.
+     * @return кол-во строк или 0, если подсчет еще не выполнялся
+     */
+    public long getLength() {
+        INestedRange<RangeKeyClass> c = counted;
+        if ((c == null) || isStale()) {
+            refreshAsync();
+        }
+        if (c == null) {
+            return 0;
+        }
+        return Math.max(0, c.getLength().longValue() + delta.get());
+    }
+
+    private INestedRange<RangeKeyClass> adjusted(INestedRange<RangeKeyClass> c) {
+        long d = delta.get();
+        if (d == 0) {
+            return c;
+        }
+        INestedRange<RangeKeyClass> r = c.clone();
+        r.setLength(r.valueOf(Math.max(0, c.getLength().longValue() + d)));
+        return r;
+    }
+
+    /**
+     * Учитывает строки, добавленные (n > 0) или удаленные (n < 0) через приложение.
+     * @param n изменение кол-ва строк
+     */
+    public void adjust(long n) {
+        if (n != 0) {
+            delta.addAndGet(n);
+            fireChange();
+        }
+    }
+
+    /**
+     * Сбрасывает значение: следующее обращение запустит подсчет, а выполняющийся
+     * подсчет будет отброшен. До получения нового значения возвращается прежнее.
+     */
+    public synchronized void invalidate() {
+        log.trace("invalidate");
+        generation++;
+        valid = false;
+    }
+
+    public synchronized Object getScope() {
+        return scope;
+    }
+
+    /**
+     * @param scope область подсчета, н-р текущий фильтр. При смене области значение сбрасывается
+     */
+    public synchronized void setScope(Object scope) {
+        if (!Objects.equals(this.scope, scope)) {
+            this.scope = scope;
+            invalidate();
+        }
+    }
+
+}
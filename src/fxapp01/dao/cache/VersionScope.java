@@ -0,0 +1,60 @@
+/*
+ * Copyright 2015 serg.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fxapp01.dao.cache;
+
+/**
+ * Параметры выборки измененных строк окна кеша: диапазон первичных ключей 
+ * строк окна и наибольшая версия (IHasVersion) среди них. Строки с версией 
+ * больше sinceVersion изменены после загрузки окна.
+ * @author serg
+ */
+public class VersionScope {
+
+    private final long minKey;
+    private final long maxKey;
+    private final Object sinceVersion;
+    // поколение окна кеша на момент расчета. изменения для другого поколения не применяются
+    private final int generation;
+
+    public VersionScope(long minKey, long maxKey, Object sinceVersion, int generation) {
+        this.minKey = minKey;
+        this.maxKey = maxKey;
+        this.sinceVersion = sinceVersion;
+        this.generation = generation;
+    }
+
+    public long getMinKey() {
+        return minKey;
+    }
+
+    public long getMaxKey() {
+        return maxKey;
+    }
+
+    public Object getSinceVersion() {
+        return sinceVersion;
+    }
+
+    public int getGeneration() {
+        return generation;
+    }
+
+    @Override
+    public String toString() {
+        return "minKey="+minKey+", maxKey="+maxKey+", sinceVersion="+sinceVersion;
+    }
+
+}
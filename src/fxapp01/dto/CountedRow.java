@@ -0,0 +1,66 @@
+/*
+ * Copyright 2015 serg.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fxapp01.dto;
+
+/**
+ * Строка выборки вместе с общим кол-вом строк запроса (count(*) over ()),
+ * полученным в том же запросе, что и страница строк.
+ * @author serg
+ * @param <T> класс строки данных
+ */
+public class CountedRow<T> {
+
+    private T row;
+    private Long totalRows;
+    // ключ строки. по нему mybatis различает строки при вложенном отображении (association)
+    private Object rowKey;
+
+    public CountedRow() {
+        this.row = null;
+        this.totalRows = null;
+        this.rowKey = null;
+    }
+
+    public T getRow() {
+        return row;
+    }
+
+    public void setRow(T row) {
+        this.row = row;
+    }
+
+    public Long getTotalRows() {
+        return totalRows;
+    }
+
+    public void setTotalRows(Long totalRows) {
+        this.totalRows = totalRows;
+    }
+
+    public Object getRowKey() {
+        return rowKey;
+    }
+
+    public void setRowKey(Object rowKey) {
+        this.rowKey = rowKey;
+    }
+
+    @Override
+    public String toString() {
+        return "totalRows="+totalRows+", row="+row;
+    }
+
+}
@@ -17,6 +17,13 @@ package fxapp01.dto;
 
 import fxapp01.dao.filter.ISqlFilterable;
 import fxapp01.dao.sort.IDAOSortOrder;
+import fxapp01.dao.sort.ISortOrder.Direction;
+import fxapp01.excpt.EArgumentBreaksRule;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
 
 /**
  *
@@ -24,40 +31,67 @@ import fxapp01.dao.sort.IDAOSortOrder;
  * @param <RangeKeyClass>
  */
 public class SQLParams {
-    private NestedIntRange rowsRange;
+    // диапазон номеров строк. класс диапазона (NestedIntRange, NestedLongRange)
+    // сохраняется, чтобы номера строк за пределами int не усекались
+    private INestedRange<?> rowsRange;
     private IDAOSortOrder sortOrder;
     private ISqlFilterable filter;
     private Object example; // query by example
+    // столбец первичного ключа. добавляется в конец сортировки, чтобы порядок строк был однозначным
+    private String keyColumn;
+    // режим keyset: значения столбцов сортировки (getSortColumns) в граничной строке
+    private List<Object> keysetValues;
+    private boolean keysetForward;
+    // запрос общего кол-ва строк вместе со страницей и его результат
+    private boolean countTotal;
+    private Long totalRows;
 
-    public SQLParams(INestedRange rowsRange){
+    public SQLParams(INestedRange<?> rowsRange){
         this(rowsRange, null, null);
     }
     
-    public SQLParams(INestedRange rowsRange, IDAOSortOrder sortOrder){
+    public SQLParams(INestedRange<?> rowsRange, IDAOSortOrder sortOrder){
         this(rowsRange, sortOrder, null);
     }
     
-    public SQLParams(INestedRange rowsRange, ISqlFilterable filter){
+    public SQLParams(INestedRange<?> rowsRange, ISqlFilterable filter){
         this(rowsRange, null, filter);
     }
     
-    public SQLParams(INestedRange rowsRange, IDAOSortOrder sortOrder, ISqlFilterable filter){
+    public SQLParams(INestedRange<?> rowsRange, IDAOSortOrder sortOrder, ISqlFilterable filter){
         if (rowsRange != null) {
-            this.rowsRange = new NestedIntRange(rowsRange);
-            //this.rowsRange = rowsRange.clone();
+            this.rowsRange = rowsRange.clone();
         } else {
             this.rowsRange = null;
         }
         this.sortOrder = sortOrder;
         this.filter = filter;
         this.example = null;
+        this.keyColumn = null;
+        this.keysetValues = null;
+        this.keysetForward = true;
+        this.countTotal = false;
+        this.totalRows = null;
+    }
+    
+    /**
+     * Копия параметров выборки (н-р, для ключа кеша результатов, т.к. параметры изменяемы)
+     * @param src копируемые параметры
+     */
+    public SQLParams(SQLParams src){
+        this(src.rowsRange, src.sortOrder, src.filter);
+        this.example = src.example;
+        this.keyColumn = src.keyColumn;
+        this.keysetValues = (src.keysetValues == null) ? null : new ArrayList<>(src.keysetValues);
+        this.keysetForward = src.keysetForward;
+        this.countTotal = src.countTotal;
     }
     
-    public NestedIntRange getRowsRange() {
+    public INestedRange<?> getRowsRange() {
         return rowsRange;
     }
 
-    public void setRowsRange(NestedIntRange rowsRange) {
+    public void setRowsRange(INestedRange<?> rowsRange) {
         if (rowsRange != null) {
             this.rowsRange = rowsRange.clone();
         } else {
@@ -89,4 +123,275 @@ public class SQLParams {
         this.example = example; // query by example
     }
 
+    public String getKeyColumn() {
+        return keyColumn;
+    }
+
+    public void setKeyColumn(String keyColumn) {
+        this.keyColumn = keyColumn;
+    }
+
+    /**
+     * @return true, если вместе со страницей строк запрашивается общее кол-во строк
+     * запроса (count(*) over ()). В режиме keyset не выполняется: условие keyset 
+     * ограничивает строки запроса
+     */
+    public boolean isCountTotal() {
+        return countTotal && !isKeyset();
+    }
+
+    /**
+     * @param countTotal запрашивать общее кол-во строк вместе со страницей строк,
+     * результат - getTotalRows()
+     */
+    public void setCountTotal(boolean countTotal) {
+        this.countTotal = countTotal;
+    }
+
+    /**
+     * @return общее кол-во строк запроса, полученное вместе со страницей, или null,
+     * если оно не запрашивалось или неизвестно (н-р, страница за последней строкой)
+     */
+    public Long getTotalRows() {
+        return totalRows;
+    }
+
+    public void setTotalRows(Long totalRows) {
+        this.totalRows = totalRows;
+    }
+
+    /**
+     * Столбец сортировки и его направление
+     */
+    public static class SortTerm {
+        private final String column;
+        private final Direction direction;
+
+        public SortTerm(String column, Direction direction) {
+            this.column = column;
+            this.direction = direction;
+        }
+
+        public String getColumn() {
+            return column;
+        }
+
+        public Direction getDirection() {
+            return direction;
+        }
+    }
+
+    /**
+     * Условие сравнения столбца граничной строки в режиме keyset: column op value
+     */
+    public static class KeysetTerm {
+        private final String column;
+        private final String op;
+        private final Object value;
+
+        public KeysetTerm(String column, String op, Object value) {
+            this.column = column;
+            this.op = op;
+            this.value = value;
+        }
+
+        public String getColumn() {
+            return column;
+        }
+
+        public String getOp() {
+            return op;
+        }
+
+        public Object getValue() {
+            return value;
+        }
+    }
+
+    /**
+     * @return фактический порядок строк: столбцы сортировки (как в sortOrder.build())
+     * и столбец первичного ключа, если он задан и не входит в сортировку
+     */
+    public List<SortTerm> getSortTerms() {
+        List<SortTerm> res = new ArrayList<>();
+        boolean hasKey = false;
+        if (sortOrder != null) {
+            for (int i = 0; i < sortOrder.size(); i++) {
+                if (sortOrder.isSortable(i) && (sortOrder.getDirection(i) != Direction.NONE)) {
+                    res.add(new SortTerm(sortOrder.getName(i), sortOrder.getDirection(i)));
+                    hasKey = hasKey || sortOrder.getName(i).equalsIgnoreCase(keyColumn);
+                }
+            }
+        }
+        if ((keyColumn != null) && !hasKey) {
+            res.add(new SortTerm(keyColumn, Direction.ASC));
+        }
+        return res;
+    }
+
+    /**
+     * @return имена столбцов, значения которых нужны для setKeyset
+     */
+    public List<String> getSortColumns() {
+        List<String> res = new ArrayList<>();
+        for (SortTerm t : getSortTerms()) {
+            res.add(t.getColumn());
+        }
+        return res;
+    }
+
+    /**
+     * Включает режим keyset (seek): вместо пропуска rowsRange.first строк выбираются
+     * rowsRange.length строк, следующих за граничной строкой (forward) или 
+     * предшествующих ей. Для обратного направления порядок сортировки меняется на 
+     * противоположный, и строки возвращаются в обратном порядке.
+     * @param values значения столбцов getSortColumns() в граничной строке. null - отключает режим
+     * @param forward true - строки после граничной, false - перед ней
+     */
+    public void setKeyset(List<Object> values, boolean forward) {
+        if ((values != null) && (values.size() != getSortTerms().size())) {
+            throw new EArgumentBreaksRule("setKeyset", "values", "values.size() == getSortColumns().size()");
+        }
+        this.keysetValues = (values == null) ? null : new ArrayList<>(values);
+        this.keysetForward = forward;
+    }
+
+    public boolean isKeyset() {
+        return (keysetValues != null);
+    }
+
+    public boolean isKeysetForward() {
+        return keysetForward;
+    }
+
+    /* знак сравнения для строк, следующих за граничной в направлении выборки */
+    private String keysetOp(Direction dir) {
+        return ((dir == Direction.DESC) == keysetForward) ? "<" : ">";
+    }
+
+    /**
+     * Условие выборки в режиме keyset для произвольных направлений сортировки:
+     * (c1 op v1) or (c1 = v1 and c2 op v2) or ...
+     * @return список конъюнкций, объединяемых через or
+     */
+    public List<List<KeysetTerm>> getKeysetConditions() {
+        if (!isKeyset()) {
+            return Collections.emptyList();
+        }
+        List<SortTerm> terms = getSortTerms();
+        List<List<KeysetTerm>> res = new ArrayList<>();
+        for (int i = 0; i < terms.size(); i++) {
+            List<KeysetTerm> cond = new ArrayList<>();
+            for (int j = 0; j < i; j++) {
+                cond.add(new KeysetTerm(terms.get(j).getColumn(), "=", keysetValues.get(j)));
+            }
+            cond.add(new KeysetTerm(terms.get(i).getColumn(), keysetOp(terms.get(i).getDirection()), keysetValues.get(i)));
+            res.add(cond);
+        }
+        return res;
+    }
+
+    /**
+     * @return true, если все столбцы сортируются в одном направлении, и условие 
+     * keyset можно записать сравнением строк (c1, c2) > (v1, v2), которое использует индекс
+     */
+    public boolean isKeysetUniform() {
+        if (!isKeyset()) {
+            return false;
+        }
+        List<SortTerm> terms = getSortTerms();
+        for (SortTerm t : terms) {
+            if (t.getDirection() != terms.get(0).getDirection()) {
+                return false;
+            }
+        }
+        return !terms.isEmpty();
+    }
+
+    /**
+     * @return список столбцов для сравнения строк: "c1, c2"
+     */
+    public String getKeysetColumns() {
+        return String.join(", ", getSortColumns());
+    }
+
+    /**
+     * @return знак сравнения строк (при isKeysetUniform)
+     */
+    public String getKeysetOp() {
+        List<SortTerm> terms = getSortTerms();
+        return terms.isEmpty() ? ">" : keysetOp(terms.get(0).getDirection());
+    }
+
+    public List<Object> getKeysetValues() {
+        return keysetValues;
+    }
+
+    /**
+     * @return выражение для order by или null, если порядок не задан. В режиме keyset
+     * при выборке назад направления сортировки меняются на противоположные
+     */
+    public String getOrderBy() {
+        boolean reverse = isKeyset() && !keysetForward;
+        String res = "";
+        for (SortTerm t : getSortTerms()) {
+            Direction dir = t.getDirection();
+            if (reverse) {
+                dir = (dir == Direction.DESC) ? Direction.ASC : Direction.DESC;
+            }
+            String s = t.getColumn() + " " + dir.toString();
+            res = res.isEmpty() ? s : res + ", " + s;
+        }
+        return res.isEmpty() ? null : res;
+    }
+
+    /* канонический вид диапазона: первая строка и кол-во строк, без вложенности */
+    private List<Long> rangeKey() {
+        if (rowsRange == null) {
+            return null;
+        }
+        return Arrays.asList(rowsRange.getFirst().longValue(), rowsRange.getLength().longValue());
+    }
+
+    private String filterKey() {
+        return (filter == null) ? null : filter.getFilterSqlText();
+    }
+
+    /**
+     * Параметры равны, если по ним выполняется один и тот же запрос: совпадают 
+     * диапазон строк, итоговый порядок сортировки (getOrderBy), текст фильтра,
+     * образец (example), граничная строка keyset и запрос общего кол-ва строк.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof SQLParams)) {
+            return false;
+        }
+        SQLParams p = (SQLParams)o;
+        return Objects.equals(rangeKey(), p.rangeKey()) &&
+                Objects.equals(getOrderBy(), p.getOrderBy()) &&
+                Objects.equals(filterKey(), p.filterKey()) &&
+                Objects.equals(example, p.example) &&
+                Objects.equals(keysetValues, p.keysetValues) &&
+                (isCountTotal() == p.isCountTotal()) &&
+                (isKeyset() ? (keysetForward == p.keysetForward) : true);
+    }
+
+    /**
+     * example в хеш не входит: классы строк могут не переопределять hashCode
+     */
+    @Override
+    public int hashCode() {
+        return Objects.hash(rangeKey(), getOrderBy(), filterKey(), keysetValues, isCountTotal());
+    }
+
+    @Override
+    public String toString() {
+        return "SQLParams{range="+rangeKey()+", orderBy="+getOrderBy()+", filter="+filterKey()
+                +", example="+example+", keyset="+keysetValues+"}";
+    }
+
 }
@@ -16,6 +16,7 @@
 package fxapp01.dto;
 
 import fxapp01.dao.IHasID;
+import fxapp01.dao.IHasVersion;
 import java.io.Serializable;
 import java.math.BigInteger;
 import java.util.HashMap;
@@ -25,7 +26,7 @@ import javafx.beans.property.SimpleIntegerProperty;
 import javafx.beans.property.SimpleStringProperty;
 import javafx.beans.property.StringProperty;
 
-public class TestItemDTO implements Serializable, IHasID<BigInteger> {
+public class TestItemDTO implements Serializable, IHasID<BigInteger>, IHasVersion<Long> {
 
     private static final long serialVersionUID = 8030875135429404808L;
     /*
@@ -36,6 +37,7 @@ public class TestItemDTO implements Serializable, IHasID<BigInteger> {
     public TestItemDTO() {
         this.id = null;
         this.name = null;
+        this.version = null;
     }
     
     public TestItemDTO(BigInteger id, String name) {
@@ -70,6 +72,12 @@ public class TestItemDTO implements Serializable, IHasID<BigInteger> {
         return name;
     }
     
+    // версия строки в БД (postgresql - столбец version, oracle - ora_rowscn). null - неизвестна
+    private Long version;
+    @Override
+    public Long getVersion() { return version; }
+    public void setVersion(Long version) { this.version = version; }
+    
     @Override
     public String toString() {
         return "Id="+IdProperty().get()+", Name="+NameProperty().get();
@@ -96,6 +104,18 @@ public class TestItemDTO implements Serializable, IHasID<BigInteger> {
         }
     }
     
+    /**
+     * @param item строка
+     * @return независимая копия строки: изменение копии не меняет исходную строку
+     */
+    public static TestItemDTO copyOf(TestItemDTO item) {
+        TestItemDTO res = new TestItemDTO();
+        res.IdProperty().set(item.IdProperty().get());
+        res.setName(item.getName());
+        res.setVersion(item.getVersion());
+        return res;
+    }
+    
     public static Map<String, Object> toMap(TestItemDTO item) {
         Map<String, Object> map = new HashMap<>();
         map.put("id", item.getId());
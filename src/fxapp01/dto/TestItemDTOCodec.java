@@ -0,0 +1,108 @@
+/*
+ * Copyright 2015 serg.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fxapp01.dto;
+
+import fxapp01.dao.cache.IRowCodec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Двоичное представление TestItemDTO для компактного хранилища строк кеша:
+ * id (4 байта), version (8 байт, Long.MIN_VALUE для null), 
+ * длина name в байтах UTF-8 (4 байта, -1 для null), name в UTF-8.
+ * @author serg
+ */
+public class TestItemDTOCodec implements IRowCodec<TestItemDTO> {
+
+    @Override
+    public int encodedSize(TestItemDTO row) {
+        String name = row.getName();
+        return 16 + ((name == null) ? 0 : utf8Length(name));
+    }
+
+    @Override
+    public void encode(TestItemDTO row, ByteBuffer out) {
+        out.putInt(row.IdProperty().get());
+        Long version = row.getVersion();
+        out.putLong((version == null) ? Long.MIN_VALUE : version);
+        String name = row.getName();
+        if (name == null) {
+            out.putInt(-1);
+        } else {
+            out.putInt(utf8Length(name));
+            putUtf8(name, out);
+        }
+    }
+
+    @Override
+    public TestItemDTO decode(ByteBuffer in) {
+        TestItemDTO row = new TestItemDTO();
+        row.IdProperty().set(in.getInt());
+        long version = in.getLong();
+        row.setVersion((version == Long.MIN_VALUE) ? null : version);
+        int len = in.getInt();
+        if (len >= 0) {
+            byte[] b = new byte[len];
+            in.get(b);
+            row.setName(new String(b, StandardCharsets.UTF_8));
+        }
+        return row;
+    }
+
+    /* длина строки в UTF-8 без создания массива байт */
+    private static int utf8Length(String s) {
+        int len = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                len += 1;
+            } else if (c < 0x800) {
+                len += 2;
+            } else if (Character.isHighSurrogate(c) && (i + 1 < s.length()) 
+                    && Character.isLowSurrogate(s.charAt(i + 1))) {
+                len += 4;
+                i++;
+            } else {
+                len += 3;
+            }
+        }
+        return len;
+    }
+
+    private static void putUtf8(String s, ByteBuffer out) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                out.put((byte)c);
+            } else if (c < 0x800) {
+                out.put((byte)(0xC0 | (c >> 6)));
+                out.put((byte)(0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && (i + 1 < s.length()) 
+                    && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                out.put((byte)(0xF0 | (cp >> 18)));
+                out.put((byte)(0x80 | ((cp >> 12) & 0x3F)));
+                out.put((byte)(0x80 | ((cp >> 6) & 0x3F)));
+                out.put((byte)(0x80 | (cp & 0x3F)));
+            } else {
+                out.put((byte)(0xE0 | (c >> 12)));
+                out.put((byte)(0x80 | ((c >> 6) & 0x3F)));
+                out.put((byte)(0x80 | (c & 0x3F)));
+            }
+        }
+    }
+
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2015 serg.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fxapp01.orm;
+
+import fxapp01.excpt.EUnsupported;
+import java.sql.CallableStatement;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collection;
+import org.apache.ibatis.type.BaseTypeHandler;
+import org.apache.ibatis.type.JdbcType;
+
+/**
+ * Передает коллекцию целых чисел (ключей) как один параметр-массив bigint[],
+ * н-р для условия id = any(#{keys,typeHandler=fxapp01.orm.BigIntArrayTypeHandler}).
+ * В отличие от списка IN, текст запроса не зависит от кол-ва значений.
+ * Только для параметров: чтение массивов из результата не поддерживается.
+ * @author serg
+ */
+public class BigIntArrayTypeHandler extends BaseTypeHandler<Collection<? extends Number>> {
+
+    @Override
+    public void setNonNullParameter(PreparedStatement ps, int i, Collection<? extends Number> parameter, JdbcType jdbcType) throws SQLException {
+        Long[] values = new Long[parameter.size()];
+        int n = 0;
+        for (Number v : parameter) {
+            values[n++] = (v == null) ? null : v.longValue();
+        }
+        ps.setArray(i, ps.getConnection().createArrayOf("int8", values));
+    }
+
+    @Override
+    public Collection<? extends Number> getNullableResult(ResultSet rs, String columnName) throws SQLException {
+        throw new EUnsupported("BigIntArrayTypeHandler is for parameters only");
+    }
+
+    @Override
+    public Collection<? extends Number> getNullableResult(ResultSet rs, int columnIndex) throws SQLException {
+        throw new EUnsupported("BigIntArrayTypeHandler is for parameters only");
+    }
+
+    @Override
+    public Collection<? extends Number> getNullableResult(CallableStatement cs, int columnIndex) throws SQLException {
+        throw new EUnsupported("BigIntArrayTypeHandler is for parameters only");
+    }
+
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2015 serg.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fxapp01.orm;
+
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.Properties;
+import org.apache.ibatis.executor.statement.StatementHandler;
+import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.plugin.Intercepts;
+import org.apache.ibatis.plugin.Invocation;
+import org.apache.ibatis.plugin.Plugin;
+import org.apache.ibatis.plugin.Signature;
+
+/**
+ * Плагин mybatis, задающий размер выборки (Statement.setFetchSize) для запросов
+ * текущего потока. Используется при потоковом чтении (ResultStream), чтобы 
+ * драйвер БД держал в памяти только одну порцию строк. 
+ * Для postgresql размер выборки учитывается только вне режима autocommit.
+ * @author serg
+ */
+@Intercepts({@Signature(type = StatementHandler.class, method = "prepare", args = {Connection.class})})
+public class FetchSizeInterceptor implements Interceptor {
+
+    private static final ThreadLocal<Integer> fetchSize = new ThreadLocal<>();
+
+    /**
+     * @param size размер выборки для запросов текущего потока. null или 0 - по умолчанию драйвера
+     */
+    public static void setFetchSize(Integer size) {
+        if ((size == null) || (size <= 0)) {
+            fetchSize.remove();
+        } else {
+            fetchSize.set(size);
+        }
+    }
+
+    public static Integer getFetchSize() {
+        return fetchSize.get();
+    }
+
+    @Override
+    public Object intercept(Invocation invocation) throws Throwable {
+        Object res = invocation.proceed();
+        Integer size = fetchSize.get();
+        if ((size != null) && (res instanceof Statement)) {
+            ((Statement)res).setFetchSize(size);
+        }
+        return res;
+    }
+
+    @Override
+    public Object plugin(Object target) {
+        return Plugin.wrap(target, this);
+    }
+
+    @Override
+    public void setProperties(Properties properties) {
+    }
+
+}
@@ -37,6 +37,7 @@ import org.apache.ibatis.io.Resources;
 import org.apache.ibatis.mapping.ResultMap;
 import org.apache.ibatis.mapping.ResultMapping;
 import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.ExecutorType;
 import org.apache.ibatis.session.SqlSession;
 import org.apache.ibatis.session.SqlSessionFactory;
 import org.apache.ibatis.session.SqlSessionFactoryBuilder;
@@ -85,6 +86,19 @@ public class ORMBackendConnector {
         else return null;
     }
 
+    /**
+     * @param execType способ выполнения операторов: SIMPLE, REUSE (повторное 
+     * использование подготовленных операторов) или BATCH (пакетное выполнение)
+     * @return сессия без autocommit
+     */
+    public SqlSession createDBSession(ExecutorType execType){
+        log.trace(">>> createDBSession(execType="+execType+")");
+        if (sqlSessionFactory != null) { 
+            return sqlSessionFactory.openSession(execType); 
+        }
+        else return null;
+    }
+
     private void checkORMapperClass(Class mapperClass, Object dao) {
         //проверяем, реализует ли интерфейс mapperClass объект dao.
         //если да, то просто выходим. если нет, ругаемся
@@ -16,16 +16,23 @@
 package fxapp01.orm;
 
 import fxapp01.dao.BeanPropertyMapping;
+import fxapp01.excpt.EArgumentBreaksRule;
 import fxapp01.excpt.ENullArgument;
 import java.io.IOException;
 import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.List;
 
+import org.apache.ibatis.executor.BatchResult;
 import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.ExecutorType;
 import org.apache.ibatis.session.SqlSession;
 import fxapp01.log.ILogger;
 import fxapp01.log.LogMgr;
 import java.util.Map;
+import java.util.concurrent.Callable;
 import org.apache.ibatis.exceptions.PersistenceException;
 import org.apache.ibatis.mapping.Environment;
 import org.apache.ibatis.parsing.XNode;
@@ -35,9 +42,35 @@ public class ORMFacade {
     protected static final ILogger log = LogMgr.getLogger(ORMFacade.class);
     private static ORMBackendConnector ormConn = null;
     private SqlSession sqlSess; 
+    // сессия взята из единицы работы текущего потока (inSession) и закрывается ею
+    private boolean joined;
+
+    /*
+     * единица работы: сессия, общая для всех ORMFacade потока внутри inSession.
+     * сессия открывается при первом обращении к БД
+     */
+    private static class UnitOfWork {
+        private final boolean readOnly;
+        private SqlSession session;
+        private int depth;
+        private boolean failed;
+        // действия после фиксации, см. afterCommit
+        private final List<Runnable> afterCommit;
+
+        private UnitOfWork(boolean readOnly) {
+            this.readOnly = readOnly;
+            this.session = null;
+            this.depth = 0;
+            this.failed = false;
+            this.afterCommit = new ArrayList<>();
+        }
+    }
+
+    private static final ThreadLocal<UnitOfWork> unitOfWork = new ThreadLocal<>();
 
     public ORMFacade() throws IOException, PersistenceException {
         log.trace(">>> constructor");
+        this.joined = false;
         createDaoFactory();
     }
 
@@ -62,9 +95,41 @@ public class ORMFacade {
         return sqlSess;
     }
 
+    /**
+     * Открывает сессию для записи с заданным способом выполнения операторов, н-р 
+     * ExecutorType.BATCH для пакетной записи (см. flushStatements). 
+     * В единице работы (inSession) используется ее сессия с ее способом выполнения 
+     * операторов: execType не учитывается, пакетная запись выполняется по одному 
+     * оператору (flushStatements возвращает 0).
+     * @param execType способ выполнения операторов
+     * @return сессия
+     * @throws EArgumentBreaksRule внутри единицы работы только для чтения
+     */
+    public SqlSession createDBSession(ExecutorType execType){
+        log.trace(">>> createDBSession(execType="+execType+")");
+        UnitOfWork uow = unitOfWork.get();
+        if ((uow != null) && (ormConn != null)) {
+            if (uow.readOnly) {
+                //иначе запись в соединении только для чтения завершится ошибкой БД
+                throw new EArgumentBreaksRule("createDBSession", "execType", "write session can not join a read-only unit");
+            }
+            if (execType == ExecutorType.BATCH) {
+                log.debug("createDBSession. unit of work session is used, statements are not batched");
+            }
+            return joinDBSession(uow);
+        }
+        if (ormConn == null) { sqlSess = null; }
+        else { sqlSess = ormConn.createDBSession(execType); }
+        return sqlSess;
+    }
+
     public SqlSession getDBSession(){
         log.trace(">>> getDBSession");
         if (sqlSess == null) {
+            UnitOfWork uow = unitOfWork.get();
+            if ((uow != null) && (ormConn != null)) {
+                return joinDBSession(uow);
+            }
             return createDBSession();
         }
         else {
@@ -72,10 +137,149 @@ public class ORMFacade {
         }
     }
 
+    /* сессия единицы работы текущего потока */
+    private SqlSession joinDBSession(UnitOfWork uow) {
+        if (uow.session == null) {
+            uow.session = ormConn.createDBSession();
+            if (uow.readOnly && (uow.session != null)) {
+                try {
+                    //до первого запроса транзакции
+                    uow.session.getConnection().setReadOnly(true);
+                } catch (SQLException e) {
+                    log.error("joinDBSession. setReadOnly failed", e);
+                }
+            }
+            log.debug("joinDBSession. opened "+uow.session+", readOnly="+uow.readOnly);
+        }
+        sqlSess = uow.session;
+        joined = true;
+        return sqlSess;
+    }
+
+    /**
+     * Закрывает сессию. Сессия единицы работы (inSession) закрывается при ее завершении.
+     */
     public void closeDBSession(){
-        log.trace(">>> closeDBSession. session="+sqlSess);
-        if (sqlSess != null) { sqlSess.close(); }
+        log.trace(">>> closeDBSession. session="+sqlSess+", joined="+joined);
+        if ((sqlSess != null) && !joined) { sqlSess.close(); }
         sqlSess = null;
+        joined = false;
+    }
+
+    /**
+     * Выполняет work в единице работы: все ORMFacade текущего потока (в т.ч. в 
+     * методах DAO) используют одну сессию и одно соединение, commit откладывается 
+     * до завершения work. Вложенный вызов присоединяется к внешней единице работы,
+     * вложить единицу работы с записью в единицу работы только для чтения нельзя.
+     * При исключении в work изменения откатываются.
+     * @param <R> класс результата
+     * @param readOnly true - транзакция только для чтения (Connection.setReadOnly),
+     * ошибки завершения такой транзакции не прерывают работу
+     * @param work работа с БД
+     * @return результат work
+     * @throws IOException
+     * @throws EArgumentBreaksRule readOnly = false внутри единицы работы только для чтения
+     */
+    public static <R> R inSession(boolean readOnly, Callable<R> work) throws IOException {
+        if (work == null) {
+            throw new ENullArgument("inSession", "work");
+        }
+        UnitOfWork uow = unitOfWork.get();
+        boolean outer = (uow == null);
+        if (outer) {
+            uow = new UnitOfWork(readOnly);
+            unitOfWork.set(uow);
+        } else if (uow.readOnly && !readOnly) {
+            throw new EArgumentBreaksRule("inSession", "readOnly", "read-write unit can not join a read-only unit");
+        }
+        uow.depth++;
+        try {
+            return work.call();
+        } catch (IOException | RuntimeException e) {
+            uow.failed = true;
+            throw e;
+        } catch (Exception e) {
+            uow.failed = true;
+            throw new IOException(e);
+        } finally {
+            uow.depth--;
+            if (outer) {
+                unitOfWork.remove();
+                endSession(uow);
+            }
+        }
+    }
+
+    /**
+     * @return true, если текущий поток выполняет единицу работы (inSession)
+     */
+    public static boolean isInSession() {
+        return (unitOfWork.get() != null);
+    }
+
+    /**
+     * @return true, если текущий поток выполняет единицу работы с записью 
+     * (inSession(false, ...)): ее изменения до завершения не зафиксированы
+     */
+    public static boolean isInWriteSession() {
+        UnitOfWork uow = unitOfWork.get();
+        return (uow != null) && !uow.readOnly;
+    }
+
+    /**
+     * Выполняет action после фиксации изменений: в единице работы (inSession) - 
+     * после ее успешного завершения, при откате не выполняется; вне единицы работы - сразу.
+     * Н-р, сброс кеша запросов после записи: до фиксации другой поток заполнил бы 
+     * кеш прежними данными.
+     * @param action действие
+     */
+    public static void afterCommit(Runnable action) {
+        if (action == null) {
+            throw new ENullArgument("afterCommit", "action");
+        }
+        UnitOfWork uow = unitOfWork.get();
+        if (uow == null) {
+            action.run();
+        } else {
+            uow.afterCommit.add(action);
+        }
+    }
+
+    /* завершение транзакции и закрытие сессии единицы работы */
+    private static void endSession(UnitOfWork uow) throws IOException {
+        SqlSession s = uow.session;
+        if (s != null) {
+            endTransaction(uow, s);
+        }
+        if (!uow.failed) {
+            for (Runnable action : uow.afterCommit) {
+                action.run();
+            }
+        }
+    }
+
+    private static void endTransaction(UnitOfWork uow, SqlSession s) throws IOException {
+        log.debug("endSession. "+s+", failed="+uow.failed);
+        try {
+            if (uow.failed) {
+                s.rollback(true);
+            } else {
+                s.commit(true);
+            }
+            if (uow.readOnly) {
+                //соединение возвращается в пул
+                s.getConnection().setReadOnly(false);
+            }
+        } catch (SQLException | RuntimeException e) {
+            if (uow.readOnly || uow.failed) {
+                //результат чтения получен, исключение work важнее ошибки отката
+                log.error("endSession failed", e);
+            } else {
+                throw new IOException(e);
+            }
+        } finally {
+            s.close();
+        }
     }
 
     public <T extends Object> T getMapper(Class<T> type) {
@@ -101,14 +305,46 @@ public class ORMFacade {
         return ormConn.getBeanPropertiesMapping(beanClass);
     }
 
+    /**
+     * Отправляет в БД накопленные пакеты операторов (сессия ExecutorType.BATCH).
+     * @return кол-во строк, измененных пакетами. Если драйвер не сообщает 
+     * кол-во строк (SUCCESS_NO_INFO), оператор считается изменившим одну строку
+     */
+    public int flushStatements(){
+        log.trace(">>> flushStatements(); session="+sqlSess);
+        int res = 0;
+        if (sqlSess != null) {
+            for (BatchResult br : sqlSess.flushStatements()) {
+                for (int cnt : br.getUpdateCounts()) {
+                    if (cnt > 0) { res += cnt; }
+                    else if (cnt == Statement.SUCCESS_NO_INFO) { res++; }
+                }
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Фиксирует изменения. В единице работы (inSession) фиксация откладывается до ее завершения.
+     */
     public void commit(){
-        log.trace(">>>  commit(); session="+sqlSess);
-        if (sqlSess != null) { sqlSess.commit(); }
+        log.trace(">>>  commit(); session="+sqlSess+", joined="+joined);
+        if ((sqlSess != null) && !joined) { sqlSess.commit(); }
     }
 
+    /**
+     * Откатывает изменения. В единице работы (inSession) откатывается вся единица работы.
+     */
     public void rollback(){
-        log.trace(">>> rollback(); session="+sqlSess);
-        if (sqlSess != null) { sqlSess.rollback(); }
+        log.trace(">>> rollback(); session="+sqlSess+", joined="+joined);
+        if (sqlSess != null) {
+            if (joined) {
+                UnitOfWork uow = unitOfWork.get();
+                if (uow != null) { uow.failed = true; }
+            } else {
+                sqlSess.rollback();
+            }
+        }
     }
 
     public String getDatabaseId() throws IOException {
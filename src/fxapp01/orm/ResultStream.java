@@ -0,0 +1,177 @@
+/*
+ * Copyright 2015 serg.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fxapp01.orm;
+
+import fxapp01.excpt.ENegativeArgument;
+import fxapp01.excpt.ENullArgument;
+import fxapp01.log.ILogger;
+import fxapp01.log.LogMgr;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import org.apache.ibatis.session.ResultContext;
+import org.apache.ibatis.session.SqlSession;
+
+/**
+ * Потоковое чтение результата запроса mybatis без загрузки всех строк в память.
+ * Запрос выполняется в отдельном потоке с собственной сессией БД: строки 
+ * передаются через ResultHandler в ограниченную очередь размером fetchSize, 
+ * поэтому в памяти одновременно находится не больше одной порции строк, 
+ * а чтение из БД приостанавливается, пока потребитель не заберет строки.
+ * После чтения или при досрочном завершении нужно вызвать close() 
+ * (или закрыть Stream), чтобы прервать запрос и освободить соединение.
+ * @author serg
+ * @param <T> класс строки данных
+ */
+public class ResultStream<T> implements Iterator<T>, AutoCloseable {
+
+    private static final ILogger log = LogMgr.getLogger(ResultStream.class);
+    // признак конца результата в очереди
+    private static final Object endOfData = new Object();
+    private static final long offerTimeoutMillis = 100;
+
+    private final BlockingQueue<Object> queue;
+    private final Thread producer;
+    private volatile boolean closed;
+    private volatile Throwable failure;
+    private Object next;
+
+    /**
+     * Запускает запрос в фоновом потоке.
+     * @param statement полный идентификатор запроса, н-р "fxapp01.dao.TestItemMapper.selectAll"
+     * @param parameter параметр запроса
+     * @param fetchSize размер порции строк (Statement.setFetchSize) и очереди
+     */
+    public ResultStream(String statement, Object parameter, int fetchSize) {
+        if (statement == null) {
+            throw new ENullArgument("constructor", "statement");
+        }
+        if (fetchSize <= 0) {
+            throw new ENegativeArgument("constructor", "fetchSize");
+        }
+        this.queue = new ArrayBlockingQueue<>(fetchSize + 1);
+        this.closed = false;
+        this.failure = null;
+        this.next = null;
+        this.producer = new Thread(() -> produce(statement, parameter, fetchSize), "ResultStream");
+        this.producer.setDaemon(true);
+        this.producer.start();
+    }
+
+    private void produce(String statement, Object parameter, int fetchSize) {
+        log.trace(">>> produce. statement="+statement+", fetchSize="+fetchSize);
+        FetchSizeInterceptor.setFetchSize(fetchSize);
+        ORMFacade orm = null;
+        try {
+            orm = new ORMFacade();
+            SqlSession session = orm.getDBSession();
+            session.select(statement, parameter, (ResultContext context) -> {
+                if (!put(context.getResultObject())) {
+                    //потребитель закрыл поток - прерываем чтение
+                    context.stop();
+                }
+            });
+        } catch (IOException | RuntimeException e) {
+            log.error("produce failed", e);
+            failure = e;
+        } finally {
+            FetchSizeInterceptor.setFetchSize(null);
+            if (orm != null) {
+                orm.closeDBSession();
+            }
+            put(endOfData);
+            log.trace("<<< produce");
+        }
+    }
+
+    /* помещает строку в очередь, ожидая свободного места. false - поток закрыт */
+    private boolean put(Object row) {
+        try {
+            while (!closed) {
+                if (queue.offer(row, offerTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                    return true;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null) {
+            if (closed) {
+                return false;
+            }
+            try {
+                next = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("interrupted", e);
+            }
+        }
+        if (next == endOfData) {
+            if (failure != null) {
+                Throwable f = failure;
+                failure = null;
+                throw new IllegalStateException("streaming query failed", f);
+            }
+            return false;
+        }
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        T row = (T)next;
+        next = null;
+        return row;
+    }
+
+    /**
+     * Прерывает запрос, если он еще выполняется. Повторный вызов допустим.
+     */
+    @Override
+    public void close() {
+        if (!closed) {
+            log.trace("close");
+            closed = true;
+            queue.clear();
+        }
+    }
+
+    /**
+     * @return последовательный Stream, закрытие которого закрывает этот объект
+     */
+    public Stream<T> stream() {
+        return StreamSupport.stream(
+                Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(this::close);
+    }
+
+}
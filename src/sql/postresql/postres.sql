@@ -1,9 +1,16 @@
 -- DROP TABLE test02;
+-- DROP SEQUENCE test02_version_seq;
+
+-- version of a row: grows with every insert or update of the row (see test02_setversion)
+CREATE SEQUENCE test02_version_seq;
+ALTER SEQUENCE test02_version_seq
+  OWNER TO postgres;
 
 CREATE TABLE test02
 (
   id bigserial NOT NULL,
   name character varying(150),
+  version bigint NOT NULL DEFAULT nextval('test02_version_seq'),
   CONSTRAINT test02_pkey PRIMARY KEY (id)
 )
 WITH (
@@ -12,6 +19,39 @@ WITH (
 ALTER TABLE test02
   OWNER TO postgres;
 
+-- existing table:
+-- ALTER TABLE test02 ADD COLUMN version bigint NOT NULL DEFAULT nextval('test02_version_seq');
+
+CREATE INDEX test02_version_idx
+  ON test02
+  USING btree
+  (version);
+
+-- Function: test02_setversion()
+
+-- DROP FUNCTION test02_setversion();
+
+CREATE OR REPLACE FUNCTION test02_setversion()
+  RETURNS trigger AS
+$BODY$
+begin
+  new.version := nextval('test02_version_seq');
+  return new;
+end;
+$BODY$
+  LANGUAGE plpgsql VOLATILE
+  COST 100;
+ALTER FUNCTION test02_setversion()
+  OWNER TO postgres;
+
+-- DROP TRIGGER test02_version_trg ON test02;
+
+CREATE TRIGGER test02_version_trg
+  BEFORE INSERT OR UPDATE
+  ON test02
+  FOR EACH ROW
+  EXECUTE PROCEDURE test02_setversion();
+
 
 -- Function: random_string(integer)
 
@@ -97,7 +97,7 @@ public class BeanPropertiesTest {
     public void testGetDataPropertyIds() throws IntrospectionException {
         log.trace("getDataPropertyIds");
         BeanProperties instance = new BeanProperties(TestItemDTO.class);
-        int expResult = 3;
+        int expResult = 4; // class, id, name, version
         Collection result = instance.getDataPropertyIds();
         assertEquals(expResult, result.size());
     }
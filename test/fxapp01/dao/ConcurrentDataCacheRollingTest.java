@@ -0,0 +1,555 @@
+/*
+ * Copyright 2015 serg.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fxapp01.dao;
+
+import fxapp01.dao.cache.VersionScope;
+import fxapp01.dto.INestedRange;
+import fxapp01.dto.NestedIntRange;
+import fxapp01.dto.NestedLongRange;
+import fxapp01.dto.TestItemDTO;
+import fxapp01.log.ILogger;
+import fxapp01.log.LogMgr;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Тест кеша без БД: источник данных генерирует строки "r"+номер строки.
+ * @author serg
+ */
+public class ConcurrentDataCacheRollingTest {
+
+    private final ILogger log = LogMgr.getLogger(this.getClass());
+    private static final int total = 10000;
+    
+    private static class DataRangeFetcher implements IDataRangeFetcher<String,Integer> {
+
+        private final AtomicInteger fetches = new AtomicInteger();
+
+        @Override
+        public INestedRange<Integer> getRowTotalRange() throws IOException {
+            return new NestedIntRange(0, total, null);
+        }
+
+        @Override
+        public List<String> fetch(INestedRange<Integer> aRowsRange) {
+            fetches.incrementAndGet();
+            List<String> l = new ArrayList<>();
+            for (int i = aRowsRange.getFirst(); i <= aRowsRange.getLast(); i++) {
+                l.add("r"+i);
+            }
+            return l;
+        }
+    }
+
+    /* источник данных с записью: операции записи с кол-вом строк в каждой */
+    private static class WritableFetcher extends DataRangeFetcher implements IDataWriter<String> {
+
+        private final List<String> writes = new ArrayList<>();
+        private final List<String> inserted = new ArrayList<>();
+
+        @Override
+        public int insertRow(String item) throws IOException {
+            writes.add("insertRow");
+            return 1;
+        }
+
+        @Override
+        public int updateRow(String item) throws IOException {
+            writes.add("updateRow");
+            return 1;
+        }
+
+        @Override
+        public int deleteRow(String item) throws IOException {
+            writes.add("deleteRow");
+            return 1;
+        }
+
+        @Override
+        public int insertRows(List<String> items) throws IOException {
+            writes.add("insertRows:"+items.size());
+            inserted.addAll(items);
+            return items.size();
+        }
+
+        @Override
+        public int updateRows(List<String> items) throws IOException {
+            writes.add("updateRows:"+items.size());
+            return items.size();
+        }
+
+        @Override
+        public int deleteRows(List<String> items) throws IOException {
+            writes.add("deleteRows:"+items.size());
+            return items.size();
+        }
+    }
+
+    /* источник данных, параметры выборки (prefix) которого фиксируются при подготовке запроса */
+    private static class SnapshotFetcher extends DataRangeFetcher {
+
+        private volatile String prefix = "a";
+        private final CountDownLatch release = new CountDownLatch(1);
+        private volatile Thread fetchThread;
+
+        @Override
+        public Supplier<List<String>> prepareFetch(INestedRange<Integer> aRowsRange, String boundaryRow, boolean forward) {
+            final String p = prefix;
+            final INestedRange<Integer> r = aRowsRange.clone();
+            return () -> {
+                fetchThread = Thread.currentThread();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                List<String> l = new ArrayList<>();
+                for (int i = r.getFirst(); i <= r.getLast(); i++) {
+                    l.add(p+i);
+                }
+                return l;
+            };
+        }
+    }
+
+    /* источник данных с номерами строк за пределами int */
+    private static class LongRangeFetcher implements IDataRangeFetcher<String,Long> {
+
+        private final long longTotal = 3000000000L;
+        private final AtomicInteger fetches = new AtomicInteger();
+
+        @Override
+        public INestedRange<Long> getRowTotalRange() throws IOException {
+            return new NestedLongRange(0L, longTotal, null);
+        }
+
+        @Override
+        public List<String> fetch(INestedRange<Long> aRowsRange) {
+            fetches.incrementAndGet();
+            List<String> l = new ArrayList<>();
+            for (long i = aRowsRange.getFirst(); i <= aRowsRange.getLast(); i++) {
+                l.add("r"+i);
+            }
+            return l;
+        }
+    }
+
+    /* источник строк TestItemDTO с версиями. versions - версия строки по номеру */
+    private static class VersionedFetcher implements IDataRangeFetcher<TestItemDTO,Integer> {
+
+        private final long[] versions = new long[total];
+        private final AtomicInteger changedRows = new AtomicInteger();
+
+        private TestItemDTO row(int i) {
+            TestItemDTO row = new TestItemDTO(String.valueOf(i), "r"+i+"v"+versions[i]);
+            row.setVersion(versions[i]);
+            return row;
+        }
+
+        @Override
+        public INestedRange<Integer> getRowTotalRange() throws IOException {
+            return new NestedIntRange(0, total, null);
+        }
+
+        @Override
+        public List<TestItemDTO> fetch(INestedRange<Integer> aRowsRange) {
+            List<TestItemDTO> l = new ArrayList<>();
+            for (int i = aRowsRange.getFirst(); i <= aRowsRange.getLast(); i++) {
+                l.add(row(i));
+            }
+            return l;
+        }
+
+        @Override
+        public List<TestItemDTO> fetchChanged(VersionScope scope) {
+            List<TestItemDTO> l = new ArrayList<>();
+            for (int i = (int)scope.getMinKey(); i <= scope.getMaxKey(); i++) {
+                if (versions[i] > (Long)scope.getSinceVersion()) {
+                    l.add(row(i));
+                }
+            }
+            changedRows.addAndGet(l.size());
+            return l;
+        }
+    }
+
+    public ConcurrentDataCacheRollingTest() {
+    }
+    
+    @BeforeClass
+    public static void setUpClass() {
+    }
+    
+    @AfterClass
+    public static void tearDownClass() {
+    }
+    
+    @Before
+    public void setUp() {
+    }
+    
+    @After
+    public void tearDown() {
+    }
+
+    private ConcurrentDataCacheRolling<String,Integer> createCache(DataRangeFetcher fetcher) throws IOException {
+        ConcurrentDataCacheRolling<String,Integer> instance = new ConcurrentDataCacheRolling<>(fetcher, 20, 40);
+        instance.getRange().setLength(20);
+        instance.refresh();
+        return instance;
+    }
+
+    /**
+     * Повторное чтение строк окна не обращается к источнику данных.
+     */
+    @Test
+    public void testSnapshotRead() throws IOException {
+        log.trace("snapshot read");
+        DataRangeFetcher fetcher = new DataRangeFetcher();
+        ConcurrentDataCacheRolling<String,Integer> instance = createCache(fetcher);
+        int fetches = fetcher.fetches.get();
+        for (int i = 0; i < 20; i++) {
+            assertEquals("r"+i, instance.get(i));
+        }
+        assertEquals(fetches, fetcher.fetches.get());
+        assertTrue(instance.containsIndex(19));
+        assertFalse(instance.containsIndex(20));
+        assertEquals("r5", instance.subList(5, 6).get(0));
+    }
+
+    /**
+     * Снимок окна пересоздается только при изменении окна, но не при чтении под блокировкой.
+     */
+    @Test
+    public void testPublishOnChange() throws IOException {
+        log.trace("publish on change");
+        final AtomicInteger copies = new AtomicInteger();
+        ConcurrentDataCacheRolling<String,Integer> instance = new ConcurrentDataCacheRolling<String,Integer>(new DataRangeFetcher(), 20, 40) {
+            @Override
+            protected Object[] windowRows() {
+                copies.incrementAndGet();
+                return super.windowRows();
+            }
+        };
+        instance.getRange().setLength(20);
+        instance.refresh();
+        int n = copies.get();
+        instance.size();
+        instance.isEmpty();
+        instance.containsIndex(5);
+        instance.hasDataChanges();
+        instance.indexOf("r5");
+        instance.getVersionScope();
+        assertEquals(n, copies.get());
+        //промах сдвигает окно - новый снимок
+        assertEquals("r100", instance.get(100));
+        assertEquals(n + 1, copies.get());
+        assertEquals("r100", instance.subList(0, 1).get(0));
+    }
+
+    /**
+     * Несколько потоков одновременно читают и прокручивают общий кеш.
+     */
+    @Test
+    public void testConcurrentGet() throws Exception {
+        log.trace("concurrent get");
+        final ConcurrentDataCacheRolling<String,Integer> instance = createCache(new DataRangeFetcher());
+        instance.setReadAhead(5);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int seed = t;
+            threads[t] = new Thread(() -> {
+                Random rnd = new Random(seed);
+                try {
+                    for (int k = 0; k < 200; k++) {
+                        int start = rnd.nextInt(total - 100);
+                        for (int i = start; i < start + 100; i++) {
+                            assertEquals("r"+i, instance.get(i));
+                        }
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+    }
+
+    /**
+     * Чтение строк с номерами больше Integer.MAX_VALUE.
+     */
+    @Test
+    public void testLongRowNumbers() throws IOException {
+        log.trace("long row numbers");
+        ConcurrentDataCacheRolling<String,Long> instance = new ConcurrentDataCacheRolling<>(new LongRangeFetcher(), 20, 40);
+        instance.getRange().setLength(20L);
+        instance.refresh();
+        long start = 2999999000L;
+        for (long i = start; i < start + 100; i++) {
+            assertEquals("r"+i, instance.getRow(i));
+        }
+        for (long i = start + 99; i >= start; i--) {
+            assertEquals("r"+i, instance.getRow(i));
+        }
+        assertEquals("r2999999999", instance.getRow(2999999999L));
+        assertTrue(instance.containsIndex(2999999999L));
+        assertFalse(instance.containsIndex(5L));
+        assertEquals("r5", instance.getRow(5L));
+    }
+
+    /**
+     * Упреждающее чтение: запрос подготавливается в потоке вызывающего и только 
+     * выполняется в фоне, загруженная страница добавляется в окно без обращения 
+     * к источнику. Отключение упреждающего чтения останавливает фоновый поток.
+     */
+    @Test
+    public void testReadAhead() throws Exception {
+        log.trace("read ahead");
+        SnapshotFetcher fetcher = new SnapshotFetcher();
+        ConcurrentDataCacheRolling<String,Integer> instance = createCache(fetcher);
+        final CountDownLatch arrived = new CountDownLatch(1);
+        instance.setSpliceExecutor(r -> arrived.countDown());
+        instance.setReadAhead(5);
+        //строка у правого края окна - загрузка страницы 20..39 в фоне
+        assertEquals("r17", instance.get(17));
+        //параметры выборки меняются, пока запрос выполняется
+        fetcher.prefix = "b";
+        fetcher.release.countDown();
+        assertTrue(arrived.await(5, TimeUnit.SECONDS));
+        assertNotSame(Thread.currentThread(), fetcher.fetchThread);
+        instance.installPrefetched();
+        assertFalse(instance.hasPrefetchedPages());
+        assertEquals(0, instance.getRange().getFirst().intValue());
+        assertEquals(40, instance.getRange().getLength().intValue());
+        DataRangeFetcher source = fetcher;
+        int fetches = source.fetches.get();
+        assertEquals("a20", instance.get(20));
+        assertEquals("a39", instance.get(39));
+        assertEquals(fetches, source.fetches.get());
+        instance.setReadAhead(0);
+        fetcher.fetchThread.join(5000);
+        assertFalse(fetcher.fetchThread.isAlive());
+    }
+
+    /**
+     * Однопоточный кеш с таблицей страниц: номера строк и кол-во строк за пределами int.
+     */
+    @Test
+    public void testLongRowNumbersPaged() throws IOException {
+        log.trace("long row numbers paged");
+        LongRangeFetcher fetcher = new LongRangeFetcher();
+        DataCacheRolling<String,Long> instance = new DataCacheRolling<>(fetcher, 20, 40);
+        instance.setPageTable(20, 8);
+        instance.getRange().setLength(20L);
+        instance.refresh();
+        assertEquals(3000000000L, instance.getRowTotalLength());
+        //страница за Integer.MAX_VALUE загружается целиком (fetchRange)
+        long start = 2500000010L;
+        assertEquals("r"+start, instance.getRow(start));
+        assertEquals(2500000000L, instance.getRange().getFirst().longValue());
+        for (long i = start; i < start + 100; i++) {
+            assertEquals("r"+i, instance.getRow(i));
+        }
+        //возврат к загруженным страницам - из таблицы страниц, без обращения к источнику
+        int fetches = fetcher.fetches.get();
+        assertEquals("r"+start, instance.getRow(start));
+        assertEquals(fetches, fetcher.fetches.get());
+        //последняя строка
+        assertEquals("r2999999999", instance.getRow(2999999999L));
+        assertEquals(2999999999L, instance.getRange().getLast().longValue());
+        //кол-во строк уменьшилось - окно за новой границей сбрасывается
+        instance.setRowTotalLength(2200000000L);
+        assertEquals(2200000000L, instance.getRowTotalLength());
+        assertEquals("r2199999999", instance.getRow(2199999999L));
+    }
+
+    /**
+     * Строки, загруженные вне кеша (асинхронный режим DataList), 
+     * помещаются в окно без обращения к источнику данных.
+     */
+    @Test
+    public void testPutRows() throws IOException {
+        log.trace("put rows");
+        DataRangeFetcher fetcher = new DataRangeFetcher();
+        ConcurrentDataCacheRolling<String,Integer> instance = new ConcurrentDataCacheRolling<>(fetcher, 20, 60);
+        instance.invalidate();
+        instance.putRows(100, fetcher.fetch(new NestedIntRange(100, 20, null)));
+        instance.putRows(120, fetcher.fetch(new NestedIntRange(120, 20, null)));
+        instance.putRows(80, fetcher.fetch(new NestedIntRange(80, 20, null)));
+        assertEquals(80, instance.getRange().getFirst().intValue());
+        assertEquals(60, instance.getRange().getLength().intValue());
+        //окно заполнено - при добавлении справа вытесняются строки слева
+        instance.putRows(140, fetcher.fetch(new NestedIntRange(140, 20, null)));
+        assertFalse(instance.containsIndex(80L));
+        assertTrue(instance.containsIndex(159L));
+        //несмежные строки заменяют окно
+        instance.putRows(total - 10, fetcher.fetch(new NestedIntRange(total - 10, 10, null)));
+        assertEquals(total - 10, instance.getRange().getFirst().intValue());
+        fetcher.fetches.set(0);
+        for (int i = total - 10; i < total; i++) {
+            assertEquals("r"+i, instance.get(i));
+        }
+        assertEquals(0, fetcher.fetches.get());
+    }
+
+    /**
+     * Обновление окна запрашивает только строки с версией новее версии окна.
+     */
+    @Test
+    public void testRefreshChanged() throws IOException {
+        log.trace("refresh changed");
+        VersionedFetcher fetcher = new VersionedFetcher();
+        ConcurrentDataCacheRolling<TestItemDTO,Integer> instance = new ConcurrentDataCacheRolling<>(fetcher, 20, 40);
+        instance.getRange().setLength(20);
+        instance.refresh();
+        assertTrue(instance.refreshChanged().isEmpty());
+        assertEquals(0, fetcher.changedRows.get());
+        fetcher.versions[5] = 1;
+        fetcher.versions[17] = 2;
+        List<Long> patched = instance.refreshChanged();
+        assertEquals(2, patched.size());
+        assertEquals(2, fetcher.changedRows.get());
+        assertEquals(5L, patched.get(0).longValue());
+        assertEquals("r5v1", instance.get(5).getName());
+        assertEquals("r17v2", instance.get(17).getName());
+        //версия окна выросла - повторно те же строки не запрашиваются
+        assertTrue(instance.refreshChanged().isEmpty());
+        assertEquals(2, fetcher.changedRows.get());
+        //строки без версии - полная перезагрузка
+        ConcurrentDataCacheRolling<String,Integer> plain = createCache(new DataRangeFetcher());
+        assertNull(plain.getVersionScope());
+        assertNull(plain.refreshChanged());
+    }
+
+    /**
+     * Диапазон ключей и наибольшая версия строк окна.
+     */
+    @Test
+    public void testVersionScope() throws IOException {
+        log.trace("version scope");
+        VersionedFetcher fetcher = new VersionedFetcher();
+        fetcher.versions[3] = 7;
+        fetcher.versions[25] = 9;
+        ConcurrentDataCacheRolling<TestItemDTO,Integer> instance = new ConcurrentDataCacheRolling<>(fetcher, 20, 40);
+        instance.getRange().setLength(20);
+        instance.refresh();
+        VersionScope scope = instance.getVersionScope();
+        assertEquals(0L, scope.getMinKey());
+        assertEquals(19L, scope.getMaxKey());
+        //строка 25 за пределами окна
+        assertEquals(7L, scope.getSinceVersion());
+        //пустое окно - выбирать нечего
+        instance.invalidate();
+        assertNull(instance.getVersionScope());
+    }
+
+    /**
+     * В окне заменяются только строки окна с более новой версией и только 
+     * для того окна, для которого рассчитан scope.
+     */
+    @Test
+    public void testPatchRows() throws IOException {
+        log.trace("patch rows");
+        VersionedFetcher fetcher = new VersionedFetcher();
+        fetcher.versions[6] = 3;
+        ConcurrentDataCacheRolling<TestItemDTO,Integer> instance = new ConcurrentDataCacheRolling<>(fetcher, 20, 40);
+        instance.getRange().setLength(20);
+        instance.refresh();
+        VersionScope scope = instance.getVersionScope();
+        fetcher.versions[5] = 4;
+        fetcher.versions[6] = 2;
+        fetcher.versions[500] = 5;
+        //строка 6 со старой версией и строка 500 вне окна пропускаются
+        List<Long> patched = instance.patchRows(scope, Arrays.asList(fetcher.row(5), fetcher.row(6), fetcher.row(500)));
+        assertEquals(Arrays.asList(5L), patched);
+        assertEquals("r5v4", instance.get(5).getName());
+        assertEquals("r6v3", instance.get(6).getName());
+        assertTrue(instance.patchRows(scope, new ArrayList<>()).isEmpty());
+        assertTrue(instance.patchRows(scope, null).isEmpty());
+        //окно перезагружено после расчета scope - изменения не применяются
+        VersionScope stale = instance.getVersionScope();
+        instance.refresh();
+        fetcher.versions[7] = 8;
+        assertTrue(instance.patchRows(stale, Arrays.asList(fetcher.row(7))).isEmpty());
+        assertEquals("r7v0", instance.get(7).getName());
+    }
+
+    /**
+     * Изменения сохраняются пакетами - одна операция на вид изменений.
+     */
+    @Test
+    public void testApplyDataChangesBatch() throws IOException {
+        log.trace("applyDataChanges batch");
+        WritableFetcher fetcher = new WritableFetcher();
+        ConcurrentDataCacheRolling<String,Integer> instance = createCache(fetcher);
+        for (int i = 0; i < 5; i++) {
+            instance.set(i, "u"+i);
+        }
+        instance.add(10, "n1");
+        instance.add(11, "n2");
+        instance.remove(15);
+        assertTrue(instance.hasDataChanges());
+        instance.applyDataChanges();
+        assertFalse(instance.hasDataChanges());
+        assertEquals(Arrays.asList("deleteRows:1", "updateRows:5", "insertRows:2"), fetcher.writes);
+    }
+
+    /**
+     * Изменение новой строки остается ее добавлением, а удаление новой строки 
+     * до сохранения отменяет добавление. Изменения существующих строк не 
+     * смешиваются между собой после сдвига строк окна.
+     */
+    @Test
+    public void testPendingInsertChanges() throws IOException {
+        log.trace("pending insert changes");
+        WritableFetcher fetcher = new WritableFetcher();
+        ConcurrentDataCacheRolling<String,Integer> instance = createCache(fetcher);
+        instance.add(3, "n1");
+        instance.set(3, "n1x");
+        instance.add(4, "n2");
+        instance.remove(4);
+        //r5 удалена, на ее месте - r6
+        instance.remove(6);
+        instance.set(6, "u6");
+        instance.set(0, "u0");
+        instance.set(0, "u0x");
+        instance.applyDataChanges();
+        assertEquals(Arrays.asList("deleteRows:1", "updateRows:2", "insertRows:1"), fetcher.writes);
+        assertEquals(Arrays.asList("n1x"), fetcher.inserted);
+    }
+
+}
@@ -16,6 +16,15 @@
 
 package fxapp01.dao;
 
+import fxapp01.dao.cache.AdaptiveSizingTest;
+import fxapp01.dao.cache.CacheStatisticsTest;
+import fxapp01.dao.cache.CoalescingRangeFetcherTest;
+import fxapp01.dao.cache.RowCountCacheTest;
+import fxapp01.dao.cache.CompactRowStoreTest;
+import fxapp01.dao.cache.LongHashMapTest;
+import fxapp01.dao.cache.PageTableTest;
+import fxapp01.dao.cache.QueryResultCacheTest;
+import fxapp01.dao.cache.RingBufferTest;
 import fxapp01.dao.sort.SortOrderTest;
 import fxapp01.log.ILogger;
 import fxapp01.log.LogMgr;
@@ -38,7 +47,20 @@ import org.junit.runners.Suite;
     BeanPropertiesDescribedTest.class,
     SortOrderTest.class,
     DataListTest.class,
-    DataCacheRollingTest.class
+    DataCacheRollingTest.class,
+    ConcurrentDataCacheRollingTest.class,
+    RingBufferTest.class,
+    PageTableTest.class,
+    AdaptiveSizingTest.class,
+    LongHashMapTest.class,
+    CacheStatisticsTest.class,
+    CompactRowStoreTest.class,
+    CoalescingRangeFetcherTest.class,
+    RowCountCacheTest.class,
+    DataListChangeBatchTest.class,
+    DataListLocalTest.class,
+    RowRangeSpliteratorTest.class,
+    QueryResultCacheTest.class
 } )
 public class DAOAllTests {
 
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2015 serg.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fxapp01.dao;
+
+import fxapp01.log.ILogger;
+import fxapp01.log.LogMgr;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author serg
+ */
+public class DataListChangeBatchTest {
+
+    private final ILogger log = LogMgr.getLogger(this.getClass());
+    private final ObservableList<String> list = FXCollections.observableArrayList();
+
+    public DataListChangeBatchTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() {
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    /* проверяет очередное изменение: from, to, кол-во удаленных строк */
+    private void assertNext(DataListChange<String> c, int from, int to, int removedSize) {
+        assertTrue(c.next());
+        assertEquals(from, c.getFrom());
+        assertEquals(to, c.getTo());
+        assertEquals(removedSize, c.getRemovedSize());
+    }
+
+    /**
+     * Пересекающиеся и смежные замены объединяются, остальные упорядочиваются.
+     */
+    @Test
+    public void testReplacedMerge() {
+        log.trace("replacedMerge");
+        DataListChangeBatch<String> instance = new DataListChangeBatch<>(list);
+        assertNull(instance.build());
+        instance.replaced(40, 60, 1000);
+        instance.replaced(0, 20, 1000);
+        instance.replaced(20, 30, 1000);
+        instance.replaced(50, 80, 1000);
+        DataListChange<String> c = instance.build();
+        assertEquals(2, c.getSubChangeCount());
+        assertNext(c, 0, 30, 30);
+        assertTrue(c.wasReplaced());
+        assertNext(c, 40, 80, 40);
+        assertFalse(c.next());
+        assertTrue(instance.isEmpty());
+    }
+
+    /**
+     * Изменения кол-ва строк сводятся к одному, замены за новым концом списка отбрасываются.
+     */
+    @Test
+    public void testResized() {
+        log.trace("resized");
+        DataListChangeBatch<String> instance = new DataListChangeBatch<>(list);
+        instance.replaced(10, 20, 100);
+        instance.replaced(90, 100, 100);
+        instance.resized(100, 900);
+        instance.resized(900, 1000);
+        DataListChange<String> c = instance.build();
+        assertEquals(3, c.getSubChangeCount());
+        assertNext(c, 10, 20, 10);
+        assertNext(c, 90, 100, 10);
+        assertNext(c, 100, 1000, 0);
+        assertTrue(c.wasAdded());
+        assertFalse(c.wasRemoved());
+        //уменьшение, затем увеличение: строки после минимума заменены
+        instance.resized(1000, 500);
+        instance.replaced(600, 700, 500);
+        instance.resized(500, 800);
+        c = instance.build();
+        assertEquals(2, c.getSubChangeCount());
+        assertNext(c, 500, 800, 300);
+        assertNext(c, 800, 800, 200);
+        assertTrue(c.wasRemoved());
+    }
+
+    /**
+     * Перезагрузка поглощает остальные изменения.
+     */
+    @Test
+    public void testReplacedAll() {
+        log.trace("replacedAll");
+        DataListChangeBatch<String> instance = new DataListChangeBatch<>(list);
+        instance.resized(100, 200);
+        instance.replacedAll(200, 50);
+        instance.replaced(0, 10, 50);
+        DataListChange<String> c = instance.build();
+        assertEquals(1, c.getSubChangeCount());
+        assertNext(c, 0, 50, 100);
+        assertFalse(c.next());
+    }
+
+}
@@ -0,0 +1,379 @@
+/*
+ * Copyright 2015 serg.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fxapp01.dao;
+
+import fxapp01.dao.filter.ILocalFilterable;
+import fxapp01.dao.filter.ISqlFilterable;
+import fxapp01.dao.sort.ISortOrder;
+import fxapp01.dao.sort.SortOrder;
+import fxapp01.dto.INestedRange;
+import fxapp01.dto.NestedIntRange;
+import fxapp01.dto.NestedLongRange;
+import fxapp01.dto.SQLParams;
+import fxapp01.log.ILogger;
+import fxapp01.log.LogMgr;
+import java.io.IOException;
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * DataList без БД: локальная сортировка и фильтрация, асинхронная загрузка страниц.
+ * @author serg
+ */
+public class DataListLocalTest {
+
+    private final ILogger log = LogMgr.getLogger(this.getClass());
+
+    /* источник данных: строки "r<номер>" в порядке номеров, кол-во запросов и сбросов кеша выборок */
+    private static class DAO implements IDAOreadonly<String,Integer> {
+
+        private final int total;
+        private final AtomicInteger selects = new AtomicInteger();
+        private final AtomicInteger invalidations = new AtomicInteger();
+
+        private DAO(int total) {
+            this.total = total;
+        }
+
+        @Override
+        public IHasDataProperty getBeanProperties() {
+            return null;
+        }
+
+        @Override
+        public List<String> getColumnNames() {
+            return null;
+        }
+
+        @Override
+        public INestedRange<Integer> getRowTotalRange() throws IOException {
+            return new NestedIntRange(0, total, null);
+        }
+
+        @Override
+        public List<String> select(SQLParams prm) throws IOException {
+            selects.incrementAndGet();
+            INestedRange<?> r = prm.getRowsRange();
+            List<String> l = new ArrayList<>();
+            for (int i = r.getFirst().intValue(); (i <= r.getLast().intValue()) && (i < total); i++) {
+                l.add("r"+i);
+            }
+            return l;
+        }
+
+        @Override
+        public void invalidateCache() {
+            invalidations.incrementAndGet();
+        }
+    }
+
+    /* источник данных с кол-вом строк больше Integer.MAX_VALUE */
+    private static class LongDAO implements IDAOreadonly<String,Long> {
+
+        private final long total = 3000000000L;
+
+        @Override
+        public IHasDataProperty getBeanProperties() {
+            return null;
+        }
+
+        @Override
+        public List<String> getColumnNames() {
+            return null;
+        }
+
+        @Override
+        public INestedRange<Long> getRowTotalRange() throws IOException {
+            return new NestedLongRange(0L, total, null);
+        }
+
+        @Override
+        public List<String> select(SQLParams prm) throws IOException {
+            INestedRange<?> r = prm.getRowsRange();
+            List<String> l = new ArrayList<>();
+            for (long i = r.getFirst().longValue(); (i <= r.getLast().longValue()) && (i < total); i++) {
+                l.add("r"+i);
+            }
+            return l;
+        }
+    }
+
+    /* фильтр строк с четным номером */
+    private static class EvenFilter implements ISqlFilterable, ILocalFilterable {
+
+        @Override
+        public String getFilterSqlText() {
+            return "mod(id, 2) = 0";
+        }
+
+        @Override
+        public boolean passesFilter(Object item) {
+            return (rowNo((String)item) % 2 == 0);
+        }
+    }
+
+    private static int rowNo(String row) {
+        return Integer.parseInt(row.substring(1));
+    }
+
+    public DataListLocalTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() {
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    private DataList<String,Integer> createList(DAO dao) throws IOException {
+        DataList<String,Integer> instance = new DataList<>(dao);
+        instance.setColumnValue((row, col) -> rowNo(row));
+        return instance;
+    }
+
+    private SortOrder desc() {
+        SortOrder so = new SortOrder();
+        so.add("id", ISortOrder.Direction.DESC);
+        return so;
+    }
+
+    /**
+     * Все строки помещаются в кеш - сортировка и фильтр без запросов к БД.
+     */
+    @Test
+    public void testLocal() throws IOException {
+        log.trace("local");
+        DAO dao = new DAO(30);
+        DataList<String,Integer> instance = createList(dao);
+        instance.setSortOrder(desc());
+        assertTrue(instance.isLocal());
+        int selects = dao.selects.get();
+        assertEquals(30, instance.size());
+        assertEquals("r29", instance.get(0));
+        assertEquals("r0", instance.get(29));
+        instance.setFilter(new EvenFilter());
+        assertEquals(15, instance.size());
+        assertEquals("r28", instance.get(0));
+        assertEquals("r0", instance.get(14));
+        instance.setSortOrder(new SortOrder());
+        assertEquals("r0", instance.get(0));
+        assertEquals("r2", instance.get(1));
+        assertEquals(selects, dao.selects.get());
+        assertEquals(3, instance.getStatistics().getLocalQueries());
+        //перезагрузка - снова из БД
+        instance.refresh();
+        assertFalse(instance.isLocal());
+        assertTrue(dao.selects.get() > selects);
+    }
+
+    /**
+     * Строки при локальной сортировке сравниваются через collator, 
+     * без него - по кодам символов.
+     */
+    @Test
+    public void testLocalCollation() throws IOException {
+        log.trace("local collation");
+        //у остальных строк имени нет - они в конце
+        final String[] names = new String[30];
+        names[0] = "b";
+        names[1] = "\u00e9";
+        names[2] = "B";
+        names[3] = "a";
+        DataList<String,Integer> instance = new DataList<>(new DAO(names.length));
+        instance.setColumnValue((row, col) -> "name".equals(col) ? names[rowNo(row)] : rowNo(row));
+        instance.setCollator(Collator.getInstance(Locale.ENGLISH));
+        SortOrder so = new SortOrder();
+        so.add("name", ISortOrder.Direction.ASC);
+        instance.setSortOrder(so);
+        assertTrue(instance.isLocal());
+        assertEquals(Arrays.asList("r3", "r0", "r2", "r1"), new ArrayList<>(instance.subList(0, 4)));
+        instance.setCollator(null);
+        instance.setSortOrder(desc());
+        instance.setSortOrder(so);
+        assertEquals(Arrays.asList("r2", "r3", "r0", "r1"), new ArrayList<>(instance.subList(0, 4)));
+    }
+
+    /**
+     * Строк больше, чем помещается в кеш, но не больше предела по умолчанию - 
+     * строки загружаются в память одним запросом. Действующий фильтр не мешает 
+     * перейти к локальной сортировке.
+     */
+    @Test
+    public void testLocalBeyondWindow() throws IOException {
+        log.trace("local beyond window");
+        DAO dao = new DAO(300);
+        DataList<String,Integer> instance = createList(dao);
+        instance.setLocalLimit(0);
+        instance.setFilter(new EvenFilter());
+        assertFalse(instance.isLocal());
+        instance.setLocalLimit(DataList.defLocalLimit);
+        int selects = dao.selects.get();
+        instance.setSortOrder(desc());
+        assertTrue(instance.isLocal());
+        assertEquals(1, dao.selects.get() - selects);
+        assertEquals(150, instance.size());
+        assertEquals("r298", instance.get(0));
+        assertEquals("r0", instance.get(149));
+        assertEquals(1, dao.selects.get() - selects);
+    }
+
+    /**
+     * Строк больше предела - запрос к БД.
+     */
+    @Test
+    public void testServer() throws IOException {
+        log.trace("server");
+        DAO dao = new DAO(1000);
+        DataList<String,Integer> instance = createList(dao);
+        int selects = dao.selects.get();
+        instance.setSortOrder(desc());
+        assertFalse(instance.isLocal());
+        assertTrue(dao.selects.get() > selects);
+        //смена сортировки не сбрасывает общий кеш выборок, явное обновление - сбрасывает
+        assertEquals(0, dao.invalidations.get());
+        long counts = instance.getStatistics().getRowCounts();
+        instance.refresh();
+        assertEquals(1, dao.invalidations.get());
+        assertEquals(counts + 1, instance.getStatistics().getRowCounts());
+        assertEquals(0, instance.getStatistics().getLocalQueries());
+        //параллельный обход - страницами из БД
+        assertEquals(1000, instance.rowStream().parallel().distinct().count());
+        //предел увеличен - локально
+        instance.setLocalLimit(1000);
+        instance.setSortOrder(new SortOrder());
+        assertTrue(instance.isLocal());
+    }
+
+    /* выполняет уведомления, накопленные для потока javafx, в потоке теста */
+    private static void runAll(ConcurrentLinkedQueue<Runnable> notifications) {
+        Runnable r;
+        while ((r = notifications.poll()) != null) {
+            r.run();
+        }
+    }
+
+    /**
+     * Асинхронный режим: вместо строки, которой нет в кеше, возвращается заглушка,
+     * страница загружается в пуле и помещается в кеш через notifyExecutor. 
+     * Страница, загруженная до перезагрузки данных, отбрасывается.
+     */
+    @Test
+    public void testAsyncPages() throws Exception {
+        log.trace("async pages");
+        DAO dao = new DAO(1000);
+        DataList<String,Integer> instance = createList(dao);
+        ConcurrentLinkedQueue<Runnable> notifications = new ConcurrentLinkedQueue<>();
+        instance.setNotifyExecutor(notifications::add);
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        try {
+            instance.setAsync(() -> "placeholder", pool);
+            int selects = dao.selects.get();
+            assertEquals("placeholder", instance.get(500));
+            assertEquals("placeholder", instance.get(505));
+            assertEquals(1, instance.pendingCountProperty().get());
+            //пул из одного потока - после пустой задачи страница загружена
+            pool.submit(() -> {}).get();
+            assertEquals(1, dao.selects.get() - selects);
+            runAll(notifications);
+            assertEquals(0, instance.pendingCountProperty().get());
+            assertEquals("r500", instance.get(500));
+            assertEquals("r519", instance.get(519));
+            assertEquals(1, dao.selects.get() - selects);
+            //сортировка изменилась, пока страница загружалась
+            assertEquals("placeholder", instance.get(700));
+            instance.setSortOrder(desc());
+            pool.submit(() -> {}).get();
+            runAll(notifications);
+            assertEquals("placeholder", instance.get(700));
+            assertEquals(4, instance.getStatistics().getPlaceholders());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Строк больше Integer.MAX_VALUE: размер списка ограничен Integer.MAX_VALUE, 
+     * строки в конце этого диапазона доступны.
+     */
+    @Test
+    public void testLongSize() throws IOException {
+        log.trace("long size");
+        DataList<String,Long> instance = new DataList<>(new LongDAO());
+        assertEquals(Integer.MAX_VALUE, instance.size());
+        assertEquals("r0", instance.get(0));
+        assertEquals("r2147483646", instance.get(Integer.MAX_VALUE - 1));
+        assertEquals(3000000000L, instance.getRowTotalRange().getLength().longValue());
+        assertFalse(instance.isLocal());
+    }
+
+    /**
+     * Поток всех строк читает источник страницами по fetchSize строк.
+     */
+    @Test
+    public void testStreamAll() throws IOException {
+        log.trace("streamAll");
+        DAO dao = new DAO(1000);
+        DataList<String,Integer> instance = createList(dao);
+        int selects = dao.selects.get();
+        AtomicInteger n = new AtomicInteger();
+        try (Stream<String> rows = instance.streamAll(64)) {
+            rows.forEach(row -> assertEquals(n.getAndIncrement(), rowNo(row)));
+        }
+        assertEquals(1000, n.get());
+        assertEquals(16, dao.selects.get() - selects);
+        //все строки в памяти - без запросов
+        dao = new DAO(30);
+        instance = createList(dao);
+        instance.setSortOrder(desc());
+        selects = dao.selects.get();
+        try (Stream<String> rows = instance.streamAll(10)) {
+            assertEquals("r29", rows.findFirst().get());
+        }
+        assertEquals(selects, dao.selects.get());
+        //параметры вызывающего не изменяются
+        SQLParams prm = new SQLParams(new NestedIntRange(5, 10, null));
+        try (Stream<String> rows = dao.selectStream(prm, 10)) {
+            assertEquals(30, rows.count());
+        }
+        assertEquals(5, prm.getRowsRange().getFirst().intValue());
+        assertEquals(10, prm.getRowsRange().getLength().intValue());
+    }
+
+}
@@ -15,6 +15,7 @@
  */
 package fxapp01.dao;
 
+import fxapp01.excpt.EArgumentBreaksRule;
 import fxapp01.orm.ORMFacade;
 import fxapp01.dto.TestItemDTO;
 import fxapp01.log.ILogger;
@@ -22,7 +23,9 @@ import fxapp01.log.LogMgr;
 import java.io.IOException;
 import java.sql.Connection;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.ExecutorType;
 import org.apache.ibatis.session.SqlSession;
 import org.junit.After;
 import org.junit.AfterClass;
@@ -163,6 +166,52 @@ public class ORMFacadeTest {
         instance.rollback();
     }
 
+    /**
+     * Test of inSession method, of class ORMFacade.
+     * ORMFacade внутри единицы работы используют одну сессию, закрытие и 
+     * фиксация откладываются до ее завершения. Единица работы с записью не 
+     * присоединяется к единице работы только для чтения.
+     * @throws java.io.IOException
+     */
+    @Test
+    public void testInSession() throws IOException {
+        log.trace("inSession");
+        final AtomicInteger committed = new AtomicInteger();
+        assertFalse(ORMFacade.isInSession());
+        SqlSession result = ORMFacade.inSession(true, () -> {
+            assertTrue(ORMFacade.isInSession());
+            ORMFacade first = new ORMFacade();
+            SqlSession s = first.getDBSession();
+            first.commit();
+            first.closeDBSession();
+            ORMFacade second = new ORMFacade();
+            //вложенная единица работы присоединяется к внешней
+            assertSame(s, ORMFacade.inSession(true, second::getDBSession));
+            second.closeDBSession();
+            try {
+                ORMFacade.inSession(false, () -> null);
+                fail("read-write unit joined a read-only unit");
+            } catch (EArgumentBreaksRule e) {
+                log.debug(e.getMessage());
+            }
+            //сессия для записи в единице работы только для чтения
+            try {
+                new ORMFacade().createDBSession(ExecutorType.BATCH);
+                fail("write session joined a read-only unit");
+            } catch (EArgumentBreaksRule e) {
+                log.debug(e.getMessage());
+            }
+            assertNotNull(s.getConnection());
+            //действие после фиксации - при завершении единицы работы
+            ORMFacade.afterCommit(committed::incrementAndGet);
+            assertEquals(0, committed.get());
+            return s;
+        });
+        assertNotNull(result);
+        assertEquals(1, committed.get());
+        assertFalse(ORMFacade.isInSession());
+    }
+
     /**
      * Test of getDatabaseId method, of class ORMFacade.
      * @throws java.lang.Exception
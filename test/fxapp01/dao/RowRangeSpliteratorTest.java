@@ -0,0 +1,142 @@
+/*
+ * Copyright 2015 serg.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fxapp01.dao;
+
+import fxapp01.dto.INestedRange;
+import fxapp01.dto.NestedIntRange;
+import fxapp01.log.ILogger;
+import fxapp01.log.LogMgr;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author serg
+ */
+public class RowRangeSpliteratorTest {
+
+    private final ILogger log = LogMgr.getLogger(this.getClass());
+    // кол-во строк в "таблице" и первые строки запрошенных страниц
+    private volatile int total;
+    private final Set<Integer> pages = ConcurrentHashMap.newKeySet();
+    private volatile boolean duplicate;
+
+    public RowRangeSpliteratorTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() {
+        total = 1000;
+        pages.clear();
+        duplicate = false;
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    private List<Integer> select(INestedRange<Integer> r) {
+        if (!pages.add(r.getFirst())) {
+            duplicate = true;
+        }
+        List<Integer> l = new ArrayList<>();
+        for (int i = r.getFirst(); (i <= r.getLast()) && (i < total); i++) {
+            l.add(i);
+        }
+        return l;
+    }
+
+    /**
+     * Параллельный обход: все строки по порядку, каждая страница запрошена один раз.
+     */
+    @Test
+    public void testParallel() {
+        log.trace("parallel");
+        RowRangeSpliterator<Integer,Integer> instance = 
+                new RowRangeSpliterator<>(this::select, new NestedIntRange(0, total, null), 64);
+        List<Integer> rows = StreamSupport.stream(instance, true).collect(Collectors.toList());
+        assertEquals(total, rows.size());
+        for (int i = 0; i < total; i++) {
+            assertEquals(i, rows.get(i).intValue());
+        }
+        assertEquals(16, pages.size());
+        assertFalse(duplicate);
+        for (Integer first : pages) {
+            assertEquals(0, first % 64);
+        }
+    }
+
+    /**
+     * Деление только по границам страниц, начатая страница не делится.
+     */
+    @Test
+    public void testSplit() {
+        log.trace("split");
+        RowRangeSpliterator<Integer,Integer> instance = 
+                new RowRangeSpliterator<>(this::select, new NestedIntRange(0, 250, null), 100);
+        RowRangeSpliterator<Integer,Integer> prefix = (RowRangeSpliterator<Integer,Integer>)instance.trySplit();
+        assertEquals(100, prefix.estimateSize());
+        assertEquals(150, instance.estimateSize());
+        assertNull(prefix.trySplit());
+        //строки удалены - обход завершается раньше
+        total = 120;
+        assertTrue(instance.tryAdvance(row -> assertEquals(100, row.intValue())));
+        assertNull(instance.trySplit());
+        int[] n = new int[1];
+        instance.forEachRemaining(row -> n[0]++);
+        assertEquals(19, n[0]);
+    }
+
+    /**
+     * Открытый конец: кол-во строк занижено (оценка) - последняя часть 
+     * дочитывает строки до неполной страницы.
+     */
+    @Test
+    public void testOpenEnd() {
+        log.trace("openEnd");
+        RowRangeSpliterator<Integer,Integer> instance = 
+                new RowRangeSpliterator<>(this::select, new NestedIntRange(0, 700, null), 64, true);
+        List<Integer> rows = StreamSupport.stream(instance, true).collect(Collectors.toList());
+        assertEquals(total, rows.size());
+        for (int i = 0; i < total; i++) {
+            assertEquals(i, rows.get(i).intValue());
+        }
+        assertFalse(duplicate);
+        //без открытого конца строки за диапазоном не читаются
+        pages.clear();
+        instance = new RowRangeSpliterator<>(this::select, new NestedIntRange(0, 700, null), 64);
+        assertEquals(700, StreamSupport.stream(instance, true).count());
+    }
+
+}
@@ -16,6 +16,8 @@
 package fxapp01.dao;
 
 import fxapp01.dao.sort.SortOrder;
+import fxapp01.excpt.EArgumentBreaksRule;
+import fxapp01.orm.ORMFacade;
 import fxapp01.dto.INestedRange;
 import fxapp01.dao.sort.ISortOrder;
 import fxapp01.dto.NestedIntRange;
@@ -27,8 +29,11 @@ import java.beans.IntrospectionException;
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.Assert;
@@ -168,6 +173,30 @@ public class TestItemDAOTest {
         assertEquals(id, result.getId());
     }
 
+    /**
+     * Test of selectByPKeys method, of class TestItemDAO.
+     * Ключей больше, чем TestItemDAO.maxInListSize; строки - в порядке ключей.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testSelectByPKeys() throws Exception {
+        log.trace(">>> testSelectByPKeys");
+        TestItemDAO dao = new TestItemDAO();
+        List<BigInteger> keys = new ArrayList<>();
+        for (int i = TestItemDAO.maxInListSize * 2 + 500; i > 0; i--) {
+            keys.add(BigInteger.valueOf(i));
+        }
+        keys.add(BigInteger.ONE);
+        List<TestItemDTO> result = dao.selectByPKeys(keys);
+        assertFalse(result.isEmpty());
+        for (int i = 1; i < result.size(); i++) {
+            assertTrue(result.get(i - 1).getId().compareTo(result.get(i).getId()) > 0);
+        }
+        assertEquals(BigInteger.ONE, result.get(result.size() - 1).getId());
+        assertTrue(dao.selectByPKeys(new ArrayList<BigInteger>()).isEmpty());
+        log.trace("<<< testSelectByPKeys");
+    }
+
     /**
      * Test of select(QueryExtraParam qep) method, of class TestItemDAO.
      * @throws java.lang.Exception
@@ -235,6 +264,136 @@ public class TestItemDAOTest {
         log.trace("<<< testInsertRow");
     }
 
+    /**
+     * Test of insertRows, updateRows, deleteRows methods, of class TestItemDAO.
+     * Пакетная запись (в oracle - по одной строке, блоки с OUT параметрами)
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testWriteRows() throws Exception {
+        log.trace(">>> testWriteRows");
+        TestItemDAO dao = new TestItemDAO();
+        String prefix = "rows_"+Math.random()+"_";
+        List<TestItemDTO> items = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            TestItemDTO item = new TestItemDTO();
+            item.setName(prefix+i);
+            items.add(item);
+        }
+        assertEquals(3, dao.insertRows(items));
+        List<BigInteger> keys = new ArrayList<>();
+        for (TestItemDTO item : items) {
+            assertNotNull(item.getId());
+            keys.add(item.getId());
+            item.setName(item.getName()+"_upd");
+        }
+        assertEquals(3, dao.updateRows(items));
+        List<TestItemDTO> result = dao.selectByPKeys(keys);
+        assertEquals(3, result.size());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(prefix+i+"_upd", result.get(i).getName());
+        }
+        assertEquals(3, dao.deleteRows(items));
+        assertTrue(dao.selectByPKeys(keys).isEmpty());
+        log.trace("<<< testWriteRows");
+    }
+
+    /**
+     * Выборка в единице работы с записью - мимо общего кеша: видны изменения 
+     * единицы работы, а после отката в кеше нет незафиксированных строк.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testSelectInWriteSession() throws Exception {
+        log.trace(">>> testSelectInWriteSession");
+        TestItemDAO dao = new TestItemDAO();
+        TestItemDTO item = new TestItemDTO();
+        item.setName("uow_"+Math.random());
+        dao.insertRow(item);
+        SQLParams par = new SQLParams(new NestedIntRange(0, 10, null));
+        par.setExample(item);
+        //страница в кеше
+        assertEquals(item.getName(), dao.select(par).get(0).getName());
+        final String name = item.getName();
+        try {
+            ORMFacade.inSession(false, () -> {
+                TestItemDTO changed = TestItemDTO.copyOf(item);
+                changed.setName(name+"_upd");
+                dao.updateRow(changed);
+                assertEquals(name+"_upd", dao.select(par).get(0).getName());
+                throw new IllegalStateException("rollback");
+            });
+            fail("work exception expected");
+        } catch (IllegalStateException e) {
+            log.debug(e.getMessage());
+        }
+        assertEquals(name, dao.select(par).get(0).getName());
+        assertEquals(name, dao.selectByPKey(item.getId()).getName());
+        log.trace("<<< testSelectInWriteSession");
+    }
+
+    /**
+     * Запись в единице работы только для чтения (DAO.inSession) - исключение 
+     * до обращения к БД.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testWriteInReadOnlySession() throws Exception {
+        log.trace(">>> testWriteInReadOnlySession");
+        TestItemDAO dao = new TestItemDAO();
+        TestItemDTO item = new TestItemDTO();
+        item.setName("ro_"+Math.random());
+        try {
+            dao.inSession(() -> dao.insertRow(item));
+            fail("write in a read-only unit");
+        } catch (EArgumentBreaksRule e) {
+            log.debug(e.getMessage());
+        }
+        log.trace("<<< testWriteInReadOnlySession");
+    }
+
+    /**
+     * Test of bulkInsert method, of class TestItemDAO.
+     * Загружаются все строки нескольких порций со спецсимволами формата COPY
+     * (postgresql - COPY, oracle - direct-path insert), в единице работы 
+     * массовая загрузка не выполняется.
+     * @throws java.lang.Exception
+     */
+    @Test
+    public void testBulkInsert() throws Exception {
+        log.trace(">>> testBulkInsert");
+        final int rows = 2000;
+        TestItemDAO dao = new TestItemDAO();
+        String prefix = "bulk_"+Math.random()+"_";
+        List<TestItemDTO> items = new ArrayList<>();
+        Set<String> names = new HashSet<>();
+        for (int i = 0; i < rows; i++) {
+            TestItemDTO item = new TestItemDTO();
+            //спецсимволы формата COPY
+            item.setName(prefix+"\\\t"+i);
+            items.add(item);
+            names.add(item.getName());
+        }
+        long loaded = dao.bulkInsert(items.iterator(), TestItemDAO.defBulkChunkSize);
+        assertEquals(rows, loaded);
+        TestItemDTO example = new TestItemDTO();
+        example.setName(prefix);
+        SQLParams par = new SQLParams(new NestedIntRange(0, rows + 10, null));
+        par.setExample(example);
+        Set<String> result = new HashSet<>();
+        for (TestItemDTO item : dao.select(par)) {
+            result.add(item.getName());
+        }
+        assertEquals(names, result);
+        try {
+            ORMFacade.inSession(false, () -> dao.bulkInsert(items.iterator(), TestItemDAO.defBulkChunkSize));
+            fail("bulkInsert in a unit of work");
+        } catch (EArgumentBreaksRule e) {
+            log.debug(e.getMessage());
+        }
+        log.trace("<<< testBulkInsert");
+    }
+
     /**
      * Test of insertRowBySP method, of class TestItemDAO.
      * @throws java.lang.Exception
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2015 serg.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fxapp01.dao.cache;
+
+import fxapp01.dao.cache.AdaptiveSizing.AccessPattern;
+import fxapp01.log.ILogger;
+import fxapp01.log.LogMgr;
+import java.util.Random;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author serg
+ */
+public class AdaptiveSizingTest {
+    
+    private final ILogger log = LogMgr.getLogger(this.getClass()); 
+    // 1 мс
+    private static final long ms = 1_000_000L;
+
+    public AdaptiveSizingTest() {
+    }
+    
+    @BeforeClass
+    public static void setUpClass() {
+    }
+    
+    @AfterClass
+    public static void tearDownClass() {
+    }
+    
+    @Before
+    public void setUp() {
+    }
+    
+    @After
+    public void tearDown() {
+    }
+
+    /**
+     * Быстрая прокрутка вперед увеличивает размер страницы.
+     */
+    @Test
+    public void testForwardFlick() {
+        log.trace("forward flick");
+        AdaptiveSizing instance = new AdaptiveSizing(20, 500, 2);
+        //загрузка страницы занимает 100 мс
+        instance.onFetch(20, 100 * ms);
+        //1000 строк в секунду
+        long t = 0;
+        for (int i = 0; i < 2000; i++) {
+            instance.onAccess(i, t);
+            t += ms;
+        }
+        log.debug(instance.toString());
+        assertEquals(AccessPattern.FORWARD, instance.getPattern());
+        //за 100 мс пролистывается ~100 строк, с двойным запасом ~200
+        assertTrue(instance.getPageSize() > 150);
+        assertTrue(instance.getPageSize() <= 500);
+        assertEquals(instance.getPageSize() * 2, instance.getWindowSize());
+    }
+
+    /**
+     * Медленная прокрутка назад не увеличивает страницу сверх минимальной.
+     */
+    @Test
+    public void testSlowBackward() {
+        log.trace("slow backward");
+        AdaptiveSizing instance = new AdaptiveSizing(20, 500, 2);
+        instance.onFetch(20, 10 * ms);
+        long t = 0;
+        for (int i = 1000; i > 900; i--) {
+            instance.onAccess(i, t);
+            t += 100 * ms;
+        }
+        assertEquals(AccessPattern.BACKWARD, instance.getPattern());
+        assertEquals(20, instance.getPageSize());
+    }
+
+    /**
+     * Случайные переходы возвращают страницу к минимальному размеру.
+     */
+    @Test
+    public void testRandom() {
+        log.trace("random");
+        AdaptiveSizing instance = new AdaptiveSizing(20, 500, 3);
+        instance.onFetch(20, 100 * ms);
+        long t = 0;
+        for (int i = 0; i < 2000; i++) {
+            instance.onAccess(i, t);
+            t += ms;
+        }
+        assertTrue(instance.getPageSize() > 20);
+        Random rnd = new Random(1);
+        for (int i = 0; i < 20; i++) {
+            instance.onAccess(rnd.nextInt(1000000), t);
+            t += 10 * ms;
+        }
+        assertEquals(AccessPattern.RANDOM, instance.getPattern());
+        assertEquals(20, instance.getPageSize());
+        assertEquals(60, instance.getWindowSize());
+    }
+    
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2015 serg.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fxapp01.dao.cache;
+
+import fxapp01.log.ILogger;
+import fxapp01.log.LogMgr;
+import java.lang.management.ManagementFactory;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author serg
+ */
+public class CacheStatisticsTest {
+    
+    private final ILogger log = LogMgr.getLogger(this.getClass()); 
+
+    public CacheStatisticsTest() {
+    }
+    
+    @BeforeClass
+    public static void setUpClass() {
+    }
+    
+    @AfterClass
+    public static void tearDownClass() {
+    }
+    
+    @Before
+    public void setUp() {
+    }
+    
+    @After
+    public void tearDown() {
+    }
+
+    /**
+     * Test of snapshot method, of class CacheStatistics.
+     */
+    @Test
+    public void testSnapshot() {
+        log.trace("snapshot");
+        CacheStatistics instance = new CacheStatistics();
+        for (int i = 0; i < 9; i++) {
+            instance.recordHit();
+        }
+        instance.recordMiss();
+        instance.recordSlide();
+        instance.recordEvicted(20);
+        instance.recordRowCount();
+        instance.recordPlaceholder();
+        instance.recordPlaceholder();
+        instance.recordLocalQuery();
+        //98 загрузок по ~100 мкс и 2 по ~10 мс
+        for (int i = 0; i < 98; i++) {
+            instance.recordFetch(20, 100_000L);
+        }
+        instance.recordFetch(20, 10_000_000L);
+        instance.recordFetch(20, 10_000_000L);
+        CacheStatistics.Snapshot result = instance.snapshot();
+        log.debug(result.toString());
+        assertEquals(9, result.getHits());
+        assertEquals(0.9, result.getHitRatio(), 1e-9);
+        assertEquals(100, result.getFetchCount());
+        assertEquals(2000, result.getRowsFetched());
+        assertEquals(20, result.getRowsEvicted());
+        assertEquals(1, result.getSlides());
+        assertEquals(0, result.getReloads());
+        assertEquals(1, result.getRowCounts());
+        assertEquals(2, result.getPlaceholders());
+        assertEquals(1, result.getLocalQueries());
+        //100 мкс попадает в интервал [64, 128)
+        assertEquals(128, result.getFetchLatencyMicros(0.5));
+        //10000 мкс попадает в интервал [8192, 16384)
+        assertEquals(16384, result.getFetchLatencyMicros(0.99));
+        instance.reset();
+        assertEquals(0, instance.getHits());
+        assertEquals(0, instance.getFetchLatencyP99Micros());
+        assertEquals(0, instance.getPlaceholders());
+        //снимок не меняется после сброса счетчиков
+        assertEquals(9, result.getHits());
+    }
+
+    /**
+     * Test of register and unregister methods, of class CacheStatistics.
+     */
+    @Test
+    public void testRegister() throws Exception {
+        log.trace("register");
+        CacheStatistics instance = new CacheStatistics();
+        instance.recordMiss();
+        instance.register("test cache");
+        ObjectName on = instance.getObjectName();
+        assertNotNull(on);
+        MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+        assertEquals(1L, mbs.getAttribute(on, "Misses"));
+        instance.unregister();
+        assertFalse(mbs.isRegistered(on));
+    }
+    
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2015 serg.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fxapp01.dao.cache;
+
+import fxapp01.dao.IDataRangeFetcher;
+import fxapp01.dto.INestedRange;
+import fxapp01.dto.NestedIntRange;
+import fxapp01.log.ILogger;
+import fxapp01.log.LogMgr;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author serg
+ */
+public class CoalescingRangeFetcherTest {
+    
+    private final ILogger log = LogMgr.getLogger(this.getClass()); 
+    private static final int total = 1000;
+
+    /* источник данных, который не отвечает, пока не открыт шлюз */
+    private static class GatedFetcher implements IDataRangeFetcher<String,Integer> {
+        private final CountDownLatch gate = new CountDownLatch(1);
+        private final CountDownLatch started = new CountDownLatch(1);
+        private final AtomicInteger rowsQueried = new AtomicInteger();
+        private final AtomicInteger queries = new AtomicInteger();
+
+        @Override
+        public INestedRange<Integer> getRowTotalRange() {
+            return new NestedIntRange(0, total, null);
+        }
+
+        @Override
+        public List<String> fetch(INestedRange<Integer> aRowsRange) {
+            queries.incrementAndGet();
+            started.countDown();
+            try {
+                gate.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            List<String> l = new ArrayList<>();
+            for (int i = aRowsRange.getFirst(); (i <= aRowsRange.getLast()) && (i < total); i++) {
+                l.add("r"+i);
+                rowsQueried.incrementAndGet();
+            }
+            return l;
+        }
+    }
+
+    public CoalescingRangeFetcherTest() {
+    }
+    
+    @BeforeClass
+    public static void setUpClass() {
+    }
+    
+    @AfterClass
+    public static void tearDownClass() {
+    }
+    
+    @Before
+    public void setUp() {
+    }
+    
+    @After
+    public void tearDown() {
+    }
+
+    private static void check(List<String> rows, int first, int last) {
+        assertEquals(last - first + 1, rows.size());
+        for (int i = first; i <= last; i++) {
+            assertEquals("r"+i, rows.get(i - first));
+        }
+    }
+
+    /**
+     * Пересекающиеся одновременные запросы загружают каждую строку один раз.
+     */
+    @Test
+    public void testOverlappingFetch() throws Exception {
+        log.trace("overlapping fetch");
+        GatedFetcher source = new GatedFetcher();
+        final CoalescingRangeFetcher<String,Integer> instance = new CoalescingRangeFetcher<>(source);
+        final AtomicReference<List<String>> first = new AtomicReference<>();
+        Thread t = new Thread(() -> first.set(instance.fetch(new NestedIntRange(100, 100, null))));
+        t.start();
+        assertTrue(source.started.await(10, TimeUnit.SECONDS));
+        assertEquals(1, instance.getInFlightCount());
+        //второй запрос перекрывает первый и выходит за него с обеих сторон
+        final AtomicReference<List<String>> second = new AtomicReference<>();
+        Thread t2 = new Thread(() -> second.set(instance.fetch(new NestedIntRange(50, 200, null))));
+        t2.start();
+        while (instance.getInFlightCount() < 3) {
+            Thread.sleep(1);
+        }
+        source.gate.countDown();
+        t.join();
+        t2.join();
+        check(first.get(), 100, 199);
+        check(second.get(), 50, 249);
+        assertEquals(200, source.rowsQueried.get());
+        assertEquals(3, source.queries.get());
+        assertEquals(0, instance.getInFlightCount());
+    }
+
+    /**
+     * После forget() запрос не присоединяется к начатым ранее запросам.
+     */
+    @Test
+    public void testForget() throws Exception {
+        log.trace("forget");
+        GatedFetcher source = new GatedFetcher();
+        final CoalescingRangeFetcher<String,Integer> instance = new CoalescingRangeFetcher<>(source);
+        final AtomicReference<List<String>> first = new AtomicReference<>();
+        Thread t = new Thread(() -> first.set(instance.fetch(new NestedIntRange(100, 100, null))));
+        t.start();
+        assertTrue(source.started.await(10, TimeUnit.SECONDS));
+        //данные изменились - строки выполняющегося запроса могут быть устаревшими
+        instance.forget();
+        final AtomicReference<List<String>> second = new AtomicReference<>();
+        Thread t2 = new Thread(() -> second.set(instance.fetch(new NestedIntRange(100, 100, null))));
+        t2.start();
+        while (instance.getInFlightCount() < 2) {
+            Thread.sleep(1);
+        }
+        source.gate.countDown();
+        t.join();
+        t2.join();
+        check(first.get(), 100, 199);
+        check(second.get(), 100, 199);
+        assertEquals(2, source.queries.get());
+        assertEquals(0, instance.getInFlightCount());
+    }
+
+    /**
+     * Запрос за концом данных возвращает только существующие строки.
+     */
+    @Test
+    public void testFetchPastEnd() {
+        log.trace("fetch past end");
+        GatedFetcher source = new GatedFetcher();
+        source.gate.countDown();
+        CoalescingRangeFetcher<String,Integer> instance = new CoalescingRangeFetcher<>(source);
+        check(instance.fetch(new NestedIntRange(990, 20, null)), 990, 999);
+    }
+    
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2015 serg.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fxapp01.dao.cache;
+
+import fxapp01.dao.DataCacheRolling;
+import fxapp01.dao.IDataRangeFetcher;
+import fxapp01.dao.IDataWriter;
+import fxapp01.dto.INestedRange;
+import fxapp01.dto.NestedIntRange;
+import fxapp01.dto.TestItemDTO;
+import fxapp01.dto.TestItemDTOCodec;
+import fxapp01.log.ILogger;
+import fxapp01.log.LogMgr;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author serg
+ */
+public class CompactRowStoreTest {
+    
+    private final ILogger log = LogMgr.getLogger(this.getClass()); 
+
+    public CompactRowStoreTest() {
+    }
+    
+    @BeforeClass
+    public static void setUpClass() {
+    }
+    
+    @AfterClass
+    public static void tearDownClass() {
+    }
+    
+    @Before
+    public void setUp() {
+    }
+    
+    @After
+    public void tearDown() {
+    }
+
+    /* источник данных для кеша окна: строки createRows, записанные строки */
+    private static class Fetcher implements IDataRangeFetcher<TestItemDTO,Integer>, IDataWriter<TestItemDTO> {
+
+        private final List<String> inserted = new ArrayList<>();
+        private final List<String> updated = new ArrayList<>();
+
+        @Override
+        public INestedRange<Integer> getRowTotalRange() throws IOException {
+            return new NestedIntRange(0, 1000, null);
+        }
+
+        @Override
+        public List<TestItemDTO> fetch(INestedRange<Integer> aRowsRange) {
+            return createRows(aRowsRange.getFirst(), aRowsRange.getLast());
+        }
+
+        @Override
+        public int insertRow(TestItemDTO item) throws IOException {
+            inserted.add(item.getName());
+            return 1;
+        }
+
+        @Override
+        public int updateRow(TestItemDTO item) throws IOException {
+            updated.add(item.getName());
+            return 1;
+        }
+
+        @Override
+        public int deleteRow(TestItemDTO item) throws IOException {
+            return 1;
+        }
+    }
+
+    private static List<TestItemDTO> createRows(int from, int to) {
+        List<TestItemDTO> l = new ArrayList<>();
+        for (int i = from; i <= to; i++) {
+            l.add(new TestItemDTO(BigInteger.valueOf(i), "имя "+i));
+        }
+        return l;
+    }
+
+    /**
+     * Test of TestItemDTOCodec, of class CompactRowStore.
+     */
+    @Test
+    public void testCodec() {
+        log.trace("codec");
+        CompactRowStore<TestItemDTO> instance = new CompactRowStore<>(new TestItemDTOCodec(), true, 64, 2);
+        TestItemDTO nullName = new TestItemDTO();
+        nullName.IdProperty().set(7);
+        instance.addAllLast(Arrays.asList(new TestItemDTO(BigInteger.ONE, "aé中😀"), nullName));
+        assertEquals("aé中😀", instance.get(0).getName());
+        assertEquals(BigInteger.valueOf(7), instance.get(1).getId());
+        assertNull(instance.get(1).getName());
+        //повторное обращение к строке возвращает тот же объект
+        assertSame(instance.get(0), instance.get(0));
+    }
+
+    /**
+     * Test of slide (removeFirst, addAllLast, removeLast, addAllFirst), of class CompactRowStore.
+     */
+    @Test
+    public void testSlide() {
+        log.trace("slide");
+        CompactRowStore<TestItemDTO> instance = new CompactRowStore<>(new TestItemDTOCodec(), false, 256, 4);
+        instance.addAllLast(createRows(0, 99));
+        for (int k = 0; k < 50; k++) {
+            instance.removeFirst(10);
+            instance.addAllLast(createRows(100 + k * 10, 109 + k * 10));
+        }
+        assertEquals(100, instance.size());
+        assertEquals(createRows(500, 599), new ArrayList<>(instance));
+        instance.removeLast(60);
+        instance.addAllFirst(createRows(460, 499));
+        assertEquals(createRows(460, 539), new ArrayList<>(instance));
+        //мертвые строки освобождаются уплотнением
+        assertTrue(instance.getAllocatedBytes() < 4 * instance.getLiveBytes());
+    }
+
+    /**
+     * Test of set, add(int, T), remove(int) methods, of class CompactRowStore.
+     */
+    @Test
+    public void testSetAddRemove() {
+        log.trace("set, add(int, T), remove(int)");
+        CompactRowStore<TestItemDTO> instance = new CompactRowStore<>(new TestItemDTOCodec());
+        instance.addAllLast(createRows(0, 4));
+        TestItemDTO old = instance.set(2, new TestItemDTO(BigInteger.valueOf(2), "changed"));
+        assertEquals("имя 2", old.getName());
+        assertEquals("changed", instance.get(2).getName());
+        instance.add(0, new TestItemDTO(BigInteger.valueOf(-1), "first"));
+        instance.add(3, new TestItemDTO(BigInteger.valueOf(100), "middle"));
+        assertEquals(7, instance.size());
+        assertEquals("middle", instance.remove(3).getName());
+        assertEquals("first", instance.remove(0).getName());
+        assertEquals(BigInteger.valueOf(4), instance.get(4).getId());
+        instance.clear();
+        assertTrue(instance.isEmpty());
+        assertEquals(0, instance.getSlabCount());
+    }
+
+    /**
+     * Объекты, записанные через set() и add(int, T), не вытесняются из LRU 
+     * и переживают уплотнение.
+     */
+    @Test
+    public void testPinned() {
+        log.trace("pinned");
+        CompactRowStore<TestItemDTO> instance = new CompactRowStore<>(new TestItemDTOCodec(), false, 256, 2);
+        instance.addAllLast(createRows(0, 9));
+        TestItemDTO added = new TestItemDTO(BigInteger.valueOf(100), "added");
+        TestItemDTO changed = new TestItemDTO(BigInteger.valueOf(5), "changed");
+        instance.add(0, added);
+        instance.set(6, changed);
+        for (TestItemDTO row : instance) {
+            assertNotNull(row);
+        }
+        assertSame(added, instance.get(0));
+        assertSame(changed, instance.get(6));
+        instance.compact();
+        assertSame(added, instance.get(0));
+        assertSame(changed, instance.get(6));
+        //строка удалена - объект не хранится
+        instance.remove(0);
+        assertEquals("имя 0", instance.get(0).getName());
+    }
+
+    /**
+     * Изменение новой строки кеша окна с компактным хранилищем после вытеснения 
+     * ее объекта из LRU остается добавлением строки.
+     * @throws java.io.IOException
+     */
+    @Test
+    public void testPinnedInCache() throws IOException {
+        log.trace("pinned in cache");
+        Fetcher fetcher = new Fetcher();
+        DataCacheRolling<TestItemDTO,Integer> cache = new DataCacheRolling<>(fetcher, 20, 40);
+        cache.getRange().setLength(20);
+        cache.refresh();
+        cache.setRowStore(new CompactRowStore<>(new TestItemDTOCodec(), false, CompactRowStore.defSlabSize, 2));
+        TestItemDTO added = new TestItemDTO();
+        added.setName("new");
+        cache.add(3, added);
+        //объекты строк окна вытесняют новую строку из LRU
+        for (int i = 0; i < 20; i++) {
+            cache.get(i);
+        }
+        TestItemDTO edited = TestItemDTO.copyOf(cache.get(3));
+        edited.setName("new edited");
+        cache.set(3, edited);
+        cache.applyDataChanges();
+        assertEquals(Arrays.asList("new edited"), fetcher.inserted);
+        assertTrue(fetcher.updated.isEmpty());
+    }
+    
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2015 serg.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fxapp01.dao.cache;
+
+import fxapp01.log.ILogger;
+import fxapp01.log.LogMgr;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author serg
+ */
+public class LongHashMapTest {
+    
+    private final ILogger log = LogMgr.getLogger(this.getClass()); 
+
+    public LongHashMapTest() {
+    }
+    
+    @BeforeClass
+    public static void setUpClass() {
+    }
+    
+    @AfterClass
+    public static void tearDownClass() {
+    }
+    
+    @Before
+    public void setUp() {
+    }
+    
+    @After
+    public void tearDown() {
+    }
+
+    /**
+     * Test of put, get, putIfAbsent methods, of class LongHashMap.
+     */
+    @Test
+    public void testPutGet() {
+        log.trace("put, get");
+        LongHashMap<String> instance = new LongHashMap<>();
+        assertNull(instance.put(-1, "a"));
+        assertEquals("a", instance.put(-1, "b"));
+        assertNull(instance.put(Long.MAX_VALUE, null));
+        assertTrue(instance.containsKey(Long.MAX_VALUE));
+        assertNull(instance.get(Long.MAX_VALUE));
+        assertFalse(instance.putIfAbsent(-1, "c"));
+        assertTrue(instance.putIfAbsent(0, "c"));
+        assertEquals("b", instance.get(-1));
+        assertEquals(3, instance.size());
+        assertTrue(instance.containsValue(null));
+        assertTrue(instance.containsValue("c"));
+        assertFalse(instance.containsValue("a"));
+        instance.clear();
+        assertTrue(instance.isEmpty());
+        assertFalse(instance.containsKey(-1));
+    }
+
+    /**
+     * Случайные добавления/удаления сверяются с HashMap, в т.ч. с ростом таблицы.
+     */
+    @Test
+    public void testRandomOps() {
+        log.trace("random ops");
+        LongHashMap<Long> instance = new LongHashMap<>(4);
+        Map<Long,Long> expected = new HashMap<>();
+        Random rnd = new Random(1);
+        for (int k = 0; k < 100000; k++) {
+            long key = rnd.nextInt(5000) - 2500;
+            if (rnd.nextInt(3) == 0) {
+                assertEquals(expected.remove(key), instance.remove(key));
+            } else {
+                assertEquals(expected.put(key, (long)k), instance.put(key, (long)k));
+            }
+            assertEquals(expected.size(), instance.size());
+        }
+        for (long key = -2500; key < 2500; key++) {
+            assertEquals(expected.containsKey(key), instance.containsKey(key));
+            assertEquals(expected.get(key), instance.get(key));
+        }
+        int count = 0;
+        for (int i = 0; i < instance.capacity(); i++) {
+            if (instance.isUsed(i)) {
+                assertEquals(expected.get(instance.keyAt(i)), instance.valueAt(i));
+                count++;
+            }
+        }
+        assertEquals(expected.size(), count);
+    }
+    
+}
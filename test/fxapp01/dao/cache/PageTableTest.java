@@ -0,0 +1,118 @@
+/*
+ * Copyright 2015 serg.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fxapp01.dao.cache;
+
+import fxapp01.excpt.EArgumentBreaksRule;
+import fxapp01.log.ILogger;
+import fxapp01.log.LogMgr;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author serg
+ */
+public class PageTableTest {
+    
+    private final ILogger log = LogMgr.getLogger(this.getClass()); 
+
+    public PageTableTest() {
+    }
+    
+    @BeforeClass
+    public static void setUpClass() {
+    }
+    
+    @AfterClass
+    public static void tearDownClass() {
+    }
+    
+    @Before
+    public void setUp() {
+    }
+    
+    @After
+    public void tearDown() {
+    }
+
+    /**
+     * Test of pageOf method, of class PageTable.
+     */
+    @Test
+    public void testPageOf() {
+        log.trace("pageOf");
+        PageTable<Integer> instance = new PageTable<>(20, 4);
+        assertEquals(0L, instance.pageOf(0));
+        assertEquals(0L, instance.pageOf(19));
+        assertEquals(1L, instance.pageOf(20));
+        assertEquals(5000000000L, instance.pageOf(100000000000L));
+    }
+
+    /**
+     * Test of put and get methods, of class PageTable.
+     */
+    @Test
+    public void testPutGet() {
+        log.trace("put, get");
+        PageTable<Integer> instance = new PageTable<>(3, 4);
+        List<Integer> rows = new ArrayList<>(Arrays.asList(3, 4, 5));
+        instance.put(1, rows);
+        //таблица хранит копию страницы
+        rows.clear();
+        assertEquals(Arrays.asList(3, 4, 5), instance.get(1));
+        assertTrue(instance.contains(1));
+        assertNull(instance.get(0));
+        //неполная страница допустима
+        instance.put(2, Arrays.asList(6));
+        assertEquals(2, instance.size());
+        try {
+            instance.put(3, Arrays.asList(9, 10, 11, 12));
+            fail("page larger than pageSize must be rejected");
+        } catch (EArgumentBreaksRule e) {
+            assertEquals(2, instance.size());
+        }
+        instance.clear();
+        assertEquals(0, instance.size());
+    }
+
+    /**
+     * Test of LRU eviction, of class PageTable.
+     */
+    @Test
+    public void testEviction() {
+        log.trace("eviction");
+        PageTable<Integer> instance = new PageTable<>(2, 3);
+        instance.put(0, Arrays.asList(0, 1));
+        instance.put(1, Arrays.asList(2, 3));
+        instance.put(2, Arrays.asList(4, 5));
+        //обращение к странице 0 делает вытесняемой страницу 1
+        assertNotNull(instance.get(0));
+        instance.put(3, Arrays.asList(6, 7));
+        assertEquals(3, instance.size());
+        assertTrue(instance.contains(0));
+        assertFalse(instance.contains(1));
+        assertTrue(instance.contains(2));
+        assertTrue(instance.contains(3));
+    }
+    
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2015 serg.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fxapp01.dao.cache;
+
+import fxapp01.dto.NestedIntRange;
+import fxapp01.dto.SQLParams;
+import fxapp01.dto.TestItemDTO;
+import fxapp01.log.ILogger;
+import fxapp01.log.LogMgr;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author serg
+ */
+public class QueryResultCacheTest {
+
+    private final ILogger log = LogMgr.getLogger(this.getClass());
+    private final AtomicInteger selects = new AtomicInteger();
+
+    public QueryResultCacheTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() {
+        selects.set(0);
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    private List<String> select(SQLParams prm) {
+        selects.incrementAndGet();
+        int first = prm.getRowsRange().getFirst().intValue();
+        return Arrays.asList("r"+first, "r"+(first + 1));
+    }
+
+    private SQLParams page(int first) {
+        return new SQLParams(new NestedIntRange(first, 2, null));
+    }
+
+    /**
+     * Одинаковые выборки - один запрос, при превышении размера вытесняется давно не использованная.
+     */
+    @Test
+    public void testLRU() throws IOException {
+        log.trace("LRU");
+        QueryResultCache instance = new QueryResultCache(2, 60000);
+        SQLParams p0 = page(0);
+        assertEquals("r0", instance.select("a", p0, () -> select(p0)).get(0));
+        assertEquals("r0", instance.select("a", page(0), () -> select(p0)).get(0));
+        assertEquals(1, selects.get());
+        assertEquals(1, instance.getHits());
+        //другая область - другой ключ
+        instance.select("b", p0, () -> select(p0));
+        assertEquals(2, selects.get());
+        instance.select("a", p0, () -> select(p0));
+        SQLParams p2 = page(2);
+        instance.select("a", p2, () -> select(p2));
+        //вытеснена "b"
+        assertEquals(2, instance.size());
+        instance.select("a", p0, () -> select(p0));
+        assertEquals(3, selects.get());
+        instance.select("b", p0, () -> select(p0));
+        assertEquals(4, selects.get());
+    }
+
+    /**
+     * Запись в область удаляет ее страницы, результат выборки, начатой до записи, не сохраняется.
+     */
+    @Test
+    public void testInvalidate() throws IOException {
+        log.trace("invalidate");
+        QueryResultCache instance = new QueryResultCache(10, 60000);
+        SQLParams p0 = page(0);
+        instance.select("a", p0, () -> select(p0));
+        instance.select("b", p0, () -> select(p0));
+        instance.invalidate("a");
+        assertEquals(1, instance.size());
+        instance.select("a", p0, () -> {
+            instance.invalidate("a");
+            return select(p0);
+        });
+        assertEquals(1, instance.size());
+        instance.select("a", p0, () -> select(p0));
+        assertEquals(4, selects.get());
+        assertEquals(2, instance.size());
+        instance.clear();
+        assertEquals(0, instance.size());
+    }
+
+    /**
+     * Изменяемые строки хранятся и выдаются копиями: изменение строки, полученной 
+     * одним получателем, не видно другим.
+     */
+    @Test
+    public void testCopies() throws IOException {
+        log.trace("copies");
+        QueryResultCache instance = new QueryResultCache(10, 60000);
+        SQLParams p0 = page(0);
+        List<TestItemDTO> first = instance.select("a", p0, 
+                () -> Arrays.asList(new TestItemDTO("1", "a1")), TestItemDTO::copyOf);
+        first.get(0).setName("edited");
+        List<TestItemDTO> second = instance.select("a", page(0), 
+                () -> Arrays.asList(new TestItemDTO("1", "a1")), TestItemDTO::copyOf);
+        assertEquals(1, instance.getHits());
+        assertEquals("a1", second.get(0).getName());
+        second.get(0).setName("edited again");
+        assertEquals("a1", instance.select("a", page(0), () -> null, TestItemDTO::copyOf).get(0).getName());
+        assertEquals("edited", first.get(0).getName());
+    }
+
+    /**
+     * Общее кол-во строк выборки со счетчиком хранится вместе со строками, 
+     * выборка без счетчика - другой ключ.
+     */
+    @Test
+    public void testCountTotal() throws IOException {
+        log.trace("countTotal");
+        QueryResultCache instance = new QueryResultCache(10, 60000);
+        SQLParams p0 = page(0);
+        instance.select("a", p0, () -> select(p0));
+        SQLParams counted = page(0);
+        counted.setCountTotal(true);
+        instance.select("a", counted, () -> {
+            counted.setTotalRows(42L);
+            return select(counted);
+        });
+        assertEquals(2, selects.get());
+        SQLParams hit = page(0);
+        hit.setCountTotal(true);
+        assertEquals("r0", instance.select("a", hit, () -> null).get(0));
+        assertEquals(1, instance.getHits());
+        assertEquals(Long.valueOf(42), hit.getTotalRows());
+    }
+
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2015 serg.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fxapp01.dao.cache;
+
+import fxapp01.log.ILogger;
+import fxapp01.log.LogMgr;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author serg
+ */
+public class RingBufferTest {
+    
+    private final ILogger log = LogMgr.getLogger(this.getClass()); 
+
+    public RingBufferTest() {
+    }
+    
+    @BeforeClass
+    public static void setUpClass() {
+    }
+    
+    @AfterClass
+    public static void tearDownClass() {
+    }
+    
+    @Before
+    public void setUp() {
+    }
+    
+    @After
+    public void tearDown() {
+    }
+
+    private RingBuffer<Integer> createBuffer(int from, int to) {
+        RingBuffer<Integer> rb = new RingBuffer<>(4);
+        for (int i = from; i <= to; i++) {
+            rb.addLast(i);
+        }
+        return rb;
+    }
+
+    /**
+     * Test of addAllFirst method, of class RingBuffer.
+     */
+    @Test
+    public void testAddAllFirst() {
+        log.trace("addAllFirst");
+        RingBuffer<Integer> instance = createBuffer(3, 5);
+        assertTrue(instance.addAllFirst(Arrays.asList(0, 1, 2)));
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4, 5), instance);
+        assertFalse(instance.addAllFirst(new ArrayList<Integer>()));
+    }
+
+    /**
+     * Test of addAllLast method, of class RingBuffer.
+     */
+    @Test
+    public void testAddAllLast() {
+        log.trace("addAllLast");
+        RingBuffer<Integer> instance = createBuffer(0, 2);
+        assertTrue(instance.addAllLast(Arrays.asList(3, 4, 5, 6, 7)));
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4, 5, 6, 7), instance);
+    }
+
+    /**
+     * Test of removeFirst and removeLast methods, of class RingBuffer.
+     * Окно сдвигается вправо и влево, как в DataCacheRolling.
+     */
+    @Test
+    public void testSlide() {
+        log.trace("slide");
+        RingBuffer<Integer> instance = createBuffer(0, 9);
+        instance.removeFirst(4);
+        instance.addAllLast(Arrays.asList(10, 11, 12, 13));
+        assertEquals(10, instance.size());
+        assertEquals(Integer.valueOf(4), instance.get(0));
+        assertEquals(Integer.valueOf(13), instance.get(9));
+        instance.removeLast(6);
+        instance.addAllFirst(Arrays.asList(0, 1, 2, 3));
+        List<Integer> expResult = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            expResult.add(i);
+        }
+        assertEquals(expResult, instance);
+        instance.removeFirst(instance.size());
+        assertTrue(instance.isEmpty());
+    }
+
+    /**
+     * Test of add(int, T) and remove(int) methods, of class RingBuffer.
+     */
+    @Test
+    public void testAddRemoveMiddle() {
+        log.trace("add(int, T), remove(int)");
+        RingBuffer<Integer> instance = createBuffer(0, 5);
+        instance.removeFirst(2);
+        instance.addAllLast(Arrays.asList(6, 7));
+        instance.add(1, 100);
+        instance.add(5, 200);
+        assertEquals(Arrays.asList(2, 100, 3, 4, 5, 200, 6, 7), instance);
+        assertEquals(Integer.valueOf(100), instance.remove(1));
+        assertEquals(Integer.valueOf(200), instance.remove(4));
+        assertEquals(Arrays.asList(2, 3, 4, 5, 6, 7), instance);
+        assertEquals(3, instance.indexOf(5));
+        assertEquals(-1, instance.indexOf(100));
+    }
+    
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2015 serg.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fxapp01.dao.cache;
+
+import fxapp01.dto.INestedRange;
+import fxapp01.dto.NestedIntRange;
+import fxapp01.log.ILogger;
+import fxapp01.log.LogMgr;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author serg
+ */
+public class RowCountCacheTest {
+
+    private final ILogger log = LogMgr.getLogger(this.getClass());
+    // кол-во строк в "таблице" и кол-во подсчетов
+    private final AtomicInteger rows = new AtomicInteger();
+    private final AtomicInteger counts = new AtomicInteger();
+
+    public RowCountCacheTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() {
+        rows.set(100);
+        counts.set(0);
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    private INestedRange<Integer> count() {
+        counts.incrementAndGet();
+        return new NestedIntRange(0, rows.get(), null);
+    }
+
+    /**
+     * Значение запрашивается у источника один раз в течение TTL.
+     */
+    @Test
+    public void testTTL() throws IOException {
+        log.trace("TTL");
+        RowCountCache<Integer> instance = new RowCountCache<>(this::count, 60000);
+        instance.setRefreshExecutor(Runnable::run);
+        assertEquals(100, instance.get().getLength().intValue());
+        rows.set(150);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(100, instance.getLength());
+        }
+        assertEquals(1, counts.get());
+        //TTL истек - обновление в фоне (здесь - в том же потоке)
+        instance.setTTLMillis(0);
+        instance.getLength();
+        assertEquals(2, counts.get());
+        assertEquals(150, instance.getLength());
+    }
+
+    /**
+     * Добавленные и удаленные строки учитываются без подсчета.
+     */
+    @Test
+    public void testAdjust() throws IOException {
+        log.trace("adjust");
+        RowCountCache<Integer> instance = new RowCountCache<>(this::count, 60000);
+        instance.load();
+        instance.adjust(1);
+        instance.adjust(1);
+        instance.adjust(-1);
+        assertEquals(101, instance.getLength());
+        assertEquals(101, instance.get().getLength().intValue());
+        assertEquals(1, counts.get());
+        //новый подсчет уже включает изменения, сделанные до его начала
+        rows.set(101);
+        assertEquals(101, instance.load().getLength().intValue());
+        assertEquals(101, instance.getLength());
+    }
+
+    /**
+     * getLength не ждет выполняющегося подсчета, а результат подсчета,
+     * начатого до смены области, отбрасывается и подсчет повторяется.
+     */
+    @Test
+    public void testScope() throws Exception {
+        log.trace("scope");
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        RowCountCache<Integer> instance = new RowCountCache<>(() -> {
+            if (counts.get() > 0) {
+                started.countDown();
+                release.await();
+            }
+            return count();
+        }, 60000);
+        instance.load();
+        rows.set(10);
+        instance.invalidate();
+        assertEquals(100, instance.getLength());
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        assertTrue(instance.isRefreshing());
+        //подсчет еще выполняется - возвращается прежнее значение
+        assertEquals(100, instance.getLength());
+        instance.setScope("name like 'a%'");
+        release.countDown();
+        while (instance.isRefreshing()) {
+            Thread.sleep(1);
+        }
+        assertEquals(3, counts.get());
+        assertFalse(instance.isStale());
+        assertEquals(10, instance.get().getLength().intValue());
+    }
+
+    /**
+     * Оценка возвращается сразу, точное значение подсчитывается в фоне.
+     */
+    @Test
+    public void testEstimate() throws IOException {
+        log.trace("estimate");
+        final AtomicInteger changes = new AtomicInteger();
+        RowCountCache<Integer> instance = new RowCountCache<>(this::count, 60000);
+        instance.setRefreshExecutor(Runnable::run);
+        instance.setOnChange(changes::incrementAndGet);
+        instance.setEstimateSource(() -> {
+            //оценка выполняется до подсчета и после него не вызывается
+            assertEquals(0, counts.get());
+            return new NestedIntRange(0, 90, null);
+        });
+        //первое значение - оценка, затем (здесь - в том же потоке) точное
+        assertEquals(90, instance.loadEstimate().getLength().intValue());
+        assertEquals(1, counts.get());
+        assertFalse(instance.isEstimated());
+        assertEquals(100, instance.getLength());
+        assertEquals(2, changes.get());
+        //без оценки - подсчет
+        instance.setEstimateSource(() -> null);
+        rows.set(120);
+        assertEquals(120, instance.loadEstimate().getLength().intValue());
+        assertEquals(3, changes.get());
+    }
+
+    /**
+     * Кол-во строк, полученное вместе со страницей, принимается без подсчета,
+     * если область не сменилась после начала запроса.
+     */
+    @Test
+    public void testOffer() throws IOException {
+        log.trace("offer");
+        RowCountCache<Integer> instance = new RowCountCache<>(this::count, 60000);
+        instance.setRefreshExecutor(Runnable::run);
+        RowCountCache.Mark mark = instance.mark();
+        assertTrue(instance.offer(mark, new NestedIntRange(0, 70, null)));
+        assertFalse(instance.isStale());
+        assertEquals(70, instance.getLength());
+        assertEquals(0, counts.get());
+        //область сменилась во время запроса - значение отбрасывается
+        mark = instance.mark();
+        instance.setScope("name like 'a%'");
+        assertFalse(instance.offer(mark, new NestedIntRange(0, 50, null)));
+        assertTrue(instance.isStale());
+        assertEquals(100, instance.load().getLength().intValue());
+        assertEquals(1, counts.get());
+    }
+
+}
@@ -36,7 +36,8 @@ import org.junit.runners.Suite;
     LimitedIntRangeTest.class, 
     GeoLocationTest.class,
     SortOrderTest.class,
-    SqlFilterTest.class
+    SqlFilterTest.class,
+    SQLParamsTest.class
 })
 public class DTOAllTests {
 
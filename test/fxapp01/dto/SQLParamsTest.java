@@ -0,0 +1,158 @@
+/*
+ * Copyright 2015 serg.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fxapp01.dto;
+
+import fxapp01.dao.sort.ISortOrder;
+import fxapp01.dao.sort.SortOrder;
+import fxapp01.excpt.EArgumentBreaksRule;
+import fxapp01.log.ILogger;
+import fxapp01.log.LogMgr;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author serg
+ */
+public class SQLParamsTest {
+
+    private final ILogger log = LogMgr.getLogger(this.getClass());
+
+    public SQLParamsTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() {
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    private SQLParams createParams() {
+        SortOrder so = new SortOrder();
+        so.add("name", ISortOrder.Direction.DESC);
+        SQLParams prm = new SQLParams(new NestedIntRange(100, 20, null), so);
+        prm.setKeyColumn("id");
+        return prm;
+    }
+
+    /**
+     * Первичный ключ дополняет сортировку, при выборке назад направления меняются.
+     */
+    @Test
+    public void testOrderBy() {
+        log.trace("orderBy");
+        assertNull(new SQLParams(new NestedIntRange(0, 10, null)).getOrderBy());
+        SQLParams prm = createParams();
+        assertEquals("name DESC, id ASC", prm.getOrderBy());
+        assertEquals(Arrays.asList("name", "id"), prm.getSortColumns());
+        prm.setKeyset(Arrays.asList("m", 5), false);
+        assertEquals("name ASC, id DESC", prm.getOrderBy());
+    }
+
+    /**
+     * Условие keyset: (name < v1) or (name = v1 and id > v2).
+     */
+    @Test
+    public void testKeysetConditions() {
+        log.trace("keysetConditions");
+        SQLParams prm = createParams();
+        assertFalse(prm.isKeyset());
+        assertTrue(prm.getKeysetConditions().isEmpty());
+        prm.setKeyset(Arrays.asList("m", 5), true);
+        assertTrue(prm.isKeyset());
+        assertFalse(prm.isKeysetUniform());
+        List<List<SQLParams.KeysetTerm>> c = prm.getKeysetConditions();
+        assertEquals(2, c.size());
+        assertEquals(1, c.get(0).size());
+        assertEquals("name", c.get(0).get(0).getColumn());
+        assertEquals("<", c.get(0).get(0).getOp());
+        assertEquals("m", c.get(0).get(0).getValue());
+        assertEquals(2, c.get(1).size());
+        assertEquals("=", c.get(1).get(0).getOp());
+        assertEquals("id", c.get(1).get(1).getColumn());
+        assertEquals(">", c.get(1).get(1).getOp());
+        assertEquals(5, c.get(1).get(1).getValue());
+        //назад - знаки меняются
+        prm.setKeyset(Arrays.asList("m", 5), false);
+        c = prm.getKeysetConditions();
+        assertEquals(">", c.get(0).get(0).getOp());
+        assertEquals("<", c.get(1).get(1).getOp());
+    }
+
+    /**
+     * Одно направление сортировки - сравнение строк (c1, c2) > (v1, v2).
+     */
+    @Test
+    public void testKeysetUniform() {
+        log.trace("keysetUniform");
+        SQLParams prm = new SQLParams(new NestedIntRange(0, 10, null));
+        prm.setKeyColumn("id");
+        prm.setKeyset(Arrays.asList(7), true);
+        assertTrue(prm.isKeysetUniform());
+        assertEquals("id", prm.getKeysetColumns());
+        assertEquals(">", prm.getKeysetOp());
+        try {
+            prm.setKeyset(Arrays.asList(7, 8), true);
+            fail("values must match sort columns");
+        } catch (EArgumentBreaksRule e) {
+        }
+    }
+
+    /**
+     * Параметры одного и того же запроса равны независимо от класса и вложенности
+     * диапазона, копия не зависит от изменений исходных параметров.
+     */
+    @Test
+    public void testEquals() {
+        log.trace("equals");
+        SQLParams prm = createParams();
+        SQLParams other = createParams();
+        other.setRowsRange(new NestedLongRange(100L, 20L, new NestedLongRange(0L, 1000L, null)));
+        assertEquals(prm, other);
+        assertEquals(prm.hashCode(), other.hashCode());
+        SQLParams copy = new SQLParams(prm);
+        prm.setRowsRange(new NestedIntRange(120, 20, null));
+        assertFalse(prm.equals(copy));
+        assertEquals(other, copy);
+        other.setKeyset(Arrays.asList("m", 5), true);
+        assertFalse(other.equals(copy));
+        SortOrder so = new SortOrder();
+        so.add("name", ISortOrder.Direction.ASC);
+        copy.setSortOrder(so);
+        assertFalse(createParams().equals(copy));
+        //страница со счетчиком строк - другой запрос
+        SQLParams counted = createParams();
+        counted.setCountTotal(true);
+        assertFalse(createParams().equals(counted));
+    }
+
+}